@@ -0,0 +1,68 @@
+package com.workflowconversion.knime2grid.export.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how {@link ContentStore} reads its index back.
+ *
+ * @author delagarza
+ */
+public class ContentStoreTest {
+
+	private File directory;
+	private File source;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("contentstoretest").toFile();
+		source = new File(directory, "source.txt");
+		Files.write(source.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		final File storeDirectory = new File(directory, "store");
+		ContentStore contentStore = new ContentStore(storeDirectory, Long.MAX_VALUE);
+		final File storedFile = contentStore.put(source);
+		contentStore.putAlias("alias", storedFile);
+		contentStore.close();
+
+		contentStore = new ContentStore(storeDirectory, Long.MAX_VALUE);
+		assertEquals(storedFile, contentStore.get(storedFile.getName()));
+		assertEquals(storedFile, contentStore.getByAlias("alias"));
+		assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(storedFile.toPath()));
+	}
+
+	@Test
+	public void testIgnoreRecordsCutShort() throws IOException {
+		final File storeDirectory = new File(directory, "store");
+		ContentStore contentStore = new ContentStore(storeDirectory, Long.MAX_VALUE);
+		final File storedFile = contentStore.put(source);
+		// a crash while appending leaves an incomplete record behind
+		Files.write(new File(storeDirectory, "index").toPath(),
+				("O\t" + storedFile.getName() + "\t7\nO\tfeedbeef\t12\nO\tfeedbeef\t1\t17").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		contentStore = new ContentStore(storeDirectory, Long.MAX_VALUE);
+		assertNotNull(contentStore.get(storedFile.getName()));
+		assertNull(contentStore.get("feedbeef"));
+	}
+}
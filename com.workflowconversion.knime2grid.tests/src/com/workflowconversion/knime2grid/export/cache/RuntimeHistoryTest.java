@@ -0,0 +1,155 @@
+package com.workflowconversion.knime2grid.export.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the parsing of the records written by the job scripts, the size classes and the incremental ingestion of logs in
+ * {@link RuntimeHistory}.
+ *
+ * @author delagarza
+ */
+public class RuntimeHistoryTest {
+
+	private final static String TOOL = "OpenMS/FeatureFinderCentroided";
+
+	private File directory;
+	private File historyFile;
+	private RuntimeHistory history;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("runtimehistorytest").toFile();
+		historyFile = new File(directory, "history.tsv");
+		history = new RuntimeHistory(historyFile);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testSizeClasses() {
+		assertEquals(0, RuntimeHistory.getSizeClass(RuntimeHistory.UNKNOWN_SIZE));
+		assertEquals(0, RuntimeHistory.getSizeClass(0));
+		assertEquals(1, RuntimeHistory.getSizeClass(1));
+		assertEquals(2, RuntimeHistory.getSizeClass(4));
+		// each class spans a factor of four
+		assertEquals(RuntimeHistory.getSizeClass(1024), RuntimeHistory.getSizeClass(4095));
+		assertEquals(RuntimeHistory.getSizeClass(1024) + 1, RuntimeHistory.getSizeClass(4096));
+		assertEquals(32, RuntimeHistory.getSizeClass(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testParseStatsFile() throws IOException {
+		write("job/knime2grid-stats.json", record(TOOL, 0, 1, 1000, 4000, 7000, 2048, 500) + '\n');
+
+		assertEquals(1, history.ingest(directory));
+
+		final RuntimeHistory.Estimate estimate = history.estimate(TOOL, 1000);
+		assertNotNull(estimate);
+		assertEquals(1, estimate.getRuns());
+		// all phases count towards the walltime
+		assertEquals(5000, estimate.getWalltimeMillis());
+		assertEquals(2048, estimate.getPeakRssKb());
+		// 7000ms of CPU time in 4000ms of execution
+		assertEquals(2, estimate.getCores());
+		assertEquals(500, estimate.getOutputBytes());
+	}
+
+	@Test
+	public void testParseBatchedRecord() throws IOException {
+		write("job/knime2grid-stats.json", record(TOOL, 0, 4, 4000, 8000, 8000, 2048, 400) + '\n');
+
+		history.ingest(directory);
+
+		// records are kept per element, except for the peak memory
+		final RuntimeHistory.Estimate estimate = history.estimate(TOOL, 1000);
+		assertEquals(2250, estimate.getWalltimeMillis());
+		assertEquals(2048, estimate.getPeakRssKb());
+		assertEquals(1, estimate.getCores());
+		assertEquals(100, estimate.getOutputBytes());
+	}
+
+	@Test
+	public void testIgnoreInvalidRecords() throws IOException {
+		write("job.log", "some output\nKNIME2GRID_STATS " + record(TOOL, 1, 1, 1000, 1000, 1000, 1, 1) + '\n' + "KNIME2GRID_STATS "
+				+ record("", 0, 1, 1000, 1000, 1000, 1, 1) + "\nKNIME2GRID_STATS {\"script\": \"zip_loop_start.sh\"}\n");
+
+		assertEquals(0, history.ingest(directory));
+		assertNull(history.estimate(TOOL, 1000));
+	}
+
+	@Test
+	public void testEstimateBySizeClass() throws IOException {
+		write("small/knime2grid-stats.json", record(TOOL, 0, 1, 1000, 1000, 1000, 1, 1) + '\n');
+		write("large/knime2grid-stats.json", record(TOOL, 0, 1, 1000 * 1000, 9000, 1000, 1, 1) + '\n');
+		history.ingest(directory);
+
+		assertEquals(2000, history.estimate(TOOL, 1000).getWalltimeMillis());
+		assertEquals(10000, history.estimate(TOOL, 1000 * 1000).getWalltimeMillis());
+		// without runs in the same size class, the longest run is used
+		assertEquals(10000, history.estimate(TOOL, 10).getWalltimeMillis());
+		assertEquals(2, history.estimate(TOOL, RuntimeHistory.UNKNOWN_SIZE).getRuns());
+		assertNull(history.estimate("unknown", 1000));
+	}
+
+	@Test
+	public void testIngestGrowingLog() throws IOException {
+		final File log = write("job.log", "KNIME2GRID_STATS " + record(TOOL, 0, 1, 1000, 1000, 1000, 1, 1) + "\nKNIME2GRID_STATS {\"tool\"");
+		assertEquals(1, history.ingest(directory));
+		assertEquals(0, history.ingest(directory));
+
+		// the incomplete line is read again once it's complete
+		Files.write(log.toPath(), (": \"" + TOOL + "\", \"exit_code\": 0, \"phases_ms\": {\"execute\": 2000}}\n").getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		assertEquals(1, history.ingest(directory));
+		assertEquals(2, history.estimate(TOOL, RuntimeHistory.UNKNOWN_SIZE).getRuns());
+
+		// the ingested part of the log is remembered across instances
+		Files.write(log.toPath(), ("KNIME2GRID_STATS " + record(TOOL, 0, 1, 1000, 3000, 1000, 1, 1) + '\n').getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		history = new RuntimeHistory(historyFile);
+		assertEquals(1, history.ingest(directory));
+		assertEquals(3, history.estimate(TOOL, RuntimeHistory.UNKNOWN_SIZE).getRuns());
+	}
+
+	@Test
+	public void testIngestRewrittenStatsFile() throws IOException {
+		final File stats = write("job/knime2grid-stats.json", record(TOOL, 0, 1, 1000, 1000, 1000, 1, 1) + '\n');
+		assertEquals(1, history.ingest(directory));
+
+		// a job that runs again rewrites its statistics file
+		write("job/knime2grid-stats.json", record(TOOL, 0, 1, 1000, 2000, 1000, 1, 1) + '\n');
+		stats.setLastModified(stats.lastModified() + 1000);
+		assertEquals(1, history.ingest(directory));
+		assertEquals(3000, history.estimate(TOOL, 1000).getWalltimeMillis());
+	}
+
+	private File write(final String path, final String content) throws IOException {
+		final File file = new File(directory, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String record(final String tool, final int exitCode, final int elements, final long inputBytes, final long executeMillis,
+			final long cpuMillis, final long peakRssKb, final long outputBytes) {
+		return "{\"script\": \"job_wrapper.sh\", \"tool\": \"" + tool + "\", \"started\": 1500000000, \"exit_code\": " + exitCode + ", \"elements\": "
+				+ elements + ", \"phases_ms\": {\"stage_in\": 1000, \"execute\": " + executeMillis + "}, \"input_bytes\": " + inputBytes
+				+ ", \"output_bytes\": " + outputBytes + ", \"peak_rss_kb\": " + peakRssKb + ", \"cpu_ms\": " + cpuMillis + "}";
+	}
+}
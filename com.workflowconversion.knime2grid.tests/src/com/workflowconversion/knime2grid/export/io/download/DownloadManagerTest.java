@@ -0,0 +1,236 @@
+package com.workflowconversion.knime2grid.export.io.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.workflowconversion.knime2grid.model.DataHandle;
+
+/**
+ * Tests {@link DownloadManager} against an embedded HTTP server that can refuse range requests and cut transfers short.
+ *
+ * @author delagarza
+ */
+public class DownloadManagerTest {
+
+	private final static int CONTENT_LENGTH = 256 * 1024;
+
+	private byte[] content;
+	private HttpServer server;
+	private URL url;
+	private File destination;
+	private DownloadManager downloadManager;
+
+	// behaviour of the server
+	private volatile boolean acceptRanges;
+	// number of GET requests that will fail with a server error
+	private final AtomicInteger failingRequests = new AtomicInteger();
+	// number of GET requests that will be cut short after sending half of the requested bytes
+	private final AtomicInteger truncatedRequests = new AtomicInteger();
+	// the Range header (or "" if there was none) of each GET request
+	private final List<String> requestedRanges = Collections.synchronizedList(new ArrayList<String>());
+
+	@Before
+	public void setUp() throws IOException {
+		content = new byte[CONTENT_LENGTH];
+		new Random(42).nextBytes(content);
+		acceptRanges = true;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/data", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), "/data");
+		destination = File.createTempFile("downloadmanagertest", ".download");
+	}
+
+	@After
+	public void tearDown() {
+		if (downloadManager != null) {
+			downloadManager.shutdown();
+		}
+		server.stop(0);
+		destination.delete();
+	}
+
+	@Test
+	public void testDownloadWithoutRangeSupport() throws IOException {
+		acceptRanges = false;
+		createDownloadManager(5, 4);
+
+		downloadManager.download(url, destination);
+
+		assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+		assertEquals(Collections.singletonList(""), requestedRanges);
+	}
+
+	@Test
+	public void testDownloadInSegments() throws IOException {
+		createDownloadManager(5, 4);
+
+		downloadManager.download(url, destination);
+
+		assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+		assertEquals(4, requestedRanges.size());
+		for (int segment = 0; segment < 4; segment++) {
+			final int start = segment * CONTENT_LENGTH / 4;
+			assertTrue("missing segment " + segment, requestedRanges.contains("bytes=" + start + '-' + (start + CONTENT_LENGTH / 4 - 1)));
+		}
+	}
+
+	@Test
+	public void testResumeInterruptedTransfer() throws IOException {
+		truncatedRequests.set(1);
+		createDownloadManager(5, 1);
+
+		downloadManager.download(url, destination);
+
+		assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+		assertEquals(2, requestedRanges.size());
+		// the first request was cut short after half of the content, the second one must continue from there
+		assertEquals("bytes=" + CONTENT_LENGTH / 2 + '-' + (CONTENT_LENGTH - 1), requestedRanges.get(1));
+	}
+
+	@Test
+	public void testRestartInterruptedTransferWithoutRangeSupport() throws IOException {
+		acceptRanges = false;
+		truncatedRequests.set(1);
+		createDownloadManager(5, 1);
+
+		downloadManager.download(url, destination);
+
+		assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+		assertEquals(2, requestedRanges.size());
+		assertEquals("", requestedRanges.get(1));
+	}
+
+	@Test
+	public void testRetryAfterServerErrors() throws IOException {
+		failingRequests.set(2);
+		createDownloadManager(3, 1);
+
+		downloadManager.download(url, destination);
+
+		assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+		assertEquals(3, requestedRanges.size());
+	}
+
+	@Test
+	public void testGiveUpAfterMaxAttempts() {
+		failingRequests.set(Integer.MAX_VALUE);
+		createDownloadManager(3, 1);
+
+		try {
+			downloadManager.download(url, destination);
+			fail("the download should have failed");
+		} catch (final IOException e) {
+			// expected
+		}
+		assertEquals(3, requestedRanges.size());
+	}
+
+	@Test
+	public void testFetchWithoutSharedInstance() throws IOException {
+		// the shared instance is only initialized when the plug-in starts
+		DownloadManager.disposeInstance();
+		final DataHandle dataHandle = new DataHandle(url.toExternalForm());
+		assertFalse(dataHandle.isLocal());
+
+		final File localFile;
+		try (final DataFetcher dataFetcher = new DataFetcher()) {
+			try (final InputStream inputStream = dataFetcher.openStream(dataHandle, "test")) {
+				assertEquals(content[0], (byte) inputStream.read());
+			}
+			localFile = dataFetcher.getLocalFile(dataHandle);
+			assertArrayEquals(content, Files.readAllBytes(localFile.toPath()));
+			// the same location is only downloaded once
+			assertEquals(localFile, dataFetcher.getLocalFile(new DataHandle(url.toExternalForm())));
+		}
+		assertFalse("downloads must be deleted when the fetcher is closed", localFile.exists());
+	}
+
+	@Test
+	public void testFileUrlIsLocal() {
+		final DataHandle dataHandle = new DataHandle(destination.toURI().toString());
+
+		assertTrue(dataHandle.isLocal());
+		assertEquals(destination.getAbsoluteFile(), dataHandle.getLocalFile().getAbsoluteFile());
+		assertEquals(destination.length(), dataHandle.getExpectedSize());
+	}
+
+	private void createDownloadManager(final int maxAttempts, final int segments) {
+		final DownloadSettings settings = new DownloadSettings.Builder().withThreads(1).withMaxAttempts(maxAttempts).withSegments(segments)
+				.withSegmentThresholdBytes(CONTENT_LENGTH / 2).withConnectTimeoutMillis(5000).withReadTimeoutMillis(5000).newInstance();
+		downloadManager = new DownloadManager(settings, null);
+	}
+
+	private void serve(final HttpExchange exchange) throws IOException {
+		if (acceptRanges) {
+			exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+		}
+		exchange.getResponseHeaders().add("ETag", "\"content\"");
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.getResponseHeaders().add("Content-Length", Integer.toString(CONTENT_LENGTH));
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+		final String range = exchange.getRequestHeaders().getFirst("Range");
+		requestedRanges.add(range == null ? "" : range);
+		if (failingRequests.getAndDecrement() > 0) {
+			exchange.sendResponseHeaders(500, -1);
+			return;
+		}
+		int start = 0;
+		int end = CONTENT_LENGTH - 1;
+		if (acceptRanges && range != null) {
+			final String[] bounds = range.substring("bytes=".length()).split("-", -1);
+			start = Integer.parseInt(bounds[0]);
+			if (!bounds[1].isEmpty()) {
+				end = Integer.parseInt(bounds[1]);
+			}
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + start + '-' + end + '/' + CONTENT_LENGTH);
+			exchange.sendResponseHeaders(206, end - start + 1);
+		} else {
+			exchange.sendResponseHeaders(200, CONTENT_LENGTH);
+		}
+		final int length = end - start + 1;
+		final OutputStream outputStream = exchange.getResponseBody();
+		if (truncatedRequests.getAndDecrement() > 0) {
+			outputStream.write(content, start, length / 2);
+			outputStream.flush();
+			// closing the exchange before all of the announced bytes were sent drops the connection
+			return;
+		}
+		outputStream.write(content, start, length);
+	}
+}
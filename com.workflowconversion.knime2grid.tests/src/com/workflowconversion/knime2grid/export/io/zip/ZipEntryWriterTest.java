@@ -0,0 +1,167 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that both {@link ZipEntryWriter}s copy duplicates of shared entries from the archive they are writing.
+ *
+ * @author delagarza
+ */
+public class ZipEntryWriterTest {
+
+	private final static int CONTENT_LENGTH = 1024 * 1024;
+
+	private File archive;
+	private byte[] text;
+	private byte[] noise;
+
+	@Before
+	public void setUp() throws IOException {
+		archive = File.createTempFile("zipentrywritertest", ".zip");
+		final Random random = new Random(42);
+		text = new byte[CONTENT_LENGTH];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte) ('a' + random.nextInt(4));
+		}
+		noise = new byte[CONTENT_LENGTH];
+		random.nextBytes(noise);
+	}
+
+	@After
+	public void tearDown() {
+		archive.delete();
+	}
+
+	@Test
+	public void testSequentialDuplicates() throws IOException {
+		testDuplicates(1, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testParallelDuplicates() throws IOException {
+		testDuplicates(4, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testParallelDuplicatesWithLittleScatterSpace() throws IOException {
+		testDuplicates(4, CONTENT_LENGTH / 2);
+	}
+
+	@Test
+	public void testParallelWritesLargeEntriesInOrder() throws IOException {
+		final SeekableByteChannel archiveChannel = BufferedSeekableByteChannel.open(archive);
+		try (final ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(archiveChannel)) {
+			zipOutputStream.setUseZip64(Zip64Mode.AsNeeded);
+			try (final ZipEntryWriter entryWriter = new ParallelZipEntryWriter(zipOutputStream, archiveChannel, 4, CONTENT_LENGTH / 2,
+					new CompressionPolicy(), new CompressionReport())) {
+				for (int i = 0; i < 12; i++) {
+					// small, too large for the scatter space and of unknown size
+					final byte[] content = i % 3 == 0 ? Arrays.copyOf(text, 1024) : text;
+					final long expectedSize = i % 3 == 2 ? ZipEntryWriter.UNKNOWN_SIZE : content.length;
+					entryWriter.writeEntry("entry" + i, new CountingContent(content, null), expectedSize);
+				}
+				entryWriter.finish();
+			}
+		}
+
+		try (final ZipFile zipFile = new ZipFile(archive)) {
+			final List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+			assertEquals(12, entries.size());
+			for (int i = 0; i < 12; i++) {
+				assertEquals("entry" + i, entries.get(i).getName());
+				assertEquals(i % 3 == 0 ? 1024 : CONTENT_LENGTH, read(zipFile, entries.get(i)).length);
+			}
+		}
+	}
+
+	private void testDuplicates(final int threads, final long maxScatterBytes) throws IOException {
+		final CountingContent sharedText = new CountingContent(text, "reference.fasta");
+		final CountingContent sharedNoise = new CountingContent(noise, "reads.fastq.gz");
+		final SeekableByteChannel archiveChannel = BufferedSeekableByteChannel.open(archive);
+		try (final ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(archiveChannel)) {
+			zipOutputStream.setUseZip64(Zip64Mode.AsNeeded);
+			final CompressionPolicy compressionPolicy = new CompressionPolicy();
+			final CompressionReport compressionReport = new CompressionReport();
+			try (final ZipEntryWriter entryWriter = threads > 1
+					? new ParallelZipEntryWriter(zipOutputStream, archiveChannel, threads, maxScatterBytes, compressionPolicy, compressionReport)
+					: new SequentialZipEntryWriter(zipOutputStream, archiveChannel, compressionPolicy, compressionReport)) {
+				entryWriter.writeDirectory("job0/");
+				entryWriter.writeSharedEntry("job0/text", sharedText, CONTENT_LENGTH);
+				entryWriter.writeSharedEntry("job0/noise", sharedNoise, CONTENT_LENGTH);
+				for (int job = 1; job < 5; job++) {
+					entryWriter.writeEntry("job" + job + "/own", new CountingContent(noise, null), ZipEntryWriter.UNKNOWN_SIZE);
+					entryWriter.writeDuplicate("job" + job + "/text", "job0/text");
+					entryWriter.writeDuplicate("job" + job + "/noise", "job0/noise");
+				}
+				entryWriter.finish();
+			}
+		}
+
+		assertEquals(1, sharedText.writes.get());
+		assertEquals(1, sharedNoise.writes.get());
+		try (final ZipFile zipFile = new ZipFile(archive)) {
+			final ZipArchiveEntry text0 = zipFile.getEntry("job0/text");
+			final ZipArchiveEntry noise0 = zipFile.getEntry("job0/noise");
+			assertEquals(ZipArchiveEntry.DEFLATED, text0.getMethod());
+			assertEquals(ZipArchiveEntry.STORED, noise0.getMethod());
+			for (int job = 0; job < 5; job++) {
+				final ZipArchiveEntry textEntry = zipFile.getEntry("job" + job + "/text");
+				assertEquals(text0.getCompressedSize(), textEntry.getCompressedSize());
+				assertArrayEquals(text, read(zipFile, textEntry));
+				assertArrayEquals(noise, read(zipFile, zipFile.getEntry("job" + job + "/noise")));
+				if (job > 0) {
+					assertArrayEquals(noise, read(zipFile, zipFile.getEntry("job" + job + "/own")));
+				}
+			}
+		}
+	}
+
+	private static byte[] read(final ZipFile zipFile, final ZipArchiveEntry entry) throws IOException {
+		try (final InputStream inputStream = zipFile.getInputStream(entry)) {
+			return IOUtils.toByteArray(inputStream);
+		}
+	}
+
+	private static class CountingContent implements EntryContent {
+		final byte[] content;
+		final String sourceName;
+		final AtomicInteger writes = new AtomicInteger();
+
+		CountingContent(final byte[] content, final String sourceName) {
+			this.content = content;
+			this.sourceName = sourceName;
+		}
+
+		@Override
+		public void writeTo(final OutputStream outputStream) throws IOException {
+			writes.incrementAndGet();
+			outputStream.write(content);
+		}
+
+		@Override
+		public String getSourceName() {
+			return sourceName;
+		}
+	}
+}
@@ -1,14 +1,26 @@
 package com.workflowconversion.knime2grid;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.knime.core.node.KNIMEConstants;
+import org.knime.core.node.NodeLogger;
 import org.osgi.framework.BundleContext;
 
+import com.workflowconversion.knime2grid.export.cache.ContentStore;
+import com.workflowconversion.knime2grid.export.cache.ConversionCache;
+import com.workflowconversion.knime2grid.export.cache.RuntimeHistory;
 import com.workflowconversion.knime2grid.export.io.SourceConverter;
+import com.workflowconversion.knime2grid.export.io.download.DownloadManager;
+import com.workflowconversion.knime2grid.export.io.download.DownloadSettings;
 import com.workflowconversion.knime2grid.export.io.impl.CSVReaderConverter;
 import com.workflowconversion.knime2grid.export.io.impl.ListMimeFileImporterConverter;
 import com.workflowconversion.knime2grid.export.io.impl.MimeFileImporterConverter;
@@ -22,6 +34,7 @@ import com.workflowconversion.knime2grid.export.workflow.KnimeWorkflowExporter;
 import com.workflowconversion.knime2grid.export.workflow.KnimeWorkflowExporterProvider;
 import com.workflowconversion.knime2grid.export.workflow.impl.bash.BashKnimeWorkflowExporter;
 import com.workflowconversion.knime2grid.export.workflow.impl.guse.GuseKnimeWorkflowExporter;
+import com.workflowconversion.knime2grid.preference.PreferenceConstants;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -31,9 +44,18 @@ public class KnimeWorkflowExporterActivator extends AbstractUIPlugin {
 	// The plug-in ID
 	public static final String PLUGIN_ID = "com.workflowconversion.knime2grid"; //$NON-NLS-1$
 
+	private static final String CONVERSION_CACHE_DIRECTORY = "knime2grid" + File.separatorChar + "conversion-cache";
+
+	private static final String CONTENT_STORE_DIRECTORY = "knime2grid" + File.separatorChar + "content-store";
+
+	private static final String RUNTIME_HISTORY_FILE = "knime2grid" + File.separatorChar + "runtime-history";
+	private static final NodeLogger LOGGER = NodeLogger.getLogger(KnimeWorkflowExporterActivator.class);
+
 	// The shared instance
 	private static KnimeWorkflowExporterActivator plugin;
 
+	private ContentStore contentStore;
+
 	/**
 	 * The constructor
 	 */
@@ -49,16 +71,20 @@ public class KnimeWorkflowExporterActivator extends AbstractUIPlugin {
 	public void start(final BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		final ConversionCache conversionCache = createConversionCache();
+		contentStore = createContentStore();
+		DownloadManager.initInstance(DownloadSettings.fromPreferences(getPreferenceStore()), contentStore);
 		final Collection<KnimeWorkflowExporter> knownExporters = new LinkedList<KnimeWorkflowExporter>();
-		knownExporters.add(new GuseKnimeWorkflowExporter());
+		// the history lives in the KNIME workspace as well, it's only read when the plug-in starts
+		knownExporters.add(new GuseKnimeWorkflowExporter(new RuntimeHistory(new File(KNIMEConstants.getKNIMEHomeDir(), RUNTIME_HISTORY_FILE))));
 		knownExporters.add(new BashKnimeWorkflowExporter());
 
 		// the order in which we add the handlers IS important!!!
 		// so we need to arrange the converters from most to less specific
 		final Collection<NodeContainerConverter> nodeConverters = new LinkedList<NodeContainerConverter>();
 		nodeConverters.add(new LoopNodeConverter());
-		nodeConverters.add(new GenericKnimeNodeConverter());
-		nodeConverters.add(new DefaultKnimeNodeConverter());
+		nodeConverters.add(new GenericKnimeNodeConverter(conversionCache, contentStore));
+		nodeConverters.add(new DefaultKnimeNodeConverter(conversionCache));
 
 		// here the order is not very important, since we are targeting specific implementations,
 		// however, PortObjectReader takes all kinds of PortObjects, so it shold be the last one
@@ -73,6 +99,54 @@ public class KnimeWorkflowExporterActivator extends AbstractUIPlugin {
 				Collections.unmodifiableCollection(sourceConverters));
 	}
 
+	// the cache lives in the KNIME workspace, so it survives KNIME sessions
+	private ConversionCache createConversionCache() {
+		final IPreferenceStore preferenceStore = getPreferenceStore();
+		if (!preferenceStore.getBoolean(PreferenceConstants.CONVERSION_CACHE_ENABLED)) {
+			return null;
+		}
+		final ConversionCache conversionCache = new ConversionCache(new File(KNIMEConstants.getKNIMEHomeDir(), CONVERSION_CACHE_DIRECTORY),
+				toBytes(preferenceStore.getInt(PreferenceConstants.CONVERSION_CACHE_SIZE_MB)));
+		preferenceStore.addPropertyChangeListener(new IPropertyChangeListener() {
+			@Override
+			public void propertyChange(final PropertyChangeEvent event) {
+				if (PreferenceConstants.CONVERSION_CACHE_SIZE_MB.equals(event.getProperty())) {
+					conversionCache.setMaxSizeInBytes(toBytes(preferenceStore.getInt(PreferenceConstants.CONVERSION_CACHE_SIZE_MB)));
+				}
+			}
+		});
+		return conversionCache;
+	}
+
+	// a broken store should not prevent the plug-in from working
+	private ContentStore createContentStore() {
+		final IPreferenceStore preferenceStore = getPreferenceStore();
+		if (!preferenceStore.getBoolean(PreferenceConstants.CONTENT_STORE_ENABLED)) {
+			return null;
+		}
+		final ContentStore store;
+		try {
+			store = new ContentStore(new File(KNIMEConstants.getKNIMEHomeDir(), CONTENT_STORE_DIRECTORY),
+					toBytes(preferenceStore.getInt(PreferenceConstants.CONTENT_STORE_SIZE_MB)));
+		} catch (final IOException e) {
+			LOGGER.warn("Could not open the content store, downloads and CTDs will not be shared across exports", e);
+			return null;
+		}
+		preferenceStore.addPropertyChangeListener(new IPropertyChangeListener() {
+			@Override
+			public void propertyChange(final PropertyChangeEvent event) {
+				if (PreferenceConstants.CONTENT_STORE_SIZE_MB.equals(event.getProperty())) {
+					store.setMaxSizeInBytes(toBytes(preferenceStore.getInt(PreferenceConstants.CONTENT_STORE_SIZE_MB)));
+				}
+			}
+		});
+		return store;
+	}
+
+	private static long toBytes(final int megabytes) {
+		return Math.max(0, megabytes) * 1024L * 1024L;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -80,6 +154,11 @@ public class KnimeWorkflowExporterActivator extends AbstractUIPlugin {
 	 */
 	@Override
 	public void stop(final BundleContext context) throws Exception {
+		DownloadManager.disposeInstance();
+		if (contentStore != null) {
+			contentStore.close();
+			contentStore = null;
+		}
 		plugin = null;
 		super.stop(context);
 	}
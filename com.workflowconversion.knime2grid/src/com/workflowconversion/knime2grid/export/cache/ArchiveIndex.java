@@ -0,0 +1,174 @@
+package com.workflowconversion.knime2grid.export.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+/**
+ * Index of an exported archive, kept in a file next to it. The index records a fingerprint of the source of each entry
+ * (e.g., the SHA-256 digest of an input file), so that a later export to the same archive can copy entries whose
+ * sources have not changed instead of compressing them again.
+ *
+ * Computing fingerprints requires reading the sources, so the index also remembers the digests of files together with
+ * their size and modification time; files that have not been modified since are not read again.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author delagarza
+ */
+public class ArchiveIndex {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(ArchiveIndex.class);
+	private final static String INDEX_FILE_SUFFIX = ".index";
+	private final static String ENTRY_RECORD = "E";
+	private final static String FILE_RECORD = "F";
+	private final static char SEPARATOR = '\t';
+
+	private final Map<String, String> fingerprints = new HashMap<String, String>();
+	// digests of the files used by this archive, keyed by path, size and modification time
+	private final Map<String, String> fileDigests = new HashMap<String, String>();
+	// digests of files used by the previous version of the archive
+	private final Map<String, String> previousFileDigests;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public ArchiveIndex() {
+		this(Collections.<String, String> emptyMap());
+	}
+
+	private ArchiveIndex(final Map<String, String> previousFileDigests) {
+		this.previousFileDigests = previousFileDigests;
+	}
+
+	/**
+	 * @param archive
+	 *            an archive.
+	 * @return the file in which the index of the given archive is kept.
+	 */
+	public static File getIndexFile(final File archive) {
+		return new File(archive.getPath() + INDEX_FILE_SUFFIX);
+	}
+
+	/**
+	 * Reads an index.
+	 *
+	 * @param indexFile
+	 *            the file in which the index is kept.
+	 * @return the index, empty if the file does not exist.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public static ArchiveIndex read(final File indexFile) throws IOException {
+		final ArchiveIndex index = new ArchiveIndex();
+		if (!indexFile.isFile()) {
+			return index;
+		}
+		try (final BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split(String.valueOf(SEPARATOR), 3);
+				if (fields.length == 3 && ENTRY_RECORD.equals(fields[0])) {
+					index.fingerprints.put(fields[2], fields[1]);
+				} else if (fields.length == 3 && FILE_RECORD.equals(fields[0])) {
+					index.fileDigests.put(fields[2], fields[1]);
+				} else {
+					LOGGER.warn("Ignoring invalid line in archive index " + indexFile + ": " + line);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return an empty index for a new version of the archive, which knows the file digests of this index.
+	 */
+	public synchronized ArchiveIndex next() {
+		final Map<String, String> knownFileDigests = new HashMap<String, String>(previousFileDigests);
+		knownFileDigests.putAll(fileDigests);
+		return new ArchiveIndex(knownFileDigests);
+	}
+
+	/**
+	 * @param entryName
+	 *            the name of an entry.
+	 * @return the fingerprint of the source of the entry, or {@code null} if not known.
+	 */
+	public synchronized String getFingerprint(final String entryName) {
+		return fingerprints.get(entryName);
+	}
+
+	/**
+	 * @param entryName
+	 *            the name of an entry.
+	 * @param fingerprint
+	 *            the fingerprint of the source of the entry.
+	 */
+	public synchronized void putFingerprint(final String entryName, final String fingerprint) {
+		Validate.notEmpty(entryName, "entryName cannot be null or empty");
+		Validate.notEmpty(fingerprint, "fingerprint cannot be null or empty");
+		fingerprints.put(entryName, fingerprint);
+	}
+
+	/**
+	 * Computes the SHA-256 digest of a file, unless the file has not been modified since its digest was last computed.
+	 *
+	 * @param file
+	 *            the file.
+	 * @return the digest.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public String digest(final File file) throws IOException {
+		// paths could contain the separator, so they go last
+		final String key = file.length() + "" + SEPARATOR + file.lastModified() + SEPARATOR + file.getAbsolutePath();
+		String digest;
+		synchronized (this) {
+			digest = fileDigests.get(key);
+			if (digest == null) {
+				digest = previousFileDigests.get(key);
+			}
+		}
+		if (digest == null) {
+			// hashing might take a while, no need to hold the lock
+			digest = Digests.digest(file);
+		}
+		synchronized (this) {
+			fileDigests.put(key, digest);
+		}
+		return digest;
+	}
+
+	/**
+	 * Writes this index. Only the digests of files used by this version of the archive are kept.
+	 *
+	 * @param indexFile
+	 *            the file in which the index is kept.
+	 * @throws IOException
+	 *             if the file could not be written.
+	 */
+	public synchronized void write(final File indexFile) throws IOException {
+		final File tmpIndexFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+		try (final BufferedWriter writer = Files.newBufferedWriter(tmpIndexFile.toPath(), StandardCharsets.UTF_8)) {
+			for (final Map.Entry<String, String> entry : fingerprints.entrySet()) {
+				writer.write(ENTRY_RECORD + SEPARATOR + entry.getValue() + SEPARATOR + entry.getKey());
+				writer.newLine();
+			}
+			for (final Map.Entry<String, String> entry : fileDigests.entrySet()) {
+				writer.write(FILE_RECORD + SEPARATOR + entry.getValue() + SEPARATOR + entry.getKey());
+				writer.newLine();
+			}
+		}
+		Files.move(tmpIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
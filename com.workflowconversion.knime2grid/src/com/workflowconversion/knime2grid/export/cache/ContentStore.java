@@ -0,0 +1,387 @@
+package com.workflowconversion.knime2grid.export.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+import com.workflowconversion.knime2grid.export.io.staging.FileStager;
+import com.workflowconversion.knime2grid.export.io.staging.StagingStrategy;
+
+/**
+ * Persistent, content-addressed store of files (e.g., downloaded inputs or generated CTDs). Files are stored once per
+ * distinct content, using the SHA-256 digest of their content as name, so storing content that is already present
+ * costs a lookup instead of a copy.
+ *
+ * Content can additionally be found via aliases (e.g., a URL together with its size and modification date), which
+ * allows callers to find out whether content is already present without having to fetch it first.
+ *
+ * The store keeps an index file with the size and the last access of each object, so starting up only requires reading
+ * that file. Changes are appended to the index as they happen; the whole index is only rewritten when the store is
+ * closed or when the index has grown too much. When the store grows beyond its maximum size, the least recently used
+ * objects are evicted.
+ *
+ * Stored files might share their content with the files they were created from (see {@link FileStager}), so they
+ * must be treated as read-only. Since stored files can be evicted at any time, callers that need the content to stay
+ * around should use {@link #putAndStage(File, File)} or {@link #stageByAlias(String, File)}. Instances of this class
+ * are thread-safe.
+ *
+ * @author delagarza
+ */
+public class ContentStore {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(ContentStore.class);
+	private final static String INDEX_FILE_NAME = "index";
+	private final static String OBJECTS_DIRECTORY_NAME = "objects";
+	private final static String OBJECT_RECORD = "O";
+	private final static String ALIAS_RECORD = "A";
+	private final static String REMOVED_RECORD = "R";
+	// the index is compacted once it contains this many more records than needed
+	private final static int MAX_STALE_RECORDS = 1024;
+	private final static char SEPARATOR = '\t';
+
+	private final File directory;
+	private final File objectsDirectory;
+	private final File indexFile;
+	private volatile long maxSizeInBytes;
+	// iteration order is the access order, so the first entries are the least recently used ones
+	private final LinkedHashMap<String, StoredObject> objects = new LinkedHashMap<String, StoredObject>(16, 0.75f, true);
+	private final Map<String, String> aliases = new HashMap<String, String>();
+	private long totalSize;
+	// number of records in the index file
+	private int indexRecords;
+
+	/**
+	 * @param directory
+	 *            the directory in which contents will be stored; it will be created if needed.
+	 * @param maxSizeInBytes
+	 *            the maximum size of the store.
+	 * @throws IOException
+	 *             if the index could not be read.
+	 */
+	public ContentStore(final File directory, final long maxSizeInBytes) throws IOException {
+		Validate.notNull(directory, "directory cannot be null");
+		this.directory = directory;
+		this.objectsDirectory = new File(directory, OBJECTS_DIRECTORY_NAME);
+		this.indexFile = new File(directory, INDEX_FILE_NAME);
+		setMaxSizeInBytes(maxSizeInBytes);
+		readIndex();
+	}
+
+	/**
+	 * @param maxSizeInBytes
+	 *            the maximum size of the store, it will be enforced the next time content is stored.
+	 */
+	public void setMaxSizeInBytes(final long maxSizeInBytes) {
+		Validate.isTrue(maxSizeInBytes >= 0, "maxSizeInBytes cannot be negative", maxSizeInBytes);
+		this.maxSizeInBytes = maxSizeInBytes;
+	}
+
+	/**
+	 * Stores the content of the given file, unless identical content is already present.
+	 *
+	 * @param source
+	 *            the file whose content will be stored.
+	 * @return the stored file, which must be treated as read-only.
+	 * @throws IOException
+	 *             if the content could not be stored.
+	 */
+	public File put(final File source) throws IOException {
+		// hashing might take a while, no need to hold the lock
+		final String digest = Digests.digest(source);
+		synchronized (this) {
+			return put(source, digest);
+		}
+	}
+
+	/**
+	 * Stores the content of the given file, just like {@link #put(File)} does, and stages the stored content to the
+	 * given destination. Unlike the stored file, the destination is not affected by evictions.
+	 *
+	 * @param source
+	 *            the file whose content will be stored.
+	 * @param destination
+	 *            the staging location; an existing file will be replaced.
+	 * @return the strategy used to stage the stored content.
+	 * @throws IOException
+	 *             if the content could not be stored or staged.
+	 */
+	public StagingStrategy putAndStage(final File source, final File destination) throws IOException {
+		final String digest = Digests.digest(source);
+		synchronized (this) {
+			return FileStager.stage(put(source, digest), destination);
+		}
+	}
+
+	private File put(final File source, final String digest) throws IOException {
+		final File existing = get(digest);
+		if (existing != null) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Content of " + source + " already present in the content store as " + digest);
+			}
+			return existing;
+		}
+		final File object = getObjectFile(digest);
+		final File parent = object.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create directory " + parent);
+		}
+		// stage into a temporary file and then rename, so a crash will never leave a partially written object behind
+		final File tmpObject = File.createTempFile(digest, ".tmp", parent);
+		FileStager.stage(source, tmpObject);
+		Files.move(tmpObject.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		final StoredObject storedObject = new StoredObject(object.length());
+		objects.put(digest, storedObject);
+		totalSize += storedObject.size;
+		final List<String> records = new ArrayList<String>();
+		records.add(objectRecord(digest, storedObject));
+		for (final String evictedDigest : evict(digest)) {
+			records.add(REMOVED_RECORD + SEPARATOR + evictedDigest);
+		}
+		appendToIndex(records);
+		return object;
+	}
+
+	/**
+	 * @param digest
+	 *            the SHA-256 digest of the content.
+	 * @return the stored file, or {@code null} if the content is not present.
+	 */
+	public synchronized File get(final String digest) {
+		final StoredObject storedObject = objects.get(digest);
+		if (storedObject == null) {
+			return null;
+		}
+		final File object = getObjectFile(digest);
+		if (!object.isFile()) {
+			// someone removed it behind our back
+			remove(digest);
+			return null;
+		}
+		storedObject.lastAccess = System.currentTimeMillis();
+		return object;
+	}
+
+	/**
+	 * Associates an alias to content that is already present in the store.
+	 *
+	 * @param alias
+	 *            the alias.
+	 * @param storedFile
+	 *            a file returned by {@link #put(File)}.
+	 * @throws IOException
+	 *             if the index could not be written.
+	 */
+	public synchronized void putAlias(final String alias, final File storedFile) throws IOException {
+		Validate.notEmpty(alias, "alias cannot be null or empty");
+		final String digest = storedFile.getName();
+		Validate.isTrue(objects.containsKey(digest), "the given file is not part of the content store", storedFile);
+		aliases.put(alias, digest);
+		appendToIndex(Collections.singletonList(aliasRecord(alias, digest)));
+	}
+
+	/**
+	 * @param alias
+	 *            the alias.
+	 * @return the stored file associated to the given alias, or {@code null} if there is no such file.
+	 */
+	public synchronized File getByAlias(final String alias) {
+		final String digest = aliases.get(alias);
+		return digest == null ? null : get(digest);
+	}
+
+	/**
+	 * Stages the stored file associated to the given alias. Unlike the stored file, the destination is not affected by
+	 * evictions.
+	 *
+	 * @param alias
+	 *            the alias.
+	 * @param destination
+	 *            the staging location; an existing file will be replaced.
+	 * @return whether there was a stored file associated to the alias.
+	 * @throws IOException
+	 *             if the stored file could not be staged.
+	 */
+	public synchronized boolean stageByAlias(final String alias, final File destination) throws IOException {
+		final File storedFile = getByAlias(alias);
+		if (storedFile == null) {
+			return false;
+		}
+		FileStager.stage(storedFile, destination);
+		return true;
+	}
+
+	/**
+	 * Persists the last access of each object and compacts the index. Objects stored after closing a store are
+	 * persisted as well.
+	 *
+	 * @throws IOException
+	 *             if the index could not be written.
+	 */
+	public synchronized void close() throws IOException {
+		writeIndex();
+	}
+
+	// objects are spread across 256 folders
+	private File getObjectFile(final String digest) {
+		return new File(new File(objectsDirectory, digest.substring(0, 2)), digest);
+	}
+
+	private void remove(final String digest) {
+		final StoredObject storedObject = objects.remove(digest);
+		if (storedObject != null) {
+			totalSize -= storedObject.size;
+		}
+		aliases.values().removeAll(Collections.singleton(digest));
+	}
+
+	// removes the least recently used objects until the size of the store is below the maximum,
+	// the object that was just stored is never evicted; returns the evicted digests
+	private List<String> evict(final String keepDigest) {
+		final List<String> evictedDigests = new ArrayList<String>();
+		long remainingSize = totalSize;
+		for (final Map.Entry<String, StoredObject> entry : objects.entrySet()) {
+			if (remainingSize <= maxSizeInBytes) {
+				break;
+			}
+			if (!entry.getKey().equals(keepDigest) && FileUtils.deleteQuietly(getObjectFile(entry.getKey()))) {
+				evictedDigests.add(entry.getKey());
+				remainingSize -= entry.getValue().size;
+			}
+		}
+		for (final String digest : evictedDigests) {
+			remove(digest);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Evicted " + digest + " from the content store");
+			}
+		}
+		return evictedDigests;
+	}
+
+	// one record per line, either:
+	// O <digest> <size> <last access>
+	// A <digest> <alias>
+	// R <digest>
+	// later records replace earlier ones
+	private void readIndex() throws IOException {
+		if (!indexFile.isFile()) {
+			return;
+		}
+		final Map<String, StoredObject> readObjects = new HashMap<String, StoredObject>();
+		try (final BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				indexRecords++;
+				final String[] fields = line.split(String.valueOf(SEPARATOR), 3);
+				final StoredObject storedObject;
+				if (fields.length == 3 && OBJECT_RECORD.equals(fields[0]) && (storedObject = parseStoredObject(fields[2])) != null) {
+					readObjects.put(fields[1], storedObject);
+				} else if (fields.length == 3 && ALIAS_RECORD.equals(fields[0])) {
+					aliases.put(fields[2], fields[1]);
+				} else if (fields.length == 2 && REMOVED_RECORD.equals(fields[0])) {
+					readObjects.remove(fields[1]);
+				} else {
+					LOGGER.warn("Ignoring invalid line in the index of the content store: " + line);
+				}
+			}
+		}
+		// restore the access order
+		final List<Map.Entry<String, StoredObject>> entries = new ArrayList<Map.Entry<String, StoredObject>>(readObjects.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, StoredObject>>() {
+			@Override
+			public int compare(final Map.Entry<String, StoredObject> o1, final Map.Entry<String, StoredObject> o2) {
+				return Long.compare(o1.getValue().lastAccess, o2.getValue().lastAccess);
+			}
+		});
+		for (final Map.Entry<String, StoredObject> entry : entries) {
+			objects.put(entry.getKey(), entry.getValue());
+			totalSize += entry.getValue().size;
+		}
+		aliases.values().retainAll(objects.keySet());
+	}
+
+	// <size> <last access>, returns null if the values are incomplete (e.g., the record was cut short by a crash)
+	private static StoredObject parseStoredObject(final String record) {
+		final String[] values = record.split(String.valueOf(SEPARATOR));
+		if (values.length != 2) {
+			return null;
+		}
+		try {
+			final StoredObject storedObject = new StoredObject(Long.parseLong(values[0]));
+			storedObject.lastAccess = Long.parseLong(values[1]);
+			return storedObject;
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void writeIndex() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+		final File tmpIndexFile = File.createTempFile(INDEX_FILE_NAME, ".tmp", directory);
+		try (final BufferedWriter writer = Files.newBufferedWriter(tmpIndexFile.toPath(), StandardCharsets.UTF_8)) {
+			for (final Map.Entry<String, StoredObject> entry : objects.entrySet()) {
+				writer.write(objectRecord(entry.getKey(), entry.getValue()));
+				writer.newLine();
+			}
+			for (final Map.Entry<String, String> entry : aliases.entrySet()) {
+				writer.write(aliasRecord(entry.getKey(), entry.getValue()));
+				writer.newLine();
+			}
+		}
+		Files.move(tmpIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		indexRecords = objects.size() + aliases.size();
+	}
+
+	// a crash while appending leaves at most one invalid line behind, which is ignored when reading the index
+	private void appendToIndex(final List<String> records) throws IOException {
+		if (indexRecords + records.size() > objects.size() + aliases.size() + MAX_STALE_RECORDS) {
+			writeIndex();
+			return;
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+		try (final BufferedWriter writer = Files.newBufferedWriter(indexFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
+			for (final String record : records) {
+				writer.write(record);
+				writer.newLine();
+			}
+		}
+		indexRecords += records.size();
+	}
+
+	private static String objectRecord(final String digest, final StoredObject storedObject) {
+		return OBJECT_RECORD + SEPARATOR + digest + SEPARATOR + storedObject.size + SEPARATOR + storedObject.lastAccess;
+	}
+
+	private static String aliasRecord(final String alias, final String digest) {
+		return ALIAS_RECORD + SEPARATOR + digest + SEPARATOR + alias;
+	}
+
+	private static class StoredObject {
+		final long size;
+		long lastAccess = System.currentTimeMillis();
+
+		StoredObject(final long size) {
+			this.size = size;
+		}
+	}
+}
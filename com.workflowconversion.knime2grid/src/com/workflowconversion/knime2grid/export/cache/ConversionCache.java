@@ -0,0 +1,240 @@
+package com.workflowconversion.knime2grid.export.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+import com.workflowconversion.knime2grid.export.io.staging.FileStager;
+
+/**
+ * Persistent, size-bounded cache of the artifacts generated while converting nodes (e.g., the zipped mini workflows of
+ * {@link com.workflowconversion.knime2grid.export.node.impl.DefaultKnimeNodeConverter} or the CTDs of
+ * {@link com.workflowconversion.knime2grid.export.node.impl.GenericKnimeNodeConverter}).
+ * 
+ * Artifacts are grouped by a key, which converters compute using a {@link KeyBuilder} from everything that influences
+ * the generated artifacts (node factory, node settings, connected ports, converter version). Each key is a folder in
+ * the cache directory, so the cache survives KNIME sessions. When the cache grows beyond its maximum size, the least
+ * recently used keys are evicted.
+ * 
+ * Instances of this class are thread-safe.
+ * 
+ * @author delagarza
+ */
+public class ConversionCache {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(ConversionCache.class);
+
+	private final File directory;
+	private volatile long maxSizeInBytes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	// the size of the cache is computed the first time an artifact is stored and kept up to date afterwards, so the
+	// cache directory is only walked again when something has to be evicted; -1 if not known yet
+	private long sizeInBytes = -1;
+
+	/**
+	 * @param directory
+	 *            the directory in which artifacts will be stored; it will be created if needed.
+	 * @param maxSizeInBytes
+	 *            the maximum size of the cache.
+	 */
+	public ConversionCache(final File directory, final long maxSizeInBytes) {
+		Validate.notNull(directory, "directory cannot be null");
+		this.directory = directory;
+		setMaxSizeInBytes(maxSizeInBytes);
+	}
+
+	/**
+	 * @param maxSizeInBytes
+	 *            the maximum size of the cache, it will be enforced the next time an artifact is stored.
+	 */
+	public void setMaxSizeInBytes(final long maxSizeInBytes) {
+		Validate.isTrue(maxSizeInBytes >= 0, "maxSizeInBytes cannot be negative", maxSizeInBytes);
+		this.maxSizeInBytes = maxSizeInBytes;
+	}
+
+	/**
+	 * Stages a cached artifact into the given destination, if present. The destination might share its content with
+	 * the cached artifact (see {@link FileStager}), so it must be treated as read-only.
+	 * 
+	 * @param key
+	 *            the key, as generated by a {@link KeyBuilder}.
+	 * @param artifactName
+	 *            the name of the artifact.
+	 * @param destination
+	 *            the file that will contain the artifact; an existing file will be overwritten.
+	 * @return {@code true} if the artifact was found in the cache.
+	 * @throws IOException
+	 *             if the artifact could not be staged.
+	 */
+	public synchronized boolean get(final String key, final String artifactName, final File destination) throws IOException {
+		final File keyDirectory = new File(directory, key);
+		final File artifact = new File(keyDirectory, artifactName);
+		if (!artifact.isFile()) {
+			misses.incrementAndGet();
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Conversion cache miss for " + artifactName + " (" + getStatistics() + ")");
+			}
+			return false;
+		}
+		// artifacts are never modified once stored (they're replaced), and neither hard links nor copies are affected
+		// by evicting this entry later on
+		FileStager.stage(artifact, destination);
+		// the modification time of the folder of each key is used to track the last access
+		keyDirectory.setLastModified(System.currentTimeMillis());
+		hits.incrementAndGet();
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Conversion cache hit for " + artifactName + " (" + getStatistics() + ")");
+		}
+		return true;
+	}
+
+	/**
+	 * Stores a copy of the given file as an artifact associated to the given key.
+	 * 
+	 * @param key
+	 *            the key, as generated by a {@link KeyBuilder}.
+	 * @param artifactName
+	 *            the name of the artifact.
+	 * @param source
+	 *            the file containing the artifact.
+	 * @throws IOException
+	 *             if the artifact could not be stored.
+	 */
+	public synchronized void put(final String key, final String artifactName, final File source) throws IOException {
+		final File keyDirectory = new File(directory, key);
+		if (!keyDirectory.isDirectory() && !keyDirectory.mkdirs()) {
+			throw new IOException("Could not create cache directory " + keyDirectory);
+		}
+		// copy and then rename, so a crash will never leave a partially written artifact behind
+		final File artifact = new File(keyDirectory, artifactName);
+		final long replacedSize = artifact.length();
+		final File tmpArtifact = File.createTempFile(artifactName, ".tmp", keyDirectory);
+		Files.copy(source.toPath(), tmpArtifact.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(tmpArtifact.toPath(), artifact.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		keyDirectory.setLastModified(System.currentTimeMillis());
+		if (sizeInBytes < 0) {
+			sizeInBytes = FileUtils.sizeOfDirectory(directory);
+		} else {
+			sizeInBytes += artifact.length() - replacedSize;
+		}
+		evict(keyDirectory);
+	}
+
+	// removes the least recently used keys until the size of the cache is below the maximum,
+	// the key that was just stored is never evicted
+	private void evict(final File keepDirectory) {
+		if (sizeInBytes <= maxSizeInBytes) {
+			return;
+		}
+		final File[] keyDirectories = directory.listFiles();
+		if (keyDirectories == null) {
+			return;
+		}
+		final List<File> candidates = new ArrayList<File>();
+		for (final File keyDirectory : keyDirectories) {
+			if (keyDirectory.isDirectory() && !keyDirectory.equals(keepDirectory)) {
+				candidates.add(keyDirectory);
+			}
+		}
+		Collections.sort(candidates, new Comparator<File>() {
+			@Override
+			public int compare(final File o1, final File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (final File candidate : candidates) {
+			if (sizeInBytes <= maxSizeInBytes) {
+				break;
+			}
+			final long candidateSize = FileUtils.sizeOfDirectory(candidate);
+			if (FileUtils.deleteQuietly(candidate)) {
+				sizeInBytes -= candidateSize;
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Evicted " + candidate.getName() + " from the conversion cache");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of artifacts that were found in the cache.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of artifacts that were not found in the cache.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return a human readable summary of the hit/miss counters.
+	 */
+	public String getStatistics() {
+		return "hits=" + hits.get() + ", misses=" + misses.get();
+	}
+
+	/**
+	 * Computes cache keys by hashing the given parts. The parts are delimited, so that {@code ("ab", "c")} and
+	 * {@code ("a", "bc")} result in different keys.
+	 * 
+	 * @author delagarza
+	 */
+	public static class KeyBuilder {
+		private final MessageDigest digest;
+
+		/**
+		 * @param namespace
+		 *            identifies the converter and its version; changing it invalidates all keys previously generated
+		 *            for the same converter.
+		 */
+		public KeyBuilder(final String namespace) {
+			digest = Digests.newDigest();
+			add(namespace);
+		}
+
+		/**
+		 * @param part
+		 *            a part of the key.
+		 * @return a reference to {@code this} builder.
+		 */
+		public KeyBuilder add(final String part) {
+			return add(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * @param part
+		 *            a part of the key.
+		 * @return a reference to {@code this} builder.
+		 */
+		public KeyBuilder add(final byte[] part) {
+			final int length = part.length;
+			digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+			digest.update(part);
+			return this;
+		}
+
+		/**
+		 * @return the key.
+		 */
+		public String build() {
+			return Digests.toHex(digest.digest());
+		}
+	}
+}
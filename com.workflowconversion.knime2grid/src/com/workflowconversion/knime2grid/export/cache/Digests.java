@@ -0,0 +1,50 @@
+package com.workflowconversion.knime2grid.export.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper methods to compute the SHA-256 digests used as keys by the caches in this package.
+ * 
+ * @author delagarza
+ */
+class Digests {
+
+	private final static String DIGEST_ALGORITHM = "SHA-256";
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private Digests() {
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(DIGEST_ALGORITHM + " is not available in this JVM", e);
+		}
+	}
+
+	static String digest(final File file) throws IOException {
+		final MessageDigest digest = newDigest();
+		try (final InputStream inputStream = new FileInputStream(file)) {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	static String toHex(final byte[] hash) {
+		final StringBuilder hex = new StringBuilder(hash.length * 2);
+		for (final byte b : hash) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,483 @@
+package com.workflowconversion.knime2grid.export.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+/**
+ * Persistent history of the resources used by the tools executed on the grid. The job scripts written by the gUSE
+ * exporter record the time spent in each phase, the size of the inputs, the peak resident memory and the CPU time of
+ * each run (see {@code job_wrapper.sh}); those records are ingested into this history, which is then used to request
+ * right-sized walltime, memory and cores for the next runs of the same tools.
+ *
+ * Records are kept per tool (e.g., the class of the node factory) and input size class; sizes within a factor of four
+ * share a class. Only the most recent successful runs of each tool and size class are kept, so the history adapts when
+ * tools or execution resources change.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author delagarza
+ */
+public class RuntimeHistory {
+
+	/**
+	 * Size to use for inputs whose size is not known; estimates then cover all runs of a tool.
+	 */
+	public static final long UNKNOWN_SIZE = -1;
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(RuntimeHistory.class);
+	private final static String STATS_FILE_NAME = "knime2grid-stats.json";
+	private final static String LOG_FILE_SUFFIX = ".log";
+	private final static String STATS_LINE_PREFIX = "KNIME2GRID_STATS ";
+	private final static String RECORD = "R";
+	private final static String INGESTED_FILE_RECORD = "I";
+	private final static char SEPARATOR = '\t';
+	private final static int MAX_RECORDS_PER_KEY = 20;
+	// fraction of a core that a run has to use for the core to be requested; single-threaded tools often show a bit
+	// more than one core (e.g., garbage collection threads), which should not double the request
+	private final static double CORE_USAGE_THRESHOLD = 0.5;
+	// job logs can be large, only the ones small enough to be a log are scanned
+	private final static long MAX_LOG_SIZE = 16L * 1024L * 1024L;
+
+	private final static Pattern TOOL_PATTERN = Pattern.compile("\"tool\": \"((?:[^\"\\\\]|\\\\.)*)\"");
+	private final static Pattern PHASES_PATTERN = Pattern.compile("\"phases_ms\": \\{([^}]*)\\}");
+	private final static Pattern PHASE_PATTERN = Pattern.compile("\"([a-z_]+)\": (\\d+)");
+
+	private final File file;
+	// records by tool and size class, most recent last
+	private final Map<String, List<Record>> records = new HashMap<String, List<Record>>();
+	// how much of each file (by absolute path) has been ingested already
+	private final Map<String, IngestedFile> ingestedFiles = new HashMap<String, IngestedFile>();
+
+	/**
+	 * @param file
+	 *            the file in which the history is kept; it's read if it exists.
+	 */
+	public RuntimeHistory(final File file) {
+		Validate.notNull(file, "file cannot be null");
+		this.file = file;
+		read();
+	}
+
+	/**
+	 * @param bytes
+	 *            a size, in bytes.
+	 * @return the size class of the given size.
+	 */
+	public static int getSizeClass(final long bytes) {
+		if (bytes <= 0) {
+			return 0;
+		}
+		return (Long.SIZE - Long.numberOfLeadingZeros(bytes) + 1) / 2;
+	}
+
+	/**
+	 * Adds the records found in the given file or, if it's a directory, in the files under it. Records are read from
+	 * statistics files written by the job scripts and from job logs (i.e., {@code *.log} files) containing the lines
+	 * printed by them. Files that were ingested before and have not been modified since are skipped; files that have
+	 * grown since (e.g., logs of running jobs) are read from where the last ingestion stopped, and files that have been
+	 * rewritten are read again. The history is written if new records were found.
+	 *
+	 * @param fileOrDirectory
+	 *            the file or directory.
+	 * @return the number of records that were added.
+	 * @throws IOException
+	 *             if a file could not be read or the history could not be written.
+	 */
+	public synchronized int ingest(final File fileOrDirectory) throws IOException {
+		Validate.notNull(fileOrDirectory, "fileOrDirectory cannot be null");
+		final List<File> pendingFiles = new LinkedList<File>();
+		collectFiles(fileOrDirectory, pendingFiles);
+		int ingestedRecords = 0;
+		for (final File pendingFile : pendingFiles) {
+			final boolean statsFile = STATS_FILE_NAME.equals(pendingFile.getName());
+			final IngestedFile ingestedFile = getIngestedFile(pendingFile);
+			final long lastModified = pendingFile.lastModified();
+			// statistics files are rewritten by each run of a job, only logs grow
+			final long offset = statsFile ? 0 : getResumeOffset(pendingFile, ingestedFile);
+			try (final InputStream inputStream = new BufferedInputStream(new FileInputStream(pendingFile))) {
+				if (inputStream.skip(offset) != offset) {
+					throw new IOException("Could not read " + pendingFile + " from where it was last ingested");
+				}
+				final LineReader reader = new LineReader(inputStream, offset);
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final int prefixIndex = line.indexOf(STATS_LINE_PREFIX);
+					final String json;
+					if (prefixIndex >= 0) {
+						json = line.substring(prefixIndex + STATS_LINE_PREFIX.length());
+					} else if (statsFile) {
+						json = line;
+					} else {
+						continue;
+					}
+					final Record record = Record.parse(json);
+					if (record != null) {
+						add(record);
+						ingestedRecords++;
+					}
+				}
+				// an incomplete last line (e.g., of a log that is still being written) is read again next time
+				ingestedFiles.put(pendingFile.getAbsolutePath(), new IngestedFile(reader.getOffset(), lastModified));
+			}
+		}
+		if (!pendingFiles.isEmpty()) {
+			write();
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Ingested " + ingestedRecords + " runtime records from " + pendingFiles.size() + " files under " + fileOrDirectory);
+		}
+		return ingestedRecords;
+	}
+
+	private void collectFiles(final File fileOrDirectory, final List<File> pendingFiles) {
+		if (fileOrDirectory.isDirectory()) {
+			final File[] children = fileOrDirectory.listFiles();
+			if (children != null) {
+				for (final File child : children) {
+					collectFiles(child, pendingFiles);
+				}
+			}
+		} else if (fileOrDirectory.isFile() && isModified(fileOrDirectory)) {
+			final String name = fileOrDirectory.getName();
+			if (STATS_FILE_NAME.equals(name) || (name.endsWith(LOG_FILE_SUFFIX) && fileOrDirectory.length() <= MAX_LOG_SIZE)) {
+				pendingFiles.add(fileOrDirectory);
+			}
+		}
+	}
+
+	private IngestedFile getIngestedFile(final File file) {
+		return ingestedFiles.get(file.getAbsolutePath());
+	}
+
+	private boolean isModified(final File file) {
+		final IngestedFile ingestedFile = getIngestedFile(file);
+		return ingestedFile == null || ingestedFile.lastModified != file.lastModified() || ingestedFile.offset != file.length();
+	}
+
+	// a log is resumed only if it's at least as long as the ingested part and that part ended with a complete line,
+	// otherwise it was rewritten and it's read from the beginning
+	private static long getResumeOffset(final File file, final IngestedFile ingestedFile) throws IOException {
+		if (ingestedFile == null || ingestedFile.offset == 0 || ingestedFile.offset > file.length()) {
+			return 0;
+		}
+		try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			randomAccessFile.seek(ingestedFile.offset - 1);
+			return randomAccessFile.read() == '\n' ? ingestedFile.offset : 0;
+		}
+	}
+
+	private void add(final Record record) {
+		final String key = record.sizeClass + "" + SEPARATOR + record.tool;
+		List<Record> keyRecords = records.get(key);
+		if (keyRecords == null) {
+			keyRecords = new ArrayList<Record>();
+			records.put(key, keyRecords);
+		}
+		keyRecords.add(record);
+		if (keyRecords.size() > MAX_RECORDS_PER_KEY) {
+			Collections.sort(keyRecords, Record.BY_START);
+			keyRecords.subList(0, keyRecords.size() - MAX_RECORDS_PER_KEY).clear();
+		}
+	}
+
+	/**
+	 * Estimates the resources needed by a run of a tool. The estimate covers the largest recorded run of the tool with
+	 * inputs of the same size class or, if there is none, the largest recorded run of the tool.
+	 *
+	 * @param tool
+	 *            the tool.
+	 * @param inputBytes
+	 *            the size of the inputs, in bytes, or {@link #UNKNOWN_SIZE}.
+	 * @return the estimate, or {@code null} if the tool has never run.
+	 */
+	public synchronized Estimate estimate(final String tool, final long inputBytes) {
+		Validate.notNull(tool, "tool cannot be null");
+		List<Record> candidates = null;
+		if (inputBytes != UNKNOWN_SIZE) {
+			candidates = records.get(getSizeClass(inputBytes) + "" + SEPARATOR + tool);
+		}
+		if (candidates == null) {
+			candidates = new LinkedList<Record>();
+			for (final List<Record> keyRecords : records.values()) {
+				if (tool.equals(keyRecords.get(0).tool)) {
+					candidates.addAll(keyRecords);
+				}
+			}
+		}
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		final Estimate estimate = new Estimate();
+		for (final Record record : candidates) {
+			estimate.runs++;
+			estimate.walltimeMillis = Math.max(estimate.walltimeMillis, record.walltimeMillis);
+			estimate.outputBytes = Math.max(estimate.outputBytes, record.outputBytes);
+			if (record.peakRssKb != Record.UNKNOWN) {
+				estimate.peakRssKb = Math.max(estimate.peakRssKb, record.peakRssKb);
+			}
+			if (record.cpuMillis != Record.UNKNOWN && record.executeMillis > 0) {
+				final int cores = (int) Math.max(1, Math.floor((double) record.cpuMillis / record.executeMillis + 1 - CORE_USAGE_THRESHOLD));
+				estimate.cores = Math.max(estimate.cores, cores);
+			}
+		}
+		return estimate;
+	}
+
+	private void read() {
+		if (!file.isFile()) {
+			return;
+		}
+		try (final BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split(String.valueOf(SEPARATOR), 2);
+				if (fields.length == 2 && RECORD.equals(fields[0])) {
+					final Record record = Record.fromLine(fields[1]);
+					if (record != null) {
+						add(record);
+						continue;
+					}
+				} else if (fields.length == 2 && INGESTED_FILE_RECORD.equals(fields[0])) {
+					// paths could contain the separator, so they go last
+					final String[] values = fields[1].split(String.valueOf(SEPARATOR), 3);
+					if (values.length == 3) {
+						ingestedFiles.put(values[2], new IngestedFile(Long.parseLong(values[0]), Long.parseLong(values[1])));
+						continue;
+					}
+				}
+				LOGGER.warn("Ignoring invalid line in runtime history " + file + ": " + line);
+			}
+		} catch (final IOException | NumberFormatException e) {
+			LOGGER.warn("Could not read the runtime history " + file + ", resources will be requested as if no tool had run before", e);
+			records.clear();
+			ingestedFiles.clear();
+		}
+	}
+
+	// files that no longer exist will never be ingested again, so they're forgotten
+	private void write() throws IOException {
+		final File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		final File tmpFile = File.createTempFile(file.getName(), ".tmp", directory);
+		try (final BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+			for (final List<Record> keyRecords : records.values()) {
+				for (final Record record : keyRecords) {
+					writer.write(RECORD + SEPARATOR + record.toLine());
+					writer.newLine();
+				}
+			}
+			for (final Iterator<Map.Entry<String, IngestedFile>> iterator = ingestedFiles.entrySet().iterator(); iterator.hasNext();) {
+				final Map.Entry<String, IngestedFile> entry = iterator.next();
+				if (!new File(entry.getKey()).isFile()) {
+					iterator.remove();
+					continue;
+				}
+				writer.write(INGESTED_FILE_RECORD + SEPARATOR + entry.getValue().offset + SEPARATOR + entry.getValue().lastModified + SEPARATOR
+						+ entry.getKey());
+				writer.newLine();
+			}
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Resources needed by a run of a tool, without any safety margin.
+	 *
+	 * @author delagarza
+	 */
+	public static class Estimate {
+		private int runs;
+		private long walltimeMillis;
+		private long peakRssKb;
+		private int cores;
+		private long outputBytes;
+
+		/**
+		 * @return the number of recorded runs the estimate is based on.
+		 */
+		public int getRuns() {
+			return runs;
+		}
+
+		/**
+		 * @return the wall-clock time, in milliseconds, of the whole job, including staging and retries.
+		 */
+		public long getWalltimeMillis() {
+			return walltimeMillis;
+		}
+
+		/**
+		 * @return the peak resident memory, in KB, of the tool and its children, or {@code 0} if not known.
+		 */
+		public long getPeakRssKb() {
+			return peakRssKb;
+		}
+
+		/**
+		 * @return the number of cores used by the tool, or {@code 0} if not known.
+		 */
+		public int getCores() {
+			return cores;
+		}
+
+		/**
+		 * @return the size, in bytes, of the outputs of the tool.
+		 */
+		public long getOutputBytes() {
+			return outputBytes;
+		}
+	}
+
+	// how much of a file has been ingested, and when the file was modified at that point
+	private static class IngestedFile {
+		final long offset;
+		final long lastModified;
+
+		IngestedFile(final long offset, final long lastModified) {
+			this.offset = offset;
+			this.lastModified = lastModified;
+		}
+	}
+
+	// reads UTF-8 lines and keeps track of the offset after the last complete line; an incomplete last line is not
+	// returned
+	private static class LineReader {
+		final InputStream inputStream;
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long offset;
+
+		LineReader(final InputStream inputStream, final long offset) {
+			this.inputStream = inputStream;
+			this.offset = offset;
+		}
+
+		String readLine() throws IOException {
+			line.reset();
+			int read;
+			while ((read = inputStream.read()) != -1) {
+				if (read == '\n') {
+					offset += line.size() + 1;
+					final String decoded = new String(line.toByteArray(), StandardCharsets.UTF_8);
+					return decoded.endsWith("\r") ? decoded.substring(0, decoded.length() - 1) : decoded;
+				}
+				line.write(read);
+			}
+			return null;
+		}
+
+		long getOffset() {
+			return offset;
+		}
+	}
+
+	// a successful run of a tool
+	private static class Record {
+		final static long UNKNOWN = -1;
+		final static Comparator<Record> BY_START = new Comparator<Record>() {
+			@Override
+			public int compare(final Record record1, final Record record2) {
+				return Long.compare(record1.started, record2.started);
+			}
+		};
+
+		final String tool;
+		final long started;
+		final int sizeClass;
+		final long walltimeMillis;
+		final long executeMillis;
+		final long cpuMillis;
+		final long peakRssKb;
+		final long outputBytes;
+
+		Record(final String tool, final long started, final int sizeClass, final long walltimeMillis, final long executeMillis, final long cpuMillis,
+				final long peakRssKb, final long outputBytes) {
+			this.tool = tool;
+			this.started = started;
+			this.sizeClass = sizeClass;
+			this.walltimeMillis = walltimeMillis;
+			this.executeMillis = executeMillis;
+			this.cpuMillis = cpuMillis;
+			this.peakRssKb = peakRssKb;
+			this.outputBytes = outputBytes;
+		}
+
+		// the records are written by our own scripts, so there's no need for a full JSON parser; records of failed
+		// runs and of scripts that don't run a tool (e.g., zip_loop_start.sh) are ignored
+		static Record parse(final String json) {
+			final Matcher toolMatcher = TOOL_PATTERN.matcher(json);
+			final Matcher phasesMatcher = PHASES_PATTERN.matcher(json);
+			if (!toolMatcher.find() || !phasesMatcher.find() || getNumber(json, "exit_code") != 0) {
+				return null;
+			}
+			final String tool = StringEscapeUtils.unescapeJava(toolMatcher.group(1));
+			if (tool.isEmpty()) {
+				return null;
+			}
+			long walltimeMillis = 0;
+			long executeMillis = 0;
+			final Matcher phaseMatcher = PHASE_PATTERN.matcher(phasesMatcher.group(1));
+			while (phaseMatcher.find()) {
+				final long phaseMillis = Long.parseLong(phaseMatcher.group(2));
+				walltimeMillis += phaseMillis;
+				if ("execute".equals(phaseMatcher.group(1))) {
+					executeMillis = phaseMillis;
+				}
+			}
+			// a batched job processes several elements of a loop, records are kept per element; the peak memory is not
+			// divided, since elements processed in parallel need memory at the same time
+			final long elements = Math.max(1, getNumber(json, "elements"));
+			final long inputBytes = getNumber(json, "input_bytes");
+			final long cpuMillis = getNumber(json, "cpu_ms");
+			return new Record(tool, Math.max(0, getNumber(json, "started")), getSizeClass(inputBytes < 0 ? inputBytes : inputBytes / elements),
+					walltimeMillis / elements, executeMillis / elements, cpuMillis < 0 ? cpuMillis : cpuMillis / elements,
+					getNumber(json, "peak_rss_kb"), Math.max(0, getNumber(json, "output_bytes")) / elements);
+		}
+
+		// returns UNKNOWN for missing or null values
+		private static long getNumber(final String json, final String name) {
+			final Matcher matcher = Pattern.compile("\"" + name + "\": (\\d+)").matcher(json);
+			return matcher.find() ? Long.parseLong(matcher.group(1)) : UNKNOWN;
+		}
+
+		// tools could contain the separator, so they go last
+		static Record fromLine(final String line) {
+			final String[] fields = line.split(String.valueOf(SEPARATOR), 8);
+			if (fields.length != 8) {
+				return null;
+			}
+			return new Record(fields[7], Long.parseLong(fields[0]), Integer.parseInt(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+					Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]));
+		}
+
+		String toLine() {
+			return started + "" + SEPARATOR + sizeClass + SEPARATOR + walltimeMillis + SEPARATOR + executeMillis + SEPARATOR + cpuMillis + SEPARATOR
+					+ peakRssKb + SEPARATOR + outputBytes + SEPARATOR + tool;
+		}
+	}
+}
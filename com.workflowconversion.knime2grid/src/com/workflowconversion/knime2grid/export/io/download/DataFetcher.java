@@ -0,0 +1,165 @@
+package com.workflowconversion.knime2grid.export.io.download;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+import com.workflowconversion.knime2grid.exception.ApplicationException;
+import com.workflowconversion.knime2grid.export.io.staging.FileStager;
+import com.workflowconversion.knime2grid.model.DataHandle;
+
+/**
+ * Reads the data referenced by {@link DataHandle}s during an export. Remote data is read via the shared
+ * {@link DownloadManager} or, if it hasn't been initialized (e.g., outside of a running plug-in), directly from its URL.
+ *
+ * Remote data that needs to be available as a file is downloaded at most once into a temporary file, which is deleted
+ * when this fetcher is closed, so an instance should live as long as the export that uses it.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author delagarza
+ */
+public class DataFetcher implements Closeable {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(DataFetcher.class);
+
+	// keyed by location, so handles to the same remote data share their download
+	private final Map<String, Future<File>> downloads = new HashMap<String, Future<File>>();
+	private final List<File> temporaryFiles = new ArrayList<File>();
+	private boolean closed;
+
+	/**
+	 * Opens a stream to read the data of the given handle. Callers are responsible for closing the returned stream.
+	 *
+	 * @param dataHandle
+	 *            the handle.
+	 * @param destination
+	 *            where the data is going, only used for logging.
+	 * @return a stream from which the data can be read.
+	 * @throws IOException
+	 *             if the data cannot be accessed.
+	 */
+	public InputStream openStream(final DataHandle dataHandle, final String destination) throws IOException {
+		Validate.notNull(dataHandle, "dataHandle cannot be null");
+		if (dataHandle.isLocal()) {
+			return FileStager.openDirect(dataHandle.getLocalFile(), destination);
+		}
+		final URL url = dataHandle.getUrl();
+		return DownloadManager.hasInstance() ? DownloadManager.getInstance().openStream(url) : url.openStream();
+	}
+
+	/**
+	 * Returns a local file containing the data of the given handle. For local data, this is the referenced file itself;
+	 * remote data is downloaded into a temporary file the first time this method (or {@link #prefetch(Collection)}) is
+	 * invoked for its location. Returned files must be treated as read-only.
+	 *
+	 * @param dataHandle
+	 *            the handle.
+	 * @return a local file containing the data.
+	 * @throws IOException
+	 *             if remote data could not be downloaded.
+	 */
+	public File getLocalFile(final DataHandle dataHandle) throws IOException {
+		Validate.notNull(dataHandle, "dataHandle cannot be null");
+		if (dataHandle.isLocal()) {
+			return dataHandle.getLocalFile();
+		}
+		try {
+			return startDownload(dataHandle).get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading " + dataHandle, e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new ApplicationException("Unexpected error while downloading " + dataHandle, cause);
+		}
+	}
+
+	/**
+	 * Downloads the remote data of the given handles concurrently, so that subsequent calls to
+	 * {@link #getLocalFile(DataHandle)} don't need to wait.
+	 *
+	 * @param dataHandles
+	 *            the handles; local ones are ignored.
+	 * @throws IOException
+	 *             if any download failed.
+	 */
+	public void prefetch(final Collection<DataHandle> dataHandles) throws IOException {
+		for (final DataHandle dataHandle : dataHandles) {
+			if (!dataHandle.isLocal()) {
+				startDownload(dataHandle);
+			}
+		}
+		for (final DataHandle dataHandle : dataHandles) {
+			getLocalFile(dataHandle);
+		}
+	}
+
+	private synchronized Future<File> startDownload(final DataHandle dataHandle) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("This fetcher has already been closed.");
+		}
+		Future<File> download = downloads.get(dataHandle.getLocation());
+		if (download == null) {
+			final URL url = dataHandle.getUrl();
+			final File destination = File.createTempFile("knimeconverter", ".download");
+			temporaryFiles.add(destination);
+			if (DownloadManager.hasInstance()) {
+				download = DownloadManager.getInstance().submit(url, destination);
+			} else {
+				// no pool to run the download on, so download right away
+				final FutureTask<File> directDownload = new FutureTask<File>(new Callable<File>() {
+					@Override
+					public File call() throws Exception {
+						try (final InputStream inputStream = url.openStream()) {
+							Files.copy(inputStream, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+						}
+						return destination;
+					}
+				});
+				directDownload.run();
+				download = directDownload;
+			}
+			downloads.put(dataHandle.getLocation(), download);
+		}
+		return download;
+	}
+
+	/**
+	 * Cancels pending downloads and deletes all downloaded files. Content kept in the content store of the
+	 * {@link DownloadManager} is not affected.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (final Future<File> download : downloads.values()) {
+			download.cancel(true);
+		}
+		for (final File temporaryFile : temporaryFiles) {
+			if (temporaryFile.exists() && !temporaryFile.delete()) {
+				LOGGER.warn("Could not delete downloaded file " + temporaryFile);
+			}
+		}
+		downloads.clear();
+		temporaryFiles.clear();
+	}
+}
@@ -0,0 +1,345 @@
+package com.workflowconversion.knime2grid.export.io.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+import com.workflowconversion.knime2grid.exception.ApplicationException;
+import com.workflowconversion.knime2grid.export.cache.ContentStore;
+
+/**
+ * Downloads remote content referenced by source nodes. Downloads run concurrently on a bounded pool, use connect and
+ * read timeouts, are resumed via HTTP range requests when interrupted and, for large files served by servers that
+ * accept range requests, are split into segments that are downloaded in parallel.
+ * 
+ * Downloaded content can be kept in a {@link ContentStore}. Content whose URL, size and modification date (or entity
+ * tag) match a previous download is then taken from the store instead of being downloaded again.
+ * 
+ * The plug-in uses a single, shared instance (see {@link #initInstance(DownloadSettings, ContentStore)}), but instances
+ * can also be
+ * created directly, e.g., to download from a local HTTP server using custom settings.
+ * 
+ * @author delagarza
+ */
+public class DownloadManager {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(DownloadManager.class);
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private static DownloadManager INSTANCE;
+	private final static Lock LOCK = new ReentrantLock();
+
+	private final DownloadSettings settings;
+	private final ContentStore contentStore;
+	private final ExecutorService downloadExecutor;
+	// segments get their own pool, otherwise downloads waiting for their segments could starve them
+	private final ExecutorService segmentExecutor;
+
+	/**
+	 * Initializes the shared instance. This method is to be called only once!
+	 * 
+	 * @param settings
+	 *            the settings of the shared instance.
+	 * @param contentStore
+	 *            store in which downloaded content is kept across exports, can be {@code null}.
+	 */
+	public static void initInstance(final DownloadSettings settings, final ContentStore contentStore) {
+		LOCK.lock();
+		try {
+			if (INSTANCE != null) {
+				throw new IllegalStateException("INSTANCE has already been initialized.");
+			}
+			INSTANCE = new DownloadManager(settings, contentStore);
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Gets the shared instance.
+	 * 
+	 * @return The instance.
+	 */
+	public static DownloadManager getInstance() {
+		LOCK.lock();
+		try {
+			if (INSTANCE == null) {
+				throw new IllegalStateException("initInstance() should be called before calling getInstance()");
+			}
+			return INSTANCE;
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @return whether the shared instance has been initialized (e.g., it hasn't if the plug-in has not been started).
+	 */
+	public static boolean hasInstance() {
+		LOCK.lock();
+		try {
+			return INSTANCE != null;
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Shuts down the shared instance, if it was initialized.
+	 */
+	public static void disposeInstance() {
+		LOCK.lock();
+		try {
+			if (INSTANCE != null) {
+				INSTANCE.shutdown();
+				INSTANCE = null;
+			}
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @param settings
+	 *            the settings.
+	 * @param contentStore
+	 *            store in which downloaded content is kept across exports, can be {@code null}.
+	 */
+	public DownloadManager(final DownloadSettings settings, final ContentStore contentStore) {
+		Validate.notNull(settings, "settings cannot be null");
+		this.settings = settings;
+		this.contentStore = contentStore;
+		this.downloadExecutor = Executors.newFixedThreadPool(settings.getThreads());
+		this.segmentExecutor = Executors.newFixedThreadPool(settings.getThreads() * settings.getSegments());
+	}
+
+	/**
+	 * Opens a stream to the given URL using the configured timeouts. Callers are responsible for closing the stream.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @return a stream to read the content of the URL.
+	 * @throws IOException
+	 *             if the connection could not be established.
+	 */
+	public InputStream openStream(final URL url) throws IOException {
+		return openConnection(url).getInputStream();
+	}
+
+	/**
+	 * Schedules the download of the given URL on the download pool.
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @param destination
+	 *            the file in which the content will be stored.
+	 * @return a future that completes with the {@code destination} once the download finishes.
+	 */
+	public Future<File> submit(final URL url, final File destination) {
+		return downloadExecutor.submit(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				download(url, destination);
+				return destination;
+			}
+		});
+	}
+
+	/**
+	 * Downloads the given URL using the calling thread (and the segment pool, for large files).
+	 * 
+	 * @param url
+	 *            the URL.
+	 * @param destination
+	 *            the file in which the content will be stored; an existing file will be overwritten.
+	 * @throws IOException
+	 *             if the content could not be downloaded after the configured number of attempts.
+	 */
+	public void download(final URL url, final File destination) throws IOException {
+		final long startTime = System.currentTimeMillis();
+		final RemoteContent remoteContent = probe(url);
+		final String alias = contentStore == null ? null : remoteContent.getAlias(url);
+		if (alias != null && contentStore.stageByAlias(alias, destination)) {
+			LOGGER.info(String.format("Found %s in the content store, no download needed", url));
+			return;
+		}
+		if (remoteContent.acceptsRanges && settings.getSegments() > 1 && remoteContent.length >= settings.getSegmentThresholdBytes()) {
+			downloadSegments(url, destination, remoteContent.length);
+		} else {
+			try (final RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+				file.setLength(0);
+			}
+			downloadRange(url, destination, 0, remoteContent.length - 1, remoteContent.acceptsRanges);
+		}
+		if (contentStore != null) {
+			final File storedFile = contentStore.put(destination);
+			if (alias != null) {
+				contentStore.putAlias(alias, storedFile);
+			}
+		}
+		LOGGER.info(String.format("Downloaded %s (%s) in %d ms", url, FileUtils.byteCountToDisplaySize(destination.length()),
+				System.currentTimeMillis() - startTime));
+	}
+
+	/**
+	 * Stops all running downloads and releases the threads used by this instance.
+	 */
+	public void shutdown() {
+		downloadExecutor.shutdownNow();
+		segmentExecutor.shutdownNow();
+	}
+
+	private URLConnection openConnection(final URL url) throws IOException {
+		final URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(settings.getConnectTimeoutMillis());
+		connection.setReadTimeout(settings.getReadTimeoutMillis());
+		return connection;
+	}
+
+	// finds out the size of the content and whether the server supports range requests, only HTTP(S) is probed
+	private RemoteContent probe(final URL url) {
+		final RemoteContent remoteContent = new RemoteContent();
+		if (!isHttp(url)) {
+			return remoteContent;
+		}
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) openConnection(url);
+			connection.setRequestMethod("HEAD");
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+				remoteContent.length = connection.getContentLengthLong();
+				remoteContent.acceptsRanges = remoteContent.length > 0 && "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+				remoteContent.entityTag = connection.getHeaderField("ETag");
+				remoteContent.lastModified = connection.getLastModified();
+			}
+		} catch (final IOException e) {
+			// not fatal, we just won't resume or split this download
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Could not probe " + url, e);
+			}
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+		return remoteContent;
+	}
+
+	private void downloadSegments(final URL url, final File destination, final long length) throws IOException {
+		try (final RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+			file.setLength(length);
+		}
+		final int segments = settings.getSegments();
+		final long segmentLength = (length + segments - 1) / segments;
+		final List<Future<Void>> futures = new ArrayList<Future<Void>>(segments);
+		for (long start = 0; start < length; start += segmentLength) {
+			final long segmentStart = start;
+			final long segmentEnd = Math.min(length, start + segmentLength) - 1;
+			futures.add(segmentExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					downloadRange(url, destination, segmentStart, segmentEnd, true);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading " + url, e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new ApplicationException("Unexpected error while downloading " + url, cause);
+		} finally {
+			for (final Future<Void> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	// downloads the bytes [start, end] into the same position of the destination, end < start means "until the end";
+	// failed attempts are resumed where they stopped if the server accepts range requests, otherwise they start over
+	private void downloadRange(final URL url, final File destination, final long start, final long end, final boolean resumable)
+			throws IOException {
+		final boolean bounded = end >= start;
+		long position = start;
+		int attempt = 1;
+		while (true) {
+			try (final RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+				final URLConnection connection = openConnection(url);
+				final boolean ranged = resumable && (position > 0 || bounded);
+				if (ranged) {
+					connection.setRequestProperty("Range", "bytes=" + position + '-' + (bounded ? Long.toString(end) : ""));
+				}
+				try (final InputStream inputStream = connection.getInputStream()) {
+					if (ranged && ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+						throw new IOException("The server did not honour the range request for " + url);
+					}
+					file.seek(position);
+					final byte[] buffer = new byte[BUFFER_SIZE];
+					int read;
+					while ((read = inputStream.read(buffer)) != -1) {
+						file.write(buffer, 0, read);
+						position += read;
+					}
+				}
+				if (bounded && position != end + 1) {
+					throw new IOException(String.format("Transfer of %s ended prematurely at byte %d, expected %d bytes", url, position, end + 1));
+				}
+				return;
+			} catch (final IOException e) {
+				if (attempt >= settings.getMaxAttempts() || Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				if (!resumable) {
+					position = start;
+				}
+				LOGGER.warn(String.format("Attempt %d to download %s failed (%s), %s at byte %d", attempt, url, e.getMessage(),
+						resumable ? "resuming" : "restarting", position));
+				attempt++;
+			}
+		}
+	}
+
+	private static boolean isHttp(final URL url) {
+		return "http".equalsIgnoreCase(url.getProtocol()) || "https".equalsIgnoreCase(url.getProtocol());
+	}
+
+	private static class RemoteContent {
+		long length = -1;
+		boolean acceptsRanges;
+		String entityTag;
+		long lastModified;
+
+		// without validators, we cannot know whether remote content changed since it was stored
+		String getAlias(final URL url) {
+			if (length < 0 || (entityTag == null && lastModified <= 0)) {
+				return null;
+			}
+			return url.toExternalForm() + '|' + length + '|' + (entityTag == null ? "" : entityTag) + '|' + lastModified;
+		}
+	}
+}
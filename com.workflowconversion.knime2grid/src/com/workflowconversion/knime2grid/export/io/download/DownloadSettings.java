@@ -0,0 +1,182 @@
+package com.workflowconversion.knime2grid.export.io.download;
+
+import org.apache.commons.lang.Validate;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+import com.workflowconversion.knime2grid.preference.PreferenceConstants;
+
+/**
+ * Settings that tune how {@link DownloadManager} fetches remote content.
+ * 
+ * Instances are immutable and are created via a {@link Builder}, either directly or from the preferences of this
+ * plug-in using {@link #fromPreferences(IPreferenceStore)}.
+ * 
+ * @author delagarza
+ */
+public class DownloadSettings {
+
+	private final int threads;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final int maxAttempts;
+	private final int segments;
+	private final long segmentThresholdBytes;
+
+	private DownloadSettings(final int threads, final int connectTimeoutMillis, final int readTimeoutMillis, final int maxAttempts, final int segments,
+			final long segmentThresholdBytes) {
+		Validate.isTrue(threads > 0, "threads must be positive", threads);
+		Validate.isTrue(connectTimeoutMillis >= 0, "connectTimeoutMillis cannot be negative", connectTimeoutMillis);
+		Validate.isTrue(readTimeoutMillis >= 0, "readTimeoutMillis cannot be negative", readTimeoutMillis);
+		Validate.isTrue(maxAttempts > 0, "maxAttempts must be positive", maxAttempts);
+		Validate.isTrue(segments > 0, "segments must be positive", segments);
+		Validate.isTrue(segmentThresholdBytes > 0, "segmentThresholdBytes must be positive", segmentThresholdBytes);
+		this.threads = threads;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.maxAttempts = maxAttempts;
+		this.segments = segments;
+		this.segmentThresholdBytes = segmentThresholdBytes;
+	}
+
+	/**
+	 * Creates settings using the values found in the given preference store.
+	 * 
+	 * @param preferenceStore
+	 *            the preference store.
+	 * @return settings matching the given preferences.
+	 */
+	public static DownloadSettings fromPreferences(final IPreferenceStore preferenceStore) {
+		Validate.notNull(preferenceStore, "preferenceStore cannot be null");
+		final Builder builder = new Builder();
+		builder.withThreads(preferenceStore.getInt(PreferenceConstants.DOWNLOAD_THREADS));
+		builder.withConnectTimeoutMillis(preferenceStore.getInt(PreferenceConstants.DOWNLOAD_CONNECT_TIMEOUT_SECONDS) * 1000);
+		builder.withReadTimeoutMillis(preferenceStore.getInt(PreferenceConstants.DOWNLOAD_READ_TIMEOUT_SECONDS) * 1000);
+		builder.withSegments(preferenceStore.getInt(PreferenceConstants.DOWNLOAD_SEGMENTS));
+		return builder.newInstance();
+	}
+
+	/**
+	 * @return the number of downloads that can run concurrently.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the connect timeout, in milliseconds; {@code 0} means no timeout.
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * @return the read timeout, in milliseconds; {@code 0} means no timeout.
+	 */
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * @return how many times a transfer is attempted before giving up; interrupted transfers are resumed if the server
+	 *         supports it.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @return the number of parallel range requests used to download a large file; {@code 1} disables segmented
+	 *         downloads.
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return the minimum size, in bytes, of files downloaded using parallel segments.
+	 */
+	public long getSegmentThresholdBytes() {
+		return segmentThresholdBytes;
+	}
+
+	/**
+	 * Builder for {@link DownloadSettings}. All values default to the ones used in the plug-in preferences.
+	 * 
+	 * @author delagarza
+	 */
+	public static class Builder {
+		private int threads = 4;
+		private int connectTimeoutMillis = 30 * 1000;
+		private int readTimeoutMillis = 60 * 1000;
+		private int maxAttempts = 5;
+		private int segments = 4;
+		private long segmentThresholdBytes = 64L * 1024L * 1024L;
+
+		/**
+		 * @param threads
+		 *            the number of downloads that can run concurrently.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withThreads(final int threads) {
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * @param connectTimeoutMillis
+		 *            the connect timeout, in milliseconds, {@code 0} for no timeout.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withConnectTimeoutMillis(final int connectTimeoutMillis) {
+			this.connectTimeoutMillis = connectTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * @param readTimeoutMillis
+		 *            the read timeout, in milliseconds, {@code 0} for no timeout.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withReadTimeoutMillis(final int readTimeoutMillis) {
+			this.readTimeoutMillis = readTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * @param maxAttempts
+		 *            how many times a transfer is attempted before giving up.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withMaxAttempts(final int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 * @param segments
+		 *            the number of parallel range requests used for large files, {@code 1} to disable them.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withSegments(final int segments) {
+			this.segments = segments;
+			return this;
+		}
+
+		/**
+		 * @param segmentThresholdBytes
+		 *            the minimum size, in bytes, of files downloaded using parallel segments.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withSegmentThresholdBytes(final long segmentThresholdBytes) {
+			this.segmentThresholdBytes = segmentThresholdBytes;
+			return this;
+		}
+
+		/**
+		 * @return a new instance of {@link DownloadSettings}.
+		 */
+		public DownloadSettings newInstance() {
+			return new DownloadSettings(threads, connectTimeoutMillis, readTimeoutMillis, maxAttempts, segments, segmentThresholdBytes);
+		}
+	}
+}
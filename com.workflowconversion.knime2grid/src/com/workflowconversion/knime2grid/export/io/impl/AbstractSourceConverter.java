@@ -1,7 +1,5 @@
 package com.workflowconversion.knime2grid.export.io.impl;
 
-import java.io.File;
-
 import org.knime.core.node.NodeSettings;
 import org.knime.core.node.workflow.NodeContainer;
 import org.knime.core.node.workflow.WorkflowManager;
@@ -40,9 +38,8 @@ public abstract class AbstractSourceConverter implements SourceConverter {
 	public IFileParameter convert(final NodeContainer sourceNodeContainer, final WorkflowManager workflowManager)
 			throws Exception {
 		final NodeSettings modelSettings = ConverterUtils.getModelSettings(sourceNodeContainer, workflowManager);
-		final String urlSetting = modelSettings.getString(contentLocationPropertyName);
-		final File content = ConverterUtils.copyContent(urlSetting);
-		return new FileParameter("unused", content.getCanonicalPath());
+		// the content is not copied here, exporters access it through the data handles of the ports
+		return new FileParameter("unused", modelSettings.getString(contentLocationPropertyName));
 	}
 
 }
@@ -1,7 +1,6 @@
 package com.workflowconversion.knime2grid.export.io.impl;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.knime.core.node.NodeSettings;
 import org.knime.core.node.workflow.NodeContainer;
@@ -26,12 +25,8 @@ public class ListMimeFileImporterConverter extends AbstractSourceConverter {
 		// we need to extract the filenames in an array
 		final NodeSettings modelSettings = ConverterUtils.getModelSettings(sourceNodeContainer, workflowManager);
 		final String[] filenames = modelSettings.getStringArray(LOCATION_PROPERTY_NAME);
-		final List<String> correctedFilenames = new LinkedList<String>();
-		for (final String filename : filenames) {
-			correctedFilenames.add(ConverterUtils.copyContent(filename).getCanonicalPath());
-		}
-
-		return new FileListParameter("unused", correctedFilenames);
+		// the content is not copied here, exporters access it through the data handles of the ports
+		return new FileListParameter("unused", Arrays.asList(filenames));
 	}
 
 }
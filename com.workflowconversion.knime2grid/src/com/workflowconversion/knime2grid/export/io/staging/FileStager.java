@@ -0,0 +1,128 @@
+package com.workflowconversion.knime2grid.export.io.staging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.SystemUtils;
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+/**
+ * Makes local files available at a staging location using the cheapest possible {@link StagingStrategy}. Strategies
+ * are attempted in the order in which they are declared and the first one that succeeds is used.
+ * 
+ * Staged files share their content with the original file when hard links are used, so they must be treated as
+ * read-only.
+ * 
+ * @author delagarza
+ */
+public class FileStager {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(FileStager.class);
+
+	// reflinks are not supported by most file systems, so we remember which ones failed to avoid spawning processes
+	// that are bound to fail
+	private final static Map<FileStore, Boolean> REFLINK_SUPPORT = new ConcurrentHashMap<FileStore, Boolean>();
+
+	private FileStager() {
+	}
+
+	/**
+	 * Stages the given file. Callers that can read the content directly from {@code source} should use
+	 * {@link #openDirect(File, String)} instead.
+	 * 
+	 * @param source
+	 *            the file to stage.
+	 * @param destination
+	 *            the staging location; an existing file will be replaced.
+	 * @return the strategy that was used.
+	 * @throws IOException
+	 *             if the file could not be staged.
+	 */
+	public static StagingStrategy stage(final File source, final File destination) throws IOException {
+		Validate.notNull(source, "source cannot be null");
+		Validate.notNull(destination, "destination cannot be null");
+		final Path sourcePath = source.toPath();
+		final Path destinationPath = destination.toPath();
+		final FileStore destinationStore = Files.getFileStore(destinationPath.toAbsolutePath().getParent());
+
+		StagingStrategy strategy = StagingStrategy.Copy;
+		if (Files.getFileStore(sourcePath).equals(destinationStore)) {
+			if (tryHardLink(sourcePath, destinationPath)) {
+				strategy = StagingStrategy.HardLink;
+			} else if (tryReflink(sourcePath, destinationPath, destinationStore)) {
+				strategy = StagingStrategy.Reflink;
+			}
+		}
+		if (strategy == StagingStrategy.Copy) {
+			Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+		logStrategy(source, destination, strategy);
+		return strategy;
+	}
+
+	/**
+	 * Opens the given file to read its content directly from its original location (i.e., using
+	 * {@link StagingStrategy#Direct}). Callers are responsible for closing the returned stream.
+	 * 
+	 * @param source
+	 *            the file to stage.
+	 * @param destination
+	 *            a description of where the content ends up (e.g., the name of an archive entry), used for logging.
+	 * @return a stream from which the content can be read.
+	 * @throws IOException
+	 *             if the file could not be opened.
+	 */
+	public static InputStream openDirect(final File source, final String destination) throws IOException {
+		Validate.notNull(source, "source cannot be null");
+		Validate.notNull(destination, "destination cannot be null");
+		final InputStream inputStream = new FileInputStream(source);
+		logStrategy(source, destination, StagingStrategy.Direct);
+		return inputStream;
+	}
+
+	private static void logStrategy(final File source, final Object destination, final StagingStrategy strategy) {
+		LOGGER.info(String.format("Staged %s as %s using strategy %s", source, destination, strategy));
+	}
+
+	private static boolean tryHardLink(final Path source, final Path destination) {
+		try {
+			Files.deleteIfExists(destination);
+			Files.createLink(destination, source);
+			return true;
+		} catch (final IOException | UnsupportedOperationException | SecurityException e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Could not create a hard link to " + source, e);
+			}
+			return false;
+		}
+	}
+
+	// there is no java API for reflinks, but GNU cp knows how to create them
+	private static boolean tryReflink(final Path source, final Path destination, final FileStore store) {
+		if (!SystemUtils.IS_OS_LINUX || Boolean.FALSE.equals(REFLINK_SUPPORT.get(store))) {
+			return false;
+		}
+		boolean success;
+		try {
+			final Process process = new ProcessBuilder("cp", "--reflink=always", source.toString(), destination.toString()).redirectErrorStream(true)
+					.start();
+			success = process.waitFor() == 0;
+		} catch (final IOException e) {
+			success = false;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		REFLINK_SUPPORT.put(store, success);
+		return success;
+	}
+}
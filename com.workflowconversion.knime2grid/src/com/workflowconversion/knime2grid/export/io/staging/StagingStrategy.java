@@ -0,0 +1,27 @@
+package com.workflowconversion.knime2grid.export.io.staging;
+
+/**
+ * The ways in which local content can be made available at a staging location, from the cheapest to the most
+ * expensive one.
+ * 
+ * @author delagarza
+ */
+public enum StagingStrategy {
+	/**
+	 * The content is read directly from its original location, nothing is written.
+	 */
+	Direct,
+	/**
+	 * The staged file is a hard link to the original file. Only possible if both are on the same file system.
+	 */
+	HardLink,
+	/**
+	 * The staged file is a copy-on-write clone (reflink) of the original file. Only supported by some file systems
+	 * (e.g., XFS, Btrfs).
+	 */
+	Reflink,
+	/**
+	 * The content is copied byte by byte.
+	 */
+	Copy
+}
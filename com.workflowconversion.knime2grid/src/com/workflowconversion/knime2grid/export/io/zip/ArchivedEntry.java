@@ -0,0 +1,128 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * The compressed data of an entry that has already been written into an archive, from which it can be copied (as raw,
+ * already compressed data) into the same archive under other names. The archive must be written into a seekable
+ * channel, so the data can be read back while the archive is still being written.
+ *
+ * @author delagarza
+ */
+class ArchivedEntry {
+
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	private final int method;
+	private final long crc;
+	private final long size;
+	private final long compressedSize;
+	// position of the first byte of compressed data in the archive
+	private final long dataOffset;
+
+	private ArchivedEntry(final int method, final long crc, final long size, final long compressedSize, final long dataOffset) {
+		this.method = method;
+		this.crc = crc;
+		this.size = size;
+		this.compressedSize = compressedSize;
+		this.dataOffset = dataOffset;
+	}
+
+	/**
+	 * Locates the data of the given entry. Must be invoked right after the entry has been completely written, while
+	 * the channel is still positioned at the end of its data (i.e., there are no data descriptors in seekable
+	 * archives).
+	 *
+	 * @param entry
+	 *            the entry that was just written.
+	 * @param archiveChannel
+	 *            the channel into which the archive is written.
+	 * @return the location of the data of the entry.
+	 * @throws IOException
+	 *             if the position of the channel could not be read.
+	 */
+	static ArchivedEntry locate(final ZipArchiveEntry entry, final SeekableByteChannel archiveChannel) throws IOException {
+		return new ArchivedEntry(entry.getMethod(), entry.getCrc(), entry.getSize(), entry.getCompressedSize(),
+				archiveChannel.position() - entry.getCompressedSize());
+	}
+
+	/**
+	 * Adds an entry with the same data to the archive.
+	 *
+	 * @param zipOutputStream
+	 *            the archive.
+	 * @param archiveChannel
+	 *            the channel into which the archive is written.
+	 * @param name
+	 *            the name of the new entry.
+	 * @throws IOException
+	 *             if the data could not be copied.
+	 */
+	void addTo(final ZipArchiveOutputStream zipOutputStream, final SeekableByteChannel archiveChannel, final String name) throws IOException {
+		final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+		entry.setMethod(method);
+		entry.setCrc(crc);
+		entry.setSize(size);
+		entry.setCompressedSize(compressedSize);
+		// the copy is read in large chunks, every chunk makes the archive seek back and forth
+		try (final InputStream inputStream = new BufferedInputStream(new RangeInputStream(archiveChannel, dataOffset, compressedSize),
+				BUFFER_SIZE)) {
+			zipOutputStream.addRawArchiveEntry(entry, inputStream);
+		}
+	}
+
+	/**
+	 * @return the size of the compressed data, in bytes.
+	 */
+	long getCompressedSize() {
+		return compressedSize;
+	}
+
+	// reads a range of the archive while it's being written, the position of the channel is restored after each read
+	private static class RangeInputStream extends InputStream {
+		private final SeekableByteChannel channel;
+		private long position;
+		private long remaining;
+
+		RangeInputStream(final SeekableByteChannel channel, final long position, final long length) {
+			this.channel = channel;
+			this.position = position;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] buffer = new byte[1];
+			return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			final ByteBuffer destination = ByteBuffer.wrap(buffer, offset, (int) Math.min(length, remaining));
+			final long writePosition = channel.position();
+			int read;
+			try {
+				channel.position(position);
+				read = channel.read(destination);
+			} finally {
+				channel.position(writePosition);
+			}
+			if (read <= 0) {
+				throw new IOException(String.format("The archive ended at byte %d, %d bytes before the end of an entry", position, remaining));
+			}
+			position += read;
+			remaining -= read;
+			return read;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * {@link SeekableByteChannel} that collects small writes in a buffer before passing them on to the wrapped channel.
+ *
+ * {@code ZipArchiveOutputStream} writes headers and compressed data in small chunks, each of which would otherwise be a
+ * system call. A {@link java.io.BufferedOutputStream} would avoid that too, but archives written to a stream can't be
+ * seeked, so the sizes of the entries could not be patched into their local headers. Buffered bytes are written before
+ * the position changes, before reading and when the channel is closed.
+ *
+ * @author delagarza
+ */
+public class BufferedSeekableByteChannel implements SeekableByteChannel {
+
+	private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private final SeekableByteChannel channel;
+	// bytes waiting to be written at the current position of the wrapped channel
+	private final ByteBuffer buffer;
+
+	/**
+	 * Opens the given file for writing, replacing its content.
+	 *
+	 * @param file
+	 *            the file.
+	 * @return a buffered channel to the file.
+	 * @throws IOException
+	 *             if the file could not be opened.
+	 */
+	public static BufferedSeekableByteChannel open(final File file) throws IOException {
+		Validate.notNull(file, "file cannot be null");
+		return new BufferedSeekableByteChannel(Files.newByteChannel(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param channel
+	 *            the wrapped channel.
+	 * @param bufferSize
+	 *            the size of the buffer, in bytes.
+	 */
+	public BufferedSeekableByteChannel(final SeekableByteChannel channel, final int bufferSize) {
+		Validate.notNull(channel, "channel cannot be null");
+		Validate.isTrue(bufferSize > 0, "bufferSize must be positive", bufferSize);
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	@Override
+	public int write(final ByteBuffer source) throws IOException {
+		final int length = source.remaining();
+		if (length > buffer.remaining()) {
+			flush();
+		}
+		if (length >= buffer.capacity()) {
+			// large writes would only be copied around, they go straight to the channel
+			while (source.hasRemaining()) {
+				channel.write(source);
+			}
+		} else {
+			buffer.put(source);
+		}
+		return length;
+	}
+
+	@Override
+	public int read(final ByteBuffer destination) throws IOException {
+		flush();
+		return channel.read(destination);
+	}
+
+	@Override
+	public long position() throws IOException {
+		return channel.position() + buffer.position();
+	}
+
+	@Override
+	public SeekableByteChannel position(final long newPosition) throws IOException {
+		flush();
+		channel.position(newPosition);
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		flush();
+		return channel.size();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(final long size) throws IOException {
+		flush();
+		channel.truncate(size);
+		return this;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,36 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.util.zip.Deflater;
+
+/**
+ * The ways in which entries of an archive can be compressed.
+ * 
+ * @author delagarza
+ */
+public enum CompressionMethod {
+	/**
+	 * The content is stored as it is; used for content that is already compressed.
+	 */
+	Stored(Deflater.NO_COMPRESSION),
+	/**
+	 * The content is deflated favoring speed over ratio; used for large content.
+	 */
+	Fast(Deflater.BEST_SPEED),
+	/**
+	 * The content is deflated favoring ratio over speed; used for small content.
+	 */
+	Strong(Deflater.BEST_COMPRESSION);
+
+	private final int level;
+
+	private CompressionMethod(final int level) {
+		this.level = level;
+	}
+
+	/**
+	 * @return the deflate level of this method.
+	 */
+	public int getLevel() {
+		return level;
+	}
+}
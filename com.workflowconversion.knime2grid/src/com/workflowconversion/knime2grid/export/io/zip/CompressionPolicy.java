@@ -0,0 +1,192 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Decides how each entry of an archive is compressed. Compressing content that is already compressed (e.g., gzipped
+ * inputs, BAM files, images, mini workflows) only costs time, so such content is stored as it is. Decisions are made,
+ * in this order, based on:
+ * <ol>
+ * <li>the extension of the name of the source of the content,</li>
+ * <li>the magic bytes at the beginning of the content,</li>
+ * <li>the ratio achieved by quickly deflating a sample of the first few MB of the content.</li>
+ * </ol>
+ * Content that fits into the sample is deflated as much as possible, since doing so is cheap; larger content is
+ * deflated favoring speed.
+ *
+ * Instances of this class are immutable.
+ *
+ * @author delagarza
+ */
+public class CompressionPolicy {
+
+	/**
+	 * Default size of the samples, in bytes.
+	 */
+	public static final int DEFAULT_SAMPLE_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Default ratio (compressed / uncompressed size of the sample) from which content is considered incompressible.
+	 */
+	public static final double DEFAULT_STORED_RATIO = 0.95;
+
+	private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList("gz", "tgz", "bgz", "bz2", "xz", "lz", "lzma",
+			"lz4", "zst", "zip", "jar", "7z", "rar", "bam", "cram", "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "mkv", "avi", "pdf", "docx",
+			"xlsx", "pptx", "knwf", "knar"));
+
+	// the order doesn't matter, but a stable one makes reports easier to read
+	private static final Map<String, byte[]> MAGIC_BYTES = new LinkedHashMap<String, byte[]>();
+
+	static {
+		// BGZF files (e.g., BAM) are gzip files
+		MAGIC_BYTES.put("gzip", new byte[] { 0x1f, (byte) 0x8b });
+		MAGIC_BYTES.put("zip", new byte[] { 'P', 'K', 3, 4 });
+		MAGIC_BYTES.put("bzip2", new byte[] { 'B', 'Z', 'h' });
+		MAGIC_BYTES.put("xz", new byte[] { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 });
+		MAGIC_BYTES.put("zstd", new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd });
+		MAGIC_BYTES.put("7z", new byte[] { '7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c });
+		MAGIC_BYTES.put("cram", new byte[] { 'C', 'R', 'A', 'M' });
+		MAGIC_BYTES.put("png", new byte[] { (byte) 0x89, 'P', 'N', 'G' });
+		MAGIC_BYTES.put("jpeg", new byte[] { (byte) 0xff, (byte) 0xd8, (byte) 0xff });
+		MAGIC_BYTES.put("gif", new byte[] { 'G', 'I', 'F', '8' });
+		MAGIC_BYTES.put("pdf", new byte[] { '%', 'P', 'D', 'F' });
+	}
+
+	private final int sampleSize;
+	private final double storedRatio;
+
+	/**
+	 * Creates a policy using {@link #DEFAULT_SAMPLE_SIZE} and {@link #DEFAULT_STORED_RATIO}.
+	 */
+	public CompressionPolicy() {
+		this(DEFAULT_SAMPLE_SIZE, DEFAULT_STORED_RATIO);
+	}
+
+	/**
+	 * @param sampleSize
+	 *            the size of the samples, in bytes.
+	 * @param storedRatio
+	 *            the ratio from which content is considered incompressible.
+	 */
+	public CompressionPolicy(final int sampleSize, final double storedRatio) {
+		Validate.isTrue(sampleSize > 0, "sampleSize must be positive", sampleSize);
+		Validate.isTrue(storedRatio > 0, "storedRatio must be positive", storedRatio);
+		this.sampleSize = sampleSize;
+		this.storedRatio = storedRatio;
+	}
+
+	/**
+	 * @return the maximum number of bytes that {@link #decide(String, byte[], int, boolean)} needs.
+	 */
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	/**
+	 * Decides how to compress some content.
+	 *
+	 * @param sourceName
+	 *            the name of the source of the content (e.g., the name of a file), or {@code null} if not known.
+	 * @param sample
+	 *            the first bytes of the content.
+	 * @param sampleLength
+	 *            the number of valid bytes in {@code sample}.
+	 * @param complete
+	 *            whether the sample contains the whole content.
+	 * @return the decision.
+	 */
+	public Decision decide(final String sourceName, final byte[] sample, final int sampleLength, final boolean complete) {
+		if (sourceName != null) {
+			final String extension = FilenameUtils.getExtension(sourceName).toLowerCase();
+			if (COMPRESSED_EXTENSIONS.contains(extension)) {
+				return new Decision(CompressionMethod.Stored, "extension ." + extension);
+			}
+		}
+		for (final Map.Entry<String, byte[]> magicBytes : MAGIC_BYTES.entrySet()) {
+			if (startsWith(sample, sampleLength, magicBytes.getValue())) {
+				return new Decision(CompressionMethod.Stored, "magic bytes of " + magicBytes.getKey());
+			}
+		}
+		if (sampleLength == 0) {
+			return new Decision(CompressionMethod.Stored, "empty");
+		}
+		final double ratio = (double) sampleDeflatedSize(sample, sampleLength) / sampleLength;
+		final String reason = String.format("sample ratio %.2f", ratio);
+		if (ratio >= storedRatio) {
+			return new Decision(CompressionMethod.Stored, reason);
+		}
+		return new Decision(complete ? CompressionMethod.Strong : CompressionMethod.Fast, reason);
+	}
+
+	private boolean startsWith(final byte[] sample, final int sampleLength, final byte[] prefix) {
+		if (sampleLength < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (sample[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// the fastest level is a good enough predictor, we're only interested in knowing whether deflating pays off
+	private long sampleDeflatedSize(final byte[] sample, final int sampleLength) {
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(sample, 0, sampleLength);
+			deflater.finish();
+			final byte[] buffer = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				deflater.deflate(buffer);
+			}
+			return deflater.getBytesWritten();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * How to compress an entry and why.
+	 *
+	 * @author delagarza
+	 */
+	public static class Decision {
+		private final CompressionMethod method;
+		private final String reason;
+
+		/**
+		 * @param method
+		 *            the method.
+		 * @param reason
+		 *            a short, human-readable, reason.
+		 */
+		public Decision(final CompressionMethod method, final String reason) {
+			Validate.notNull(method, "method cannot be null");
+			this.method = method;
+			this.reason = reason;
+		}
+
+		/**
+		 * @return the method.
+		 */
+		public CompressionMethod getMethod() {
+			return method;
+		}
+
+		/**
+		 * @return a short, human-readable, reason for the chosen method.
+		 */
+		public String getReason() {
+			return reason;
+		}
+	}
+}
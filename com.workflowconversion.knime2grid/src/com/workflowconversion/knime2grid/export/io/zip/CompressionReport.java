@@ -0,0 +1,131 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Records how each entry of an archive was compressed. Instances of this class are thread-safe.
+ *
+ * @author delagarza
+ */
+public class CompressionReport {
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * @param name
+	 *            the name of the entry.
+	 * @param decision
+	 *            how the entry was compressed.
+	 * @param size
+	 *            the uncompressed size, in bytes.
+	 * @param compressedSize
+	 *            the compressed size, in bytes.
+	 */
+	public synchronized void add(final String name, final CompressionPolicy.Decision decision, final long size, final long compressedSize) {
+		entries.add(new Entry(name, decision, size, compressedSize));
+	}
+
+	/**
+	 * @return the recorded entries, in the order in which they were added.
+	 */
+	public synchronized List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<Entry>(entries));
+	}
+
+	/**
+	 * @return a one-line summary with the number of entries, sizes and ratio per compression method.
+	 */
+	public synchronized String getSummary() {
+		final Map<CompressionMethod, long[]> totals = new EnumMap<CompressionMethod, long[]>(CompressionMethod.class);
+		for (final Entry entry : entries) {
+			long[] total = totals.get(entry.getDecision().getMethod());
+			if (total == null) {
+				total = new long[3];
+				totals.put(entry.getDecision().getMethod(), total);
+			}
+			total[0]++;
+			total[1] += entry.getSize();
+			total[2] += entry.getCompressedSize();
+		}
+		final StringBuilder summary = new StringBuilder();
+		for (final Map.Entry<CompressionMethod, long[]> total : totals.entrySet()) {
+			if (summary.length() > 0) {
+				summary.append("; ");
+			}
+			summary.append(String.format("%s: %d entries, %s -> %s (ratio %.2f)", total.getKey(), total.getValue()[0],
+					FileUtils.byteCountToDisplaySize(total.getValue()[1]), FileUtils.byteCountToDisplaySize(total.getValue()[2]),
+					ratio(total.getValue()[1], total.getValue()[2])));
+		}
+		return summary.toString();
+	}
+
+	private static double ratio(final long size, final long compressedSize) {
+		return size == 0 ? 1 : (double) compressedSize / size;
+	}
+
+	/**
+	 * How a single entry was compressed.
+	 *
+	 * @author delagarza
+	 */
+	public static class Entry {
+		private final String name;
+		private final CompressionPolicy.Decision decision;
+		private final long size;
+		private final long compressedSize;
+
+		Entry(final String name, final CompressionPolicy.Decision decision, final long size, final long compressedSize) {
+			this.name = name;
+			this.decision = decision;
+			this.size = size;
+			this.compressedSize = compressedSize;
+		}
+
+		/**
+		 * @return the name of the entry.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return how the entry was compressed.
+		 */
+		public CompressionPolicy.Decision getDecision() {
+			return decision;
+		}
+
+		/**
+		 * @return the uncompressed size, in bytes.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the compressed size, in bytes.
+		 */
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		/**
+		 * @return compressed size / uncompressed size.
+		 */
+		public double getRatio() {
+			return ratio(size, compressedSize);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s (%s), %d -> %d bytes (ratio %.2f)", name, decision.getMethod(), decision.getReason(), size, compressedSize,
+					getRatio());
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Content of an entry of a ZIP archive. Content is produced only when a {@link ZipEntryWriter} needs it, possibly on a
+ * thread other than the one that added the entry, so implementations must not depend on the calling thread.
+ * 
+ * @author delagarza
+ */
+public interface EntryContent {
+
+	/**
+	 * Writes the content into the given stream.
+	 * 
+	 * @param outputStream
+	 *            the stream; implementations must not close it.
+	 * @throws IOException
+	 *             if the content could not be written.
+	 */
+	void writeTo(final OutputStream outputStream) throws IOException;
+
+	/**
+	 * @return the name of the source of the content (e.g., the name of a file), used by {@link CompressionPolicy} to
+	 *         guess the type of the content, or {@code null} if not known.
+	 */
+	String getSourceName();
+}
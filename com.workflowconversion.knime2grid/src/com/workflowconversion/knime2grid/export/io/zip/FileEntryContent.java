@@ -0,0 +1,43 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+
+/**
+ * {@link EntryContent} read from a local file.
+ * 
+ * @author delagarza
+ */
+public class FileEntryContent implements EntryContent {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+
+	/**
+	 * @param file
+	 *            the file.
+	 */
+	public FileEntryContent(final File file) {
+		Validate.notNull(file, "file cannot be null");
+		this.file = file;
+	}
+
+	@Override
+	public void writeTo(final OutputStream outputStream) throws IOException {
+		try (final InputStream inputStream = new FileInputStream(file)) {
+			IOUtils.copyLarge(inputStream, outputStream, new byte[BUFFER_SIZE]);
+		}
+	}
+
+	@Override
+	public String getSourceName() {
+		return file.getName();
+	}
+}
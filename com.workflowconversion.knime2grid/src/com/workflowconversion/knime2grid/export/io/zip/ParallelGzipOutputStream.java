@@ -0,0 +1,226 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.lang.Validate;
+
+import com.workflowconversion.knime2grid.exception.ApplicationException;
+
+/**
+ * Gzip stream whose data is deflated on several threads, in the spirit of pigz.
+ *
+ * Data is split into fixed-size blocks that are deflated independently on the given executor. Each block is primed
+ * with the last 32 KB of the previous block as dictionary, so the compression ratio is close to the one of a single
+ * deflate stream, and is terminated with a sync flush, so blocks end on a byte boundary and can simply be
+ * concatenated. Only the last block is marked as final, thus the result is a single, regular gzip member that any gzip
+ * implementation (e.g., {@code tar xfz}) can read.
+ *
+ * At most twice as many blocks as threads are held in memory at any given time. Instances of this class are not
+ * thread-safe.
+ *
+ * @author delagarza
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+	/**
+	 * Default size of the blocks, the same one used by pigz.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	// deflate can't reference data further back than 32 KB
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final ExecutorService executor;
+	private final int maxPendingBlocks;
+	private final int level;
+	private final int blockSize;
+	// blocks are written in the order in which they were submitted
+	private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+	private final CRC32 crc = new CRC32();
+	private byte[] block;
+	private int blockLength;
+	private byte[] previousBlock;
+	private long uncompressedSize;
+	private boolean headerWritten;
+	private boolean closed;
+
+	/**
+	 * @param outputStream
+	 *            the stream to which the compressed data will be written.
+	 * @param executor
+	 *            the executor on which blocks are deflated; it is not shut down by this stream.
+	 * @param threads
+	 *            the number of threads of the executor.
+	 * @param level
+	 *            the compression level (see {@link Deflater}).
+	 * @param blockSize
+	 *            the size of the blocks, in bytes; it must be at least 32 KB.
+	 */
+	public ParallelGzipOutputStream(final OutputStream outputStream, final ExecutorService executor, final int threads, final int level,
+			final int blockSize) {
+		super(outputStream);
+		Validate.notNull(outputStream, "outputStream cannot be null");
+		Validate.notNull(executor, "executor cannot be null");
+		Validate.isTrue(threads > 0, "threads must be positive", threads);
+		Validate.isTrue(blockSize >= DICTIONARY_SIZE, "blockSize must be at least " + DICTIONARY_SIZE, blockSize);
+		this.executor = executor;
+		this.maxPendingBlocks = threads * 2;
+		this.level = level;
+		this.blockSize = blockSize;
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		ensureOpen();
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0) {
+			final int length = Math.min(remaining, blockSize - blockLength);
+			System.arraycopy(b, offset, block, blockLength, length);
+			blockLength += length;
+			offset += length;
+			remaining -= length;
+			if (blockLength == blockSize) {
+				submitBlock(false);
+			}
+		}
+	}
+
+	/**
+	 * Writes all complete blocks. Data of an incomplete block stays buffered until the block is full or the stream is
+	 * closed, otherwise blocks would no longer have a fixed size.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		while (!pendingBlocks.isEmpty()) {
+			writeFirstBlock();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			// the last block is always submitted, even if empty, it terminates the deflate stream
+			submitBlock(true);
+			while (!pendingBlocks.isEmpty()) {
+				writeFirstBlock();
+			}
+			writeTrailer();
+		} finally {
+			closed = true;
+			for (final Future<byte[]> pendingBlock : pendingBlocks) {
+				pendingBlock.cancel(true);
+			}
+			out.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void submitBlock(final boolean last) throws IOException {
+		if (!headerWritten) {
+			out.write(GZIP_HEADER);
+			headerWritten = true;
+		}
+		while (pendingBlocks.size() >= maxPendingBlocks) {
+			writeFirstBlock();
+		}
+		// computing the checksum is much cheaper than deflating, so it's done while submitting blocks
+		crc.update(block, 0, blockLength);
+		uncompressedSize += blockLength;
+
+		final byte[] input = blockLength == block.length ? block : Arrays.copyOf(block, blockLength);
+		final byte[] dictionary = previousBlock;
+		pendingBlocks.addLast(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return deflate(input, dictionary, last);
+			}
+		}));
+		// submitted blocks are read by the workers, so a new buffer is needed
+		previousBlock = input;
+		block = new byte[blockSize];
+		blockLength = 0;
+	}
+
+	private byte[] deflate(final byte[] input, final byte[] dictionary, final boolean last) {
+		final Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+			}
+			deflater.setInput(input);
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+			final byte[] buffer = new byte[Math.max(input.length / 4, 1024)];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					compressed.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				// a sync flush leaves the deflate stream open and aligned to a byte boundary; if the buffer was
+				// filled, there might be more pending output
+				int length;
+				do {
+					length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, length);
+				} while (length == buffer.length);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeFirstBlock() throws IOException {
+		try {
+			out.write(pendingBlocks.removeFirst().get());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		} catch (final ExecutionException e) {
+			throw new ApplicationException("Unexpected error while compressing", e.getCause());
+		}
+	}
+
+	// CRC-32 and uncompressed size modulo 2^32, both little-endian
+	private void writeTrailer() throws IOException {
+		writeInt(crc.getValue());
+		writeInt(uncompressedSize);
+	}
+
+	private void writeInt(final long value) throws IOException {
+		out.write((int) (value & 0xff));
+		out.write((int) ((value >> 8) & 0xff));
+		out.write((int) ((value >> 16) & 0xff));
+		out.write((int) ((value >> 24) & 0xff));
+	}
+}
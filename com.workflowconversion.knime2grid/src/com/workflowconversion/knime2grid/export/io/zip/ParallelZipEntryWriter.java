@@ -0,0 +1,280 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+
+import com.workflowconversion.knime2grid.exception.ApplicationException;
+
+/**
+ * {@link ZipEntryWriter} that compresses entries on several threads.
+ *
+ * This follows the scatter/gather approach of commons-compress' {@code ParallelScatterZipCreator}: the content of
+ * each entry is deflated on a worker thread into a scatter file, and scatter files are then copied, as raw
+ * already-compressed data, into the archive. Unlike {@code ParallelScatterZipCreator}, which gathers entries grouped
+ * by the thread that compressed them, each entry gets its own scatter file and entries are gathered in the order in
+ * which they were added, so the resulting archive has the same layout as one written sequentially.
+ *
+ * Each entry is compressed as decided by a {@link CompressionPolicy}, stored entries are gathered in the same way.
+ * Scatter files are deleted as soon as they are gathered; duplicates of shared entries are copied from the compressed
+ * data of the shared entry in the archive itself, so the archive must be seekable.
+ *
+ * The scatter space is bounded: before an entry is scheduled, the oldest entries are gathered until the expected
+ * sizes of the pending entries fit into the configured maximum. Entries of unknown size, or larger than the maximum,
+ * are not scattered at all: once all pending entries have been gathered, they are compressed on the calling thread,
+ * straight into the archive.
+ *
+ * @author delagarza
+ */
+public class ParallelZipEntryWriter implements ZipEntryWriter {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(ParallelZipEntryWriter.class);
+	// workers are not interruptible while writing, but they should finish soon enough
+	private final static long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private final ZipArchiveOutputStream zipOutputStream;
+	private final SeekableByteChannel archiveChannel;
+	private final CompressionPolicy compressionPolicy;
+	private final CompressionReport compressionReport;
+	private final long maxScatterBytes;
+	private final ExecutorService compressor;
+	// writes the entries that are not scattered
+	private final SequentialZipEntryWriter directWriter;
+	private final File scatterDirectory;
+	// entries are gathered in the order in which they were added
+	private final Deque<PendingEntry> pendingEntries = new ArrayDeque<PendingEntry>();
+	// entries whose content can be added again under other names
+	private final Map<String, SharedEntry> sharedEntries = new HashMap<String, SharedEntry>();
+	private long reservedScatterBytes;
+
+	/**
+	 * @param zipOutputStream
+	 *            the archive.
+	 * @param archiveChannel
+	 *            the channel into which the archive is written.
+	 * @param threads
+	 *            the number of threads used to compress entries.
+	 * @param maxScatterBytes
+	 *            the maximum amount of (uncompressed) content, in bytes, that can be pending to be gathered.
+	 * @param compressionPolicy
+	 *            decides how each entry is compressed.
+	 * @param compressionReport
+	 *            report to which each written entry is added.
+	 * @throws IOException
+	 *             if the scatter directory could not be created.
+	 */
+	public ParallelZipEntryWriter(final ZipArchiveOutputStream zipOutputStream, final SeekableByteChannel archiveChannel, final int threads,
+			final long maxScatterBytes, final CompressionPolicy compressionPolicy, final CompressionReport compressionReport) throws IOException {
+		Validate.notNull(zipOutputStream, "zipOutputStream cannot be null");
+		Validate.notNull(archiveChannel, "archiveChannel cannot be null");
+		Validate.notNull(compressionPolicy, "compressionPolicy cannot be null");
+		Validate.notNull(compressionReport, "compressionReport cannot be null");
+		Validate.isTrue(threads > 0, "threads must be positive", threads);
+		Validate.isTrue(maxScatterBytes > 0, "maxScatterBytes must be positive", maxScatterBytes);
+		this.zipOutputStream = zipOutputStream;
+		this.archiveChannel = archiveChannel;
+		this.compressionPolicy = compressionPolicy;
+		this.compressionReport = compressionReport;
+		this.maxScatterBytes = maxScatterBytes;
+		this.scatterDirectory = Files.createTempDirectory("knime2grid-scatter").toFile();
+		this.compressor = Executors.newFixedThreadPool(threads);
+		this.directWriter = new SequentialZipEntryWriter(zipOutputStream, archiveChannel, compressionPolicy, compressionReport);
+	}
+
+	@Override
+	public void writeDirectory(final String name) throws IOException {
+		pendingEntries.addLast(new PendingEntry(new ZipArchiveEntry(name), null, 0));
+		gatherCompleted();
+	}
+
+	@Override
+	public void writeEntry(final String name, final EntryContent content, final long expectedSize) throws IOException {
+		schedule(name, content, expectedSize, null);
+	}
+
+	@Override
+	public void writeSharedEntry(final String name, final EntryContent content, final long expectedSize) throws IOException {
+		Validate.isTrue(!sharedEntries.containsKey(name), "an entry with the same name has already been shared", name);
+		final SharedEntry sharedEntry = new SharedEntry();
+		sharedEntries.put(name, sharedEntry);
+		schedule(name, content, expectedSize, sharedEntry);
+	}
+
+	@Override
+	public void writeDuplicate(final String name, final String sharedName) throws IOException {
+		final SharedEntry sharedEntry = sharedEntries.get(sharedName);
+		Validate.isTrue(sharedEntry != null, "no entry with the given name has been shared", sharedName);
+		// the shared entry comes first, so by the time this one is gathered the shared entry is in the archive
+		final PendingEntry pendingEntry = new PendingEntry(new ZipArchiveEntry(name), null, 0);
+		pendingEntry.duplicateOf = sharedEntry;
+		pendingEntries.addLast(pendingEntry);
+		gatherCompleted();
+	}
+
+	// sharedEntry is null for entries that are not shared
+	private void schedule(final String name, final EntryContent content, final long expectedSize, final SharedEntry sharedEntry)
+			throws IOException {
+		if (expectedSize == UNKNOWN_SIZE || expectedSize > maxScatterBytes) {
+			// its scatter file could take any amount of space, so the entry is written after the pending ones
+			finish();
+			final ZipArchiveEntry entry = directWriter.write(name, content);
+			if (sharedEntry != null) {
+				sharedEntry.archivedEntry = ArchivedEntry.locate(entry, archiveChannel);
+			}
+			return;
+		}
+		// wait until there's enough scatter space
+		while (reservedScatterBytes + expectedSize > maxScatterBytes && !pendingEntries.isEmpty()) {
+			gatherFirst();
+		}
+		reservedScatterBytes += expectedSize;
+		final Future<ScatterFile> scatterFile = compressor.submit(new Callable<ScatterFile>() {
+			@Override
+			public ScatterFile call() throws Exception {
+				return scatter(content);
+			}
+		});
+		final PendingEntry pendingEntry = new PendingEntry(new ZipArchiveEntry(name), scatterFile, expectedSize);
+		pendingEntry.sharedEntry = sharedEntry;
+		pendingEntries.addLast(pendingEntry);
+		gatherCompleted();
+	}
+
+	@Override
+	public void copyEntry(final ZipFile archive, final ZipArchiveEntry entry) throws IOException {
+		// nothing to compress, but it has to wait for its turn
+		final PendingEntry pendingEntry = new PendingEntry(new ZipArchiveEntry(entry), null, 0);
+		pendingEntry.sourceArchive = archive;
+		pendingEntry.sourceEntry = entry;
+		pendingEntries.addLast(pendingEntry);
+		gatherCompleted();
+	}
+
+	@Override
+	public void finish() throws IOException {
+		while (!pendingEntries.isEmpty()) {
+			gatherFirst();
+		}
+	}
+
+	@Override
+	public void close() {
+		compressor.shutdownNow();
+		try {
+			if (!compressor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				LOGGER.warn("Some entries are still being compressed, their scatter files might not be removed from " + scatterDirectory);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pendingEntries.clear();
+		sharedEntries.clear();
+		FileUtils.deleteQuietly(scatterDirectory);
+	}
+
+	// gathers entries as long as they don't require waiting
+	private void gatherCompleted() throws IOException {
+		while (!pendingEntries.isEmpty() && pendingEntries.peekFirst().isDone()) {
+			gatherFirst();
+		}
+	}
+
+	private void gatherFirst() throws IOException {
+		final PendingEntry pendingEntry = pendingEntries.removeFirst();
+		reservedScatterBytes -= pendingEntry.reservation;
+		if (pendingEntry.sourceArchive != null) {
+			try (final InputStream inputStream = pendingEntry.sourceArchive.getRawInputStream(pendingEntry.sourceEntry)) {
+				zipOutputStream.addRawArchiveEntry(pendingEntry.entry, inputStream);
+			}
+			return;
+		}
+		if (pendingEntry.duplicateOf != null) {
+			pendingEntry.duplicateOf.archivedEntry.addTo(zipOutputStream, archiveChannel, pendingEntry.entry.getName());
+			return;
+		}
+		if (pendingEntry.scatterFile == null) {
+			zipOutputStream.putArchiveEntry(pendingEntry.entry);
+			zipOutputStream.closeArchiveEntry();
+			return;
+		}
+		final ScatterFile scatterFile = getScatterFile(pendingEntry.scatterFile);
+		try {
+			final ZipArchiveEntry entry = scatterFile.addTo(zipOutputStream, pendingEntry.entry.getName());
+			compressionReport.add(pendingEntry.entry.getName(), scatterFile.decision, scatterFile.size, scatterFile.getCompressedSize());
+			// duplicates are copied from the archive, not from the scatter file
+			if (pendingEntry.sharedEntry != null) {
+				pendingEntry.sharedEntry.archivedEntry = ArchivedEntry.locate(entry, archiveChannel);
+			}
+		} finally {
+			FileUtils.deleteQuietly(scatterFile.file);
+		}
+	}
+
+	private ScatterFile getScatterFile(final Future<ScatterFile> scatterFile) throws IOException {
+		try {
+			return scatterFile.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing entries", e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new ApplicationException("Unexpected error while compressing entries", cause);
+		}
+	}
+
+	private ScatterFile scatter(final EntryContent content) throws IOException {
+		return ScatterFile.scatter(content, File.createTempFile("entry", ".scatter", scatterDirectory), compressionPolicy);
+	}
+
+	private static class PendingEntry {
+		final ZipArchiveEntry entry;
+		// null for directories, duplicates and copied entries
+		final Future<ScatterFile> scatterFile;
+		final long reservation;
+		// the shared entry whose location is recorded once gathered, null if this entry is not shared
+		SharedEntry sharedEntry;
+		// the shared entry this entry is a duplicate of, if any
+		SharedEntry duplicateOf;
+		// archive from which the entry is copied, if any, and the entry itself; entries of a ZipFile can only be
+		// read using the instances returned by that ZipFile
+		ZipFile sourceArchive;
+		ZipArchiveEntry sourceEntry;
+
+		PendingEntry(final ZipArchiveEntry entry, final Future<ScatterFile> scatterFile, final long reservation) {
+			this.entry = entry;
+			this.scatterFile = scatterFile;
+			this.reservation = reservation;
+		}
+
+		boolean isDone() {
+			return scatterFile == null || scatterFile.isDone();
+		}
+	}
+
+	private static class SharedEntry {
+		// null until the entry is gathered
+		ArchivedEntry archivedEntry;
+	}
+}
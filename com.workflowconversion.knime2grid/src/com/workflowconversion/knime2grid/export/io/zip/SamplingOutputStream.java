@@ -0,0 +1,103 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Buffers the beginning of the content of an entry until the {@link CompressionPolicy} can decide how to compress it;
+ * from then on, content is passed through to the stream opened for the decision.
+ *
+ * @author delagarza
+ */
+class SamplingOutputStream extends OutputStream {
+
+	/**
+	 * Opens the stream into which the content will be written, once it's known how to compress it.
+	 */
+	interface Target {
+		/**
+		 * @param decision
+		 *            how the content will be compressed.
+		 * @return the stream; it will be closed by the {@link SamplingOutputStream}.
+		 * @throws IOException
+		 *             if the stream could not be opened.
+		 */
+		OutputStream open(final CompressionPolicy.Decision decision) throws IOException;
+	}
+
+	// most entries are small, the sample grows as needed
+	private static final int INITIAL_SAMPLE_SIZE = 64 * 1024;
+
+	private final CompressionPolicy policy;
+	private final String sourceName;
+	private final Target target;
+	private byte[] sample;
+	private int sampleLength;
+	private OutputStream outputStream;
+	private CompressionPolicy.Decision decision;
+	private boolean closed;
+
+	SamplingOutputStream(final CompressionPolicy policy, final String sourceName, final Target target) {
+		this.policy = policy;
+		this.sourceName = sourceName;
+		this.target = target;
+		this.sample = new byte[Math.min(INITIAL_SAMPLE_SIZE, policy.getSampleSize())];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (outputStream != null) {
+			outputStream.write(b, off, len);
+			return;
+		}
+		final int length = Math.min(len, policy.getSampleSize() - sampleLength);
+		if (sampleLength + length > sample.length) {
+			sample = Arrays.copyOf(sample, Math.min(Math.max(sample.length * 2, sampleLength + length), policy.getSampleSize()));
+		}
+		System.arraycopy(b, off, sample, sampleLength, length);
+		sampleLength += length;
+		if (sampleLength == policy.getSampleSize()) {
+			decide(false);
+			outputStream.write(b, off + length, len - length);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (outputStream != null) {
+			outputStream.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (outputStream == null) {
+			decide(true);
+		}
+		outputStream.close();
+	}
+
+	/**
+	 * @return the decision, or {@code null} if no decision has been made yet.
+	 */
+	CompressionPolicy.Decision getDecision() {
+		return decision;
+	}
+
+	private void decide(final boolean complete) throws IOException {
+		decision = policy.decide(sourceName, sample, sampleLength, complete);
+		outputStream = target.open(decision);
+		outputStream.write(sample, 0, sampleLength);
+		sample = null;
+	}
+}
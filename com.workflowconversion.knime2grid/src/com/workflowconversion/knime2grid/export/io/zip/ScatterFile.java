@@ -0,0 +1,135 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * The content of an entry, compressed as decided by a {@link CompressionPolicy} into a temporary file, from which it
+ * can be copied (as raw, already compressed data) into an archive any number of times.
+ *
+ * @author delagarza
+ */
+class ScatterFile {
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	final File file;
+	final CompressionPolicy.Decision decision;
+	final long crc;
+	final long size;
+
+	private ScatterFile(final File file, final CompressionPolicy.Decision decision, final long crc, final long size) {
+		this.file = file;
+		this.decision = decision;
+		this.crc = crc;
+		this.size = size;
+	}
+
+	/**
+	 * Compresses the given content; deflated content is raw (i.e., without zlib headers) deflate data, as required by
+	 * ZIP archives.
+	 *
+	 * @param content
+	 *            the content.
+	 * @param file
+	 *            the file into which the compressed content is written; it's deleted if anything goes wrong.
+	 * @param compressionPolicy
+	 *            decides how the content is compressed.
+	 * @return the compressed content.
+	 * @throws IOException
+	 *             if the content could not be read or written.
+	 */
+	static ScatterFile scatter(final EntryContent content, final File file, final CompressionPolicy compressionPolicy) throws IOException {
+		final ScatterTarget target = new ScatterTarget(file);
+		boolean scattered = false;
+		try {
+			final SamplingOutputStream samplingOutputStream = new SamplingOutputStream(compressionPolicy, content.getSourceName(), target);
+			try {
+				content.writeTo(samplingOutputStream);
+			} finally {
+				samplingOutputStream.close();
+			}
+			scattered = true;
+			return new ScatterFile(file, samplingOutputStream.getDecision(), target.crc.getValue(), target.countingOutputStream.getByteCount());
+		} finally {
+			target.end();
+			if (!scattered) {
+				FileUtils.deleteQuietly(file);
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the compressed content, in bytes.
+	 */
+	long getCompressedSize() {
+		return file.length();
+	}
+
+	/**
+	 * Adds an entry with this content to an archive.
+	 *
+	 * @param zipOutputStream
+	 *            the archive.
+	 * @param name
+	 *            the name of the entry.
+	 * @return the entry that was added.
+	 * @throws IOException
+	 *             if the entry could not be written.
+	 */
+	ZipArchiveEntry addTo(final ZipArchiveOutputStream zipOutputStream, final String name) throws IOException {
+		final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+		entry.setMethod(decision.getMethod() == CompressionMethod.Stored ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED);
+		entry.setCrc(crc);
+		entry.setSize(size);
+		entry.setCompressedSize(getCompressedSize());
+		try (final InputStream inputStream = new FileInputStream(file)) {
+			zipOutputStream.addRawArchiveEntry(entry, inputStream);
+		}
+		return entry;
+	}
+
+	// writes the content of an entry into its scatter file, the checksum and size are computed on the uncompressed data
+	private static class ScatterTarget implements SamplingOutputStream.Target {
+		final File file;
+		final CRC32 crc = new CRC32();
+		CountingOutputStream countingOutputStream;
+		// null for stored entries
+		Deflater deflater;
+
+		ScatterTarget(final File file) {
+			this.file = file;
+		}
+
+		@Override
+		public OutputStream open(final CompressionPolicy.Decision decision) throws IOException {
+			OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+			if (decision.getMethod() != CompressionMethod.Stored) {
+				deflater = new Deflater(decision.getMethod().getLevel(), true);
+				outputStream = new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE);
+			}
+			countingOutputStream = new CountingOutputStream(new CheckedOutputStream(outputStream, crc));
+			return countingOutputStream;
+		}
+
+		void end() {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.lang.Validate;
+
+/**
+ * {@link ZipEntryWriter} that compresses the content of each entry on the calling thread, straight into the archive.
+ * 
+ * The archive must be seekable (i.e., created from a file), since the sizes of stored entries are not known in
+ * advance. This also lets duplicates of shared entries be copied from the compressed data of the shared entry in the
+ * archive itself, so no temporary files are needed and no content is ever compressed twice.
+ * 
+ * @author delagarza
+ */
+public class SequentialZipEntryWriter implements ZipEntryWriter {
+
+	private final ZipArchiveOutputStream zipOutputStream;
+	private final SeekableByteChannel archiveChannel;
+	private final CompressionPolicy compressionPolicy;
+	private final CompressionReport compressionReport;
+	// where the compressed data of each shared entry was written
+	private final Map<String, ArchivedEntry> sharedEntries = new HashMap<String, ArchivedEntry>();
+
+	/**
+	 * @param zipOutputStream
+	 *            the archive.
+	 * @param archiveChannel
+	 *            the channel into which the archive is written.
+	 * @param compressionPolicy
+	 *            decides how each entry is compressed.
+	 * @param compressionReport
+	 *            report to which each written entry is added.
+	 */
+	public SequentialZipEntryWriter(final ZipArchiveOutputStream zipOutputStream, final SeekableByteChannel archiveChannel,
+			final CompressionPolicy compressionPolicy, final CompressionReport compressionReport) {
+		Validate.notNull(zipOutputStream, "zipOutputStream cannot be null");
+		Validate.notNull(archiveChannel, "archiveChannel cannot be null");
+		Validate.notNull(compressionPolicy, "compressionPolicy cannot be null");
+		Validate.notNull(compressionReport, "compressionReport cannot be null");
+		this.zipOutputStream = zipOutputStream;
+		this.archiveChannel = archiveChannel;
+		this.compressionPolicy = compressionPolicy;
+		this.compressionReport = compressionReport;
+	}
+
+	@Override
+	public void writeDirectory(final String name) throws IOException {
+		zipOutputStream.putArchiveEntry(new ZipArchiveEntry(name));
+		zipOutputStream.closeArchiveEntry();
+	}
+
+	@Override
+	public void writeEntry(final String name, final EntryContent content, final long expectedSize) throws IOException {
+		write(name, content);
+	}
+
+	// returns the entry once it has been completely written; also used by ParallelZipEntryWriter for entries that
+	// are too large to be compressed ahead
+	ZipArchiveEntry write(final String name, final EntryContent content) throws IOException {
+		final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+		// the entry is started once the policy has seen enough of the content
+		final SamplingOutputStream samplingOutputStream = new SamplingOutputStream(compressionPolicy, content.getSourceName(),
+				new SamplingOutputStream.Target() {
+					@Override
+					public OutputStream open(final CompressionPolicy.Decision decision) throws IOException {
+						if (decision.getMethod() == CompressionMethod.Stored) {
+							entry.setMethod(ZipArchiveEntry.STORED);
+						} else {
+							entry.setMethod(ZipArchiveEntry.DEFLATED);
+							zipOutputStream.setLevel(decision.getMethod().getLevel());
+						}
+						zipOutputStream.putArchiveEntry(entry);
+						return new CloseShieldOutputStream(zipOutputStream);
+					}
+				});
+		content.writeTo(samplingOutputStream);
+		samplingOutputStream.close();
+		zipOutputStream.closeArchiveEntry();
+		compressionReport.add(name, samplingOutputStream.getDecision(), entry.getSize(), entry.getCompressedSize());
+		return entry;
+	}
+
+	@Override
+	public void writeSharedEntry(final String name, final EntryContent content, final long expectedSize) throws IOException {
+		Validate.isTrue(!sharedEntries.containsKey(name), "an entry with the same name has already been shared", name);
+		final ZipArchiveEntry entry = write(name, content);
+		sharedEntries.put(name, ArchivedEntry.locate(entry, archiveChannel));
+	}
+
+	@Override
+	public void writeDuplicate(final String name, final String sharedName) throws IOException {
+		final ArchivedEntry sharedEntry = sharedEntries.get(sharedName);
+		Validate.isTrue(sharedEntry != null, "no entry with the given name has been shared", sharedName);
+		sharedEntry.addTo(zipOutputStream, archiveChannel, name);
+	}
+
+	@Override
+	public void copyEntry(final ZipFile archive, final ZipArchiveEntry entry) throws IOException {
+		try (final InputStream inputStream = archive.getRawInputStream(entry)) {
+			zipOutputStream.addRawArchiveEntry(new ZipArchiveEntry(entry), inputStream);
+		}
+	}
+
+	@Override
+	public void finish() {
+		// nop, entries are written as soon as they are added
+	}
+
+	@Override
+	public void close() {
+		sharedEntries.clear();
+	}
+}
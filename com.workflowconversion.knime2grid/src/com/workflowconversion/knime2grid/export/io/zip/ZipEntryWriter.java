@@ -0,0 +1,104 @@
+package com.workflowconversion.knime2grid.export.io.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * Adds entries to a ZIP archive. Entries end up in the archive in the same order in which they were added, regardless
+ * of how (or on which threads) their content is compressed.
+ * 
+ * Instances of this class are not thread-safe.
+ * 
+ * @author delagarza
+ */
+public interface ZipEntryWriter extends Closeable {
+
+	/**
+	 * Value used for entries whose size is not known in advance.
+	 */
+	long UNKNOWN_SIZE = -1;
+
+	/**
+	 * Adds a directory entry.
+	 * 
+	 * @param name
+	 *            the name of the entry, ending with {@code /}.
+	 * @throws IOException
+	 *             if the entry could not be written.
+	 */
+	void writeDirectory(final String name) throws IOException;
+
+	/**
+	 * Adds an entry. The content might be written into the archive only after this method has returned.
+	 * 
+	 * @param name
+	 *            the name of the entry.
+	 * @param content
+	 *            the content of the entry.
+	 * @param expectedSize
+	 *            the expected size, in bytes, of the uncompressed content, or {@link #UNKNOWN_SIZE}.
+	 * @throws IOException
+	 *             if the entry could not be written.
+	 */
+	void writeEntry(final String name, final EntryContent content, final long expectedSize) throws IOException;
+
+	/**
+	 * Adds an entry whose content will be added again under other names, using {@link #writeDuplicate(String, String)}.
+	 * Duplicates are copied from the compressed data of this entry in the archive, so the content is written only once.
+	 * 
+	 * @param name
+	 *            the name of the entry.
+	 * @param content
+	 *            the content of the entry.
+	 * @param expectedSize
+	 *            the expected size, in bytes, of the uncompressed content, or {@link #UNKNOWN_SIZE}.
+	 * @throws IOException
+	 *             if the entry could not be written.
+	 */
+	void writeSharedEntry(final String name, final EntryContent content, final long expectedSize) throws IOException;
+
+	/**
+	 * Adds an entry with the same content as an entry previously added using
+	 * {@link #writeSharedEntry(String, EntryContent, long)}. The compressed content of that entry is copied, i.e., it's
+	 * not compressed again.
+	 * 
+	 * @param name
+	 *            the name of the entry.
+	 * @param sharedName
+	 *            the name of the shared entry.
+	 * @throws IOException
+	 *             if the entry could not be written.
+	 */
+	void writeDuplicate(final String name, final String sharedName) throws IOException;
+
+	/**
+	 * Adds an entry of another archive as it is, i.e., its compressed data is copied without being decompressed and
+	 * compressed again.
+	 * 
+	 * @param archive
+	 *            the other archive; it must stay open until this writer has finished.
+	 * @param entry
+	 *            an entry of the other archive.
+	 * @throws IOException
+	 *             if the entry could not be copied.
+	 */
+	void copyEntry(final ZipFile archive, final ZipArchiveEntry entry) throws IOException;
+
+	/**
+	 * Writes all pending entries into the archive. The archive itself is not closed.
+	 * 
+	 * @throws IOException
+	 *             if any entry could not be written.
+	 */
+	void finish() throws IOException;
+
+	/**
+	 * Releases the resources of this writer; entries that have not been written yet are discarded. The archive itself
+	 * is not closed.
+	 */
+	@Override
+	void close() throws IOException;
+}
@@ -10,6 +10,15 @@ import com.workflowconversion.knime2grid.model.Job;
 /**
  * Simple interface that declares the methods to convert from a single {@link NativeNodeContainer} to a {@link Job}.
  * 
+ * <p>
+ * <b>Thread-safety:</b> a single instance of each converter is shared by all conversions and, if the conversion of
+ * nodes is done in parallel, {@link #convert(NativeNodeContainer, WorkflowManager, File)} will be invoked concurrently
+ * for different nodes of the same {@link WorkflowManager}. Implementations must therefore not keep per-conversion state
+ * in fields; any state shared across conversions (e.g., static helper workflows) must be guarded by the implementation
+ * itself. The passed {@code workingDirectory} is never shared between two concurrent conversions, and the returned
+ * {@link Job} must be a new instance that is not referenced by other conversions.
+ * </p>
+ * 
  * @author delagarza
  * 
  */
@@ -34,6 +43,8 @@ public interface NodeContainerConverter {
 	 * @param workingDirectory
 	 *            A folder in which logs, debugging information and the like could be placed.
 	 * @return The converted {@link Job}.
+	 * @throws Exception
+	 *             if the node could not be converted.
 	 */
 	public Job convert(final NativeNodeContainer nativeNodeContainer, final WorkflowManager workflowManager,
 			final File workingDirectory) throws Exception;
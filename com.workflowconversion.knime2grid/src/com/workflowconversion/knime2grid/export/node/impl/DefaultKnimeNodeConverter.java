@@ -1,11 +1,15 @@
 package com.workflowconversion.knime2grid.export.node.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.knime.base.node.io.csvreader.CSVReaderNodeFactory;
 import org.knime.base.node.io.csvwriter.CSVWriterNodeFactory;
 import org.knime.base.node.io.portobject.PortObjectReaderNodeFactory;
@@ -36,7 +40,6 @@ import org.knime.core.node.workflow.WorkflowCreationHelper;
 import org.knime.core.node.workflow.WorkflowEvent;
 import org.knime.core.node.workflow.WorkflowListener;
 import org.knime.core.node.workflow.WorkflowManager;
-import org.knime.core.util.FileUtil;
 import org.knime.core.util.VMFileLocker;
 
 import com.genericworkflownodes.knime.commandline.CommandLineElement;
@@ -48,6 +51,13 @@ import com.genericworkflownodes.knime.nodes.io.importer.MimeFileImporterNodeFact
 import com.genericworkflownodes.knime.nodes.io.outputfile.OutputFileNodeFactory;
 import com.genericworkflownodes.knime.parameter.FileParameter;
 import com.genericworkflownodes.knime.parameter.StringParameter;
+import com.workflowconversion.knime2grid.export.cache.ConversionCache;
+import com.workflowconversion.knime2grid.export.io.zip.BufferedSeekableByteChannel;
+import com.workflowconversion.knime2grid.export.io.zip.CompressionPolicy;
+import com.workflowconversion.knime2grid.export.io.zip.CompressionReport;
+import com.workflowconversion.knime2grid.export.io.zip.FileEntryContent;
+import com.workflowconversion.knime2grid.export.io.zip.SequentialZipEntryWriter;
+import com.workflowconversion.knime2grid.export.io.zip.ZipEntryWriter;
 import com.workflowconversion.knime2grid.export.node.NodeContainerConverter;
 import com.workflowconversion.knime2grid.export.workflow.ConverterUtils;
 import com.workflowconversion.knime2grid.model.ConnectionType;
@@ -69,8 +79,17 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 	private static final String FLOW_VARIABLE_PREFIX_LEFT = "-workflow.variable=";
 	private static final String FLOW_VARIABLE_SUFFIX = ",String";
 
+	// bump this version whenever the structure of the generated mini workflows changes, so cached ones are not reused
+	private static final String CACHE_NAMESPACE = DefaultKnimeNodeConverter.class.getName() + ":1";
+	private static final String MINI_WORKFLOW_ARTIFACT_NAME = "miniworkflow.zip";
+
 	private final static NodeLogger LOGGER = NodeLogger.getLogger(DefaultKnimeNodeConverter.class);
 	private final static WorkflowManager WORKFLOW_MANAGER = WorkflowManager.ROOT.createAndAddProject("KNIME_WF_converter_tmp_wf", new WorkflowCreationHelper());
+	// nodes can be converted in parallel, but all mini workflows are projects of the same, shared, WORKFLOW_MANAGER;
+	// adding projects to it and pasting nodes into them is done while holding this lock. Building, saving and zipping
+	// each mini workflow can safely run concurrently, since every node gets its own mini workflow and directory
+	private final static Object WORKFLOW_MANAGER_LOCK = new Object();
+	private final static CompressionPolicy COMPRESSION_POLICY = new CompressionPolicy();
 
 	static {
 		WORKFLOW_MANAGER.addListener(new WorkflowListener() {
@@ -93,6 +112,23 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 		});
 	}
 
+	private final ConversionCache conversionCache;
+
+	/**
+	 * Creates a converter that always builds mini workflows from scratch.
+	 */
+	public DefaultKnimeNodeConverter() {
+		this(null);
+	}
+
+	/**
+	 * @param conversionCache
+	 *            cache in which zipped mini workflows are stored and looked up, or {@code null} to disable caching.
+	 */
+	public DefaultKnimeNodeConverter(final ConversionCache conversionCache) {
+		this.conversionCache = conversionCache;
+	}
+
 	@Override
 	public boolean canHandle(final NativeNodeContainer nativeNodeContainer) {
 		// as a default handler, this one must handle all possible nodes
@@ -108,17 +144,9 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 		// create a temporary folder on which we will create all of the mini sub-wfs
 		final Path sandboxDir = workingDirectory.toPath();
 
-		final File miniWorkflowDir = Files.createTempDirectory(sandboxDir, "miniwf").toFile();
-		final WorkflowCreationHelper creationHelper = new WorkflowCreationHelper();
-		creationHelper.setWorkflowContext(new WorkflowContext.Factory(miniWorkflowDir).createContext());
-		final WorkflowManager miniWorkflowManager = WORKFLOW_MANAGER.createAndAddProject("Mini Workflow for " + nativeNodeContainer.getNameWithID(),
-				creationHelper);
-		// copy and paste this node into the mini workflow
-		final WorkflowCopyContent.Builder contentBuilder = WorkflowCopyContent.builder();
-		contentBuilder.setNodeIDs(nativeNodeContainer.getID());
-
-		final NodeID miniWorkflowNodeId = miniWorkflowManager.copyFromAndPasteHere(workflowManager, contentBuilder.build()).getNodeIDs()[0];
 		int currentInput = 0, currentOutput = 0;
+		// nodes providing/extracting data to/from the converted node in the mini workflow
+		final Collection<DataNode> dataNodes = new LinkedList<DataNode>();
 
 		final Collection<CommandLineElement> commandLineElements = new LinkedList<CommandLineElement>();
 		// see https://www.knime.com/faq#q12
@@ -198,14 +226,9 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 			job.addInput(input);
 			// add the command line element for this file
 			commandLineElements.add(buildFilePathAsFlowVariable(inputFileKey + extension));
-			final NodeID miniWorkflowDataNodeId = miniWorkflowManager.addNode(nodeFactory);
 
 			addFlowVariables(nodeSettings, inputSettings);
-
-			// save the settings in the data node
-			miniWorkflowManager.loadNodeSettings(miniWorkflowDataNodeId, nodeSettings);
-			// connect them
-			miniWorkflowManager.addConnection(miniWorkflowDataNodeId, 1, miniWorkflowNodeId, destPort);
+			dataNodes.add(new DataNode(nodeFactory, portType, nodeSettings, destPort, true));
 
 			currentInput++;
 		}
@@ -247,14 +270,10 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 					outputSettings.add(new VariableSetting("filename", outputFileKey));
 				}
 				commandLineElements.add(buildFilePathAsFlowVariable(outputFileKey));
-				final NodeID miniWorkflowDataNodeId = miniWorkflowManager.addNode(nodeFactory);
 
 				addFlowVariables(nodeSettings, outputSettings);
+				dataNodes.add(new DataNode(nodeFactory, portType, nodeSettings, sourcePort, false));
 
-				// save the settings in the data node
-				miniWorkflowManager.loadNodeSettings(miniWorkflowDataNodeId, nodeSettings);
-				// connect them
-				miniWorkflowManager.addConnection(miniWorkflowNodeId, sourcePort, miniWorkflowDataNodeId, 1);
 				// add output to the job
 				output.setName(outputFileKey);
 				output.setOriginalPortNr(sourcePort);
@@ -263,21 +282,17 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 			}
 		}
 
-		// we went through all of the inputs/outpus and added needed nodes to
-		// provide/extract data, we can now save the mini workflow
-		while (VMFileLocker.isLockedForVM(miniWorkflowDir)) {
-			VMFileLocker.unlockForVM(miniWorkflowDir);
-		}
-		miniWorkflowManager.save(miniWorkflowDir, new ExecutionMonitor(), true);
-		// make sure there is no file lock for this folder
-		while (VMFileLocker.isLockedForVM(miniWorkflowDir)) {
-			VMFileLocker.unlockForVM(miniWorkflowDir);
-		}
-
-		// compress the workflow folder into a zip file
+		// we went through all of the inputs/outpus and know which nodes are needed to provide/extract data,
+		// the mini workflow only needs to be built if it's not already in the cache
 		final File miniWorkflowArchive = Files
 				.createTempFile(sandboxDir, "knimejob_" + ConverterUtils.fixNodeIdForFileSystem(nativeNodeContainer.getID().toString()), ".zip").toFile();
-		FileUtil.zipDir(miniWorkflowArchive, miniWorkflowDir, 9);
+		final String cacheKey = conversionCache == null ? null : createCacheKey(nativeNodeContainer, workflowManager, dataNodes);
+		if (cacheKey == null || !conversionCache.get(cacheKey, MINI_WORKFLOW_ARTIFACT_NAME, miniWorkflowArchive)) {
+			createMiniWorkflowArchive(nativeNodeContainer, workflowManager, dataNodes, sandboxDir, miniWorkflowArchive);
+			if (cacheKey != null) {
+				conversionCache.put(cacheKey, MINI_WORKFLOW_ARTIFACT_NAME, miniWorkflowArchive);
+			}
+		}
 		commandLineElements.add(new CommandLineKNIMEWorkflowFile(miniWorkflowArchive));
 		// add the zipped workflow as input
 		final Input input = new Input();
@@ -290,6 +305,109 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 		return job;
 	}
 
+	// copies the node into a new mini workflow, adds and connects the data nodes, saves and zips the mini workflow
+	private void createMiniWorkflowArchive(final NativeNodeContainer nativeNodeContainer, final WorkflowManager workflowManager,
+			final Collection<DataNode> dataNodes, final Path sandboxDir, final File miniWorkflowArchive) throws Exception {
+		final File miniWorkflowDir = Files.createTempDirectory(sandboxDir, "miniwf").toFile();
+		final WorkflowCreationHelper creationHelper = new WorkflowCreationHelper();
+		creationHelper.setWorkflowContext(new WorkflowContext.Factory(miniWorkflowDir).createContext());
+		// copy and paste this node into the mini workflow
+		final WorkflowCopyContent.Builder contentBuilder = WorkflowCopyContent.builder();
+		contentBuilder.setNodeIDs(nativeNodeContainer.getID());
+
+		final WorkflowManager miniWorkflowManager;
+		final NodeID miniWorkflowNodeId;
+		synchronized (WORKFLOW_MANAGER_LOCK) {
+			miniWorkflowManager = WORKFLOW_MANAGER.createAndAddProject("Mini Workflow for " + nativeNodeContainer.getNameWithID(), creationHelper);
+			miniWorkflowNodeId = miniWorkflowManager.copyFromAndPasteHere(workflowManager, contentBuilder.build()).getNodeIDs()[0];
+		}
+
+		for (final DataNode dataNode : dataNodes) {
+			final NodeID miniWorkflowDataNodeId = miniWorkflowManager.addNode(dataNode.nodeFactory);
+			// save the settings in the data node
+			miniWorkflowManager.loadNodeSettings(miniWorkflowDataNodeId, dataNode.nodeSettings);
+			// connect them
+			if (dataNode.providesInput) {
+				miniWorkflowManager.addConnection(miniWorkflowDataNodeId, 1, miniWorkflowNodeId, dataNode.portNr);
+			} else {
+				miniWorkflowManager.addConnection(miniWorkflowNodeId, dataNode.portNr, miniWorkflowDataNodeId, 1);
+			}
+		}
+
+		// we can now save the mini workflow
+		while (VMFileLocker.isLockedForVM(miniWorkflowDir)) {
+			VMFileLocker.unlockForVM(miniWorkflowDir);
+		}
+		miniWorkflowManager.save(miniWorkflowDir, new ExecutionMonitor(), true);
+		// make sure there is no file lock for this folder
+		while (VMFileLocker.isLockedForVM(miniWorkflowDir)) {
+			VMFileLocker.unlockForVM(miniWorkflowDir);
+		}
+
+		// compress the workflow folder into a zip file
+		zipMiniWorkflow(miniWorkflowDir, miniWorkflowArchive);
+	}
+
+	// same layout as FileUtil.zipDir (i.e., the folder itself is the only top-level entry), but each file is compressed
+	// as the policy decides, instead of deflating everything at the maximum level
+	private void zipMiniWorkflow(final File miniWorkflowDir, final File miniWorkflowArchive) throws IOException {
+		final CompressionReport compressionReport = new CompressionReport();
+		final ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(BufferedSeekableByteChannel.open(miniWorkflowArchive));
+		try {
+			try (final ZipEntryWriter entryWriter = new SequentialZipEntryWriter(zipOutputStream, COMPRESSION_POLICY, compressionReport)) {
+				writeDirectory(entryWriter, miniWorkflowDir, miniWorkflowDir.getName() + '/');
+				entryWriter.finish();
+			}
+		} finally {
+			zipOutputStream.close();
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Compressed mini workflow " + miniWorkflowArchive + ": " + compressionReport.getSummary());
+		}
+	}
+
+	private void writeDirectory(final ZipEntryWriter entryWriter, final File directory, final String entryName) throws IOException {
+		entryWriter.writeDirectory(entryName);
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Could not list the contents of " + directory);
+		}
+		// keep archives reproducible
+		Arrays.sort(files);
+		for (final File file : files) {
+			if (file.isDirectory()) {
+				writeDirectory(entryWriter, file, entryName + file.getName() + '/');
+			} else {
+				entryWriter.writeEntry(entryName + file.getName(), new FileEntryContent(file), file.length());
+			}
+		}
+	}
+
+	// the mini workflow depends on the converted node (factory + settings) and on the data nodes attached to it
+	private String createCacheKey(final NativeNodeContainer nativeNodeContainer, final WorkflowManager workflowManager,
+			final Collection<DataNode> dataNodes) throws InvalidSettingsException, IOException {
+		final ConversionCache.KeyBuilder keyBuilder = new ConversionCache.KeyBuilder(CACHE_NAMESPACE);
+		final Class<?> factoryClass = nativeNodeContainer.getNode().getFactory().getClass();
+		keyBuilder.add(factoryClass.getName()).add(ConverterUtils.getBundleVersion(factoryClass));
+		final NodeSettings nodeSettings = ConverterUtils.createEmptyNodeSettings();
+		workflowManager.saveNodeSettings(nativeNodeContainer.getID(), nodeSettings);
+		keyBuilder.add(toBytes(nodeSettings));
+		for (final DataNode dataNode : dataNodes) {
+			keyBuilder.add(dataNode.providesInput ? "in" : "out");
+			keyBuilder.add(Integer.toString(dataNode.portNr));
+			keyBuilder.add(dataNode.nodeFactory.getClass().getName());
+			keyBuilder.add(dataNode.portType.getPortObjectClass().getName());
+			keyBuilder.add(toBytes(dataNode.nodeSettings));
+		}
+		return keyBuilder.build();
+	}
+
+	private byte[] toBytes(final NodeSettings nodeSettings) throws IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		nodeSettings.saveToXML(outputStream);
+		return outputStream.toByteArray();
+	}
+
 	private void addFlowVariables(final NodeSettings nodeSettings, final Collection<VariableSetting> inputSettings) throws InvalidSettingsException {
 		for (final VariableSetting inputSetting : inputSettings) {
 			nodeSettings.getNodeSettings(Node.CFG_MODEL).addString(inputSetting.getSettingName(), inputSetting.getTempVariableValue());
@@ -324,4 +442,23 @@ public class DefaultKnimeNodeConverter implements NodeContainerConverter {
 		return ConverterUtils.nodeModelMatchesClass(workflowManager, destNodeId, ConverterUtils.CSVWRITER_CLASS_NAME);
 	}
 
+	// a node that provides data to, or extracts data from, the converted node in the mini workflow
+	private static class DataNode {
+		final NodeFactory<? extends NodeModel> nodeFactory;
+		final PortType portType;
+		final NodeSettings nodeSettings;
+		// port of the converted node this data node is connected to
+		final int portNr;
+		final boolean providesInput;
+
+		DataNode(final NodeFactory<? extends NodeModel> nodeFactory, final PortType portType, final NodeSettings nodeSettings, final int portNr,
+				final boolean providesInput) {
+			this.nodeFactory = nodeFactory;
+			this.portType = portType;
+			this.nodeSettings = nodeSettings;
+			this.portNr = portNr;
+			this.providesInput = providesInput;
+		}
+	}
+
 }
@@ -2,7 +2,9 @@ package com.workflowconversion.knime2grid.export.node.impl;
 
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
@@ -17,11 +19,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.knime.core.data.uri.IURIPortObject;
 import org.knime.core.data.uri.URIContent;
 import org.knime.core.data.uri.URIPortObjectSpec;
+import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.Node;
 import org.knime.core.node.NodeLogger;
 import org.knime.core.node.workflow.ConnectionContainer;
@@ -44,6 +48,8 @@ import com.genericworkflownodes.knime.parameter.IFileParameter;
 import com.genericworkflownodes.knime.parameter.Parameter;
 import com.genericworkflownodes.knime.port.Port;
 import com.workflowconversion.knime2grid.exception.ApplicationException;
+import com.workflowconversion.knime2grid.export.cache.ContentStore;
+import com.workflowconversion.knime2grid.export.cache.ConversionCache;
 import com.workflowconversion.knime2grid.export.node.NodeContainerConverter;
 import com.workflowconversion.knime2grid.export.workflow.ConverterUtils;
 import com.workflowconversion.knime2grid.model.ConnectionType;
@@ -60,6 +66,30 @@ import com.workflowconversion.knime2grid.model.Output;
 public class GenericKnimeNodeConverter implements NodeContainerConverter {
 
 	private static final NodeLogger LOGGER = NodeLogger.getLogger(GenericKnimeNodeConverter.class);
+	// bump this version whenever the way CTDs are fixed changes, so cached ones are not reused
+	private static final String CACHE_NAMESPACE = GenericKnimeNodeConverter.class.getName() + ":1";
+	private static final String CTD_ARTIFACT_NAME = "node.ctd";
+
+	private final ConversionCache conversionCache;
+	private final ContentStore contentStore;
+
+	/**
+	 * Creates a converter that always generates CTDs from scratch.
+	 */
+	public GenericKnimeNodeConverter() {
+		this(null, null);
+	}
+
+	/**
+	 * @param conversionCache
+	 *            cache in which generated CTDs are stored and looked up, or {@code null} to disable caching.
+	 * @param contentStore
+	 *            store in which identical CTDs are kept only once, or {@code null} to use a temporary file per CTD.
+	 */
+	public GenericKnimeNodeConverter(final ConversionCache conversionCache, final ContentStore contentStore) {
+		this.conversionCache = conversionCache;
+		this.contentStore = contentStore;
+	}
 
 	@Override
 	public boolean canHandle(final NativeNodeContainer nativeNodeContainer) {
@@ -184,17 +214,31 @@ public class GenericKnimeNodeConverter implements NodeContainerConverter {
 	// execute the associated binary, but what we need here is to add a new input containing a CTD
 	private void addCTDInputPort(final WorkflowManager workflowManager, final CommandLineCTDFile element, final Job job,
 			final INodeConfiguration nodeConfiguration, final NativeNodeContainer nativeNodeContainer,
-			final Map<String, com.workflowconversion.knime2grid.model.Port> gknPortToConvertedPort) throws IOException, InvalidCTDFileException {
+			final Map<String, com.workflowconversion.knime2grid.model.Port> gknPortToConvertedPort)
+			throws IOException, InvalidCTDFileException, InvalidSettingsException {
 		final Input ctdInput = new Input();
 		ctdInput.setName(CommandLineCTDFile.CTD_FILE_KEY);
 		ctdInput.setConnectionType(ConnectionType.UserProvided);
 		// write out the ctd into a file and fix the inputs and outputs
 		// we should not modify the node configuration because this will affect future runs of the workflow!
-		final INodeConfiguration clonedNodeConfiguration = cloneNodeConfiguration(nodeConfiguration);
-		fixFilenamesInConfiguration(workflowManager, clonedNodeConfiguration, nativeNodeContainer);
+		final File ctdFile = File.createTempFile("ctdfile", ".ctd");
+		final String cacheKey = conversionCache == null ? null : createCacheKey(workflowManager, nodeConfiguration, nativeNodeContainer);
+		final INodeConfiguration clonedNodeConfiguration;
+		if (cacheKey != null && conversionCache.get(cacheKey, CTD_ARTIFACT_NAME, ctdFile)) {
+			// the cached CTD already contains the fixed filenames
+			clonedNodeConfiguration = readConfiguration(ctdFile);
+		} else {
+			clonedNodeConfiguration = cloneNodeConfiguration(nodeConfiguration);
+			fixFilenamesInConfiguration(workflowManager, clonedNodeConfiguration, nativeNodeContainer);
+			dumpConfiguration(clonedNodeConfiguration, ctdFile);
+			if (cacheKey != null) {
+				conversionCache.put(cacheKey, CTD_ARTIFACT_NAME, ctdFile);
+			}
+		}
+		// identical CTDs (e.g., same tool, same parameters) end up being the same file
+		final File finalCtdFile = contentStore == null ? ctdFile : storeCtd(ctdFile);
 		// set the fixed CTD as data for this input
-		final FileParameter ctdFileParameter = new FileParameter(CommandLineCTDFile.CTD_FILE_KEY,
-				dumpConfiguration(clonedNodeConfiguration).getCanonicalPath());
+		final FileParameter ctdFileParameter = new FileParameter(CommandLineCTDFile.CTD_FILE_KEY, finalCtdFile.getCanonicalPath());
 		ctdInput.setAssociatedFileParameter(ctdFileParameter);
 		job.addInput(ctdInput);
 		// fix the command line element
@@ -214,12 +258,75 @@ public class GenericKnimeNodeConverter implements NodeContainerConverter {
 		}
 	}
 
-	private File dumpConfiguration(final INodeConfiguration nodeConfiguration) throws IOException {
-		final File ctdFile = File.createTempFile("ctdfile", ".ctd");
+	// the job must not reference the stored file itself, since it could be evicted before the workflow is exported
+	private File storeCtd(final File ctdFile) throws IOException {
+		final File stagedCtdFile = File.createTempFile("ctdfile", ".ctd");
+		contentStore.putAndStage(ctdFile, stagedCtdFile);
+		FileUtils.deleteQuietly(ctdFile);
+		return stagedCtdFile;
+	}
+
+	private void dumpConfiguration(final INodeConfiguration nodeConfiguration, final File ctdFile) throws IOException {
 		final CTDConfigurationWriter ctdWriter = new CTDConfigurationWriter(ctdFile);
 		ctdWriter.setIgnoreUnusedParameters(false);
 		ctdWriter.write(nodeConfiguration);
-		return ctdFile;
+	}
+
+	private INodeConfiguration readConfiguration(final File ctdFile) throws InvalidCTDFileException, IOException {
+		final CTDConfigurationReader reader = new CTDConfigurationReader();
+		try (final InputStream inputStream = new FileInputStream(ctdFile)) {
+			return reader.read(inputStream);
+		}
+	}
+
+	// the fixed CTD depends on the node (factory + settings) and on the names and extensions of the connected ports
+	private String createCacheKey(final WorkflowManager workflowManager, final INodeConfiguration nodeConfiguration,
+			final NativeNodeContainer nativeNodeContainer) throws InvalidSettingsException, IOException {
+		final ConversionCache.KeyBuilder keyBuilder = new ConversionCache.KeyBuilder(CACHE_NAMESPACE);
+		final Class<?> factoryClass = nativeNodeContainer.getNode().getFactory().getClass();
+		// the CTD is generated from the node's configuration, which is shipped with the plug-in of the node
+		keyBuilder.add(factoryClass.getName()).add(ConverterUtils.getBundleVersion(factoryClass));
+		final ByteArrayOutputStream settingsStream = new ByteArrayOutputStream();
+		ConverterUtils.getModelSettings(nativeNodeContainer, workflowManager).saveToXML(settingsStream);
+		keyBuilder.add(settingsStream.toByteArray());
+
+		final Collection<PortWrapper> connectedIncomingPorts = new LinkedList<PortWrapper>();
+		final Collection<PortWrapper> connectedOutgoingPorts = new LinkedList<PortWrapper>();
+		extractConnectedPorts(workflowManager, nativeNodeContainer, nodeConfiguration, connectedIncomingPorts, connectedOutgoingPorts);
+		for (final PortWrapper portWrapper : connectedIncomingPorts) {
+			final ConnectionContainer connection = workflowManager.getIncomingConnectionFor(nativeNodeContainer.getID(),
+					ConverterUtils.convertToKnimePort(portWrapper.portNr));
+			final Node sourceNode = ((NativeNodeContainer) workflowManager.getNodeContainer(connection.getSource())).getNode();
+			addPortToCacheKey(keyBuilder, "in", portWrapper, nodeConfiguration, sourceNode, connection.getSourcePort());
+		}
+		for (final PortWrapper portWrapper : connectedOutgoingPorts) {
+			addPortToCacheKey(keyBuilder, "out", portWrapper, nodeConfiguration, nativeNodeContainer.getNode(),
+					ConverterUtils.convertToKnimePort(portWrapper.portNr));
+		}
+		return keyBuilder.build();
+	}
+
+	// fixed filenames are derived from the port name and from the extensions of the files (see fixFilenamesInConfiguration)
+	private void addPortToCacheKey(final ConversionCache.KeyBuilder keyBuilder, final String direction, final PortWrapper portWrapper,
+			final INodeConfiguration nodeConfiguration, final Node sourceNode, final int sourcePortNr) {
+		keyBuilder.add(direction).add(portWrapper.port.getName()).add(Integer.toString(portWrapper.portNr));
+		for (final String fileName : extractFileNames(portWrapper.port, nodeConfiguration)) {
+			keyBuilder.add(fileName == null ? "" : FilenameUtils.getExtension(fileName));
+		}
+		keyBuilder.add(sourceNode.getOutputType(sourcePortNr).getPortObjectClass().getName());
+		final IURIPortObject portObject = (IURIPortObject) sourceNode.getOutputObject(sourcePortNr);
+		if (portObject != null && portObject.getURIContents() != null) {
+			for (final URIContent uriContent : portObject.getURIContents()) {
+				keyBuilder.add(uriContent.getExtension());
+			}
+		} else {
+			final URIPortObjectSpec portObjectSpec = (URIPortObjectSpec) sourceNode.getOutputSpec(sourcePortNr);
+			if (portObjectSpec != null) {
+				for (final String extension : portObjectSpec.getFileExtensions()) {
+					keyBuilder.add(extension);
+				}
+			}
+		}
 	}
 
 	private INodeConfiguration cloneNodeConfiguration(final INodeConfiguration nodeConfiguration) throws InvalidCTDFileException, IOException {
@@ -1,14 +1,5 @@
 package com.workflowconversion.knime2grid.export.workflow;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.knime.base.node.io.csvwriter.CSVWriterNodeModel;
 import org.knime.core.node.InvalidSettingsException;
@@ -18,6 +9,8 @@ import org.knime.core.node.workflow.NativeNodeContainer;
 import org.knime.core.node.workflow.NodeContainer;
 import org.knime.core.node.workflow.NodeID;
 import org.knime.core.node.workflow.WorkflowManager;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -34,7 +27,8 @@ public class ConverterUtils {
 	public static final String CSVWRITER_CLASS_NAME = CSVWriterNodeModel.class.getCanonicalName();
 
 	/**
-	 * Copies name, id, description and job type from the source node to the destination job.
+	 * Copies name, id, description and tool id (i.e., the class of the node factory) from the source node to the
+	 * destination job.
 	 * 
 	 * @param destinationJob
 	 * @param sourceNode
@@ -43,6 +37,7 @@ public class ConverterUtils {
 		destinationJob.setId(sourceNode.getID());
 		destinationJob.setName(sourceNode.getName());
 		destinationJob.setDescription(getNodeDescription(sourceNode));
+		destinationJob.setToolId(sourceNode.getNode().getFactory().getClass().getName());
 	}
 
 	/**
@@ -131,41 +126,6 @@ public class ConverterUtils {
 		return nodeSettings.getNodeSettings(Node.CFG_MODEL);
 	}
 
-	/**
-	 * Given a string, which could be either an URL or a filepath, this method copies the content into a new file.
-	 * 
-	 * @param location
-	 *            The location (path or URL) of the content.
-	 * @return
-	 * @throws IOException
-	 */
-	public static File copyContent(final String location) throws IOException {
-		URL url;
-		try {
-			url = new URL(location);
-		} catch (final MalformedURLException e) {
-			// it's very probable that this is not a proper URL, we can just ignore this exception for now
-			// there's no "pure java" way to check for URL validity :(
-			// apache offers one, but we can live without it for now
-			url = null;
-		}
-		if (url != null) {
-			// obtain and return the content
-			final ReadableByteChannel rbc = Channels.newChannel(url.openStream());
-			final File tmpFile = File.createTempFile("knimeconverter", ".download");
-			final FileOutputStream fos = new FileOutputStream(tmpFile);
-			fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-			fos.close();
-			return tmpFile;
-		} else {
-			// it must be a file then, copy its content
-			final File tmpFile = File.createTempFile("knimeconverter", ".copied");
-			FileUtils.copyFile(new File(location), tmpFile);
-			return tmpFile;
-		}
-
-	}
-
 	/**
 	 * KNIME nodes contain an extra port for flow variables. This method converts a knime port number to the internal
 	 * format port number.
@@ -231,4 +191,18 @@ public class ConverterUtils {
 		return nodeId.replace(":", "-");
 	}
 
+	/**
+	 * Updating a plug-in can change what its nodes generate without changing their settings, so the version of the
+	 * plug-in providing a class is part of everything that is derived from such nodes (e.g., cache keys).
+	 * 
+	 * @param clazz
+	 *            a class, e.g., a node factory.
+	 * @return the version of the bundle from which the class was loaded, or an empty string if it was not loaded from a
+	 *         bundle.
+	 */
+	public static String getBundleVersion(final Class<?> clazz) {
+		final Bundle bundle = FrameworkUtil.getBundle(clazz);
+		return bundle == null ? "" : bundle.getVersion().toString();
+	}
+
 }
@@ -0,0 +1,203 @@
+package com.workflowconversion.knime2grid.export.workflow;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import org.apache.commons.lang.Validate;
+import org.knime.core.node.NodeLogger;
+import org.knime.core.node.workflow.ConnectionContainer;
+import org.knime.core.node.workflow.NodeContainer;
+import org.knime.core.node.workflow.NodeID;
+import org.knime.core.node.workflow.NodeStateChangeListener;
+import org.knime.core.node.workflow.NodeStateEvent;
+import org.knime.core.node.workflow.WorkflowEvent;
+import org.knime.core.node.workflow.WorkflowListener;
+import org.knime.core.node.workflow.WorkflowManager;
+
+import com.workflowconversion.knime2grid.model.Job;
+
+/**
+ * Keeps the jobs obtained in the last conversion of a workflow and, by listening to KNIME events, keeps track of the
+ * nodes that have changed since then. {@link InternalModelConverter} uses this information to convert only the nodes
+ * that changed (and their neighbours, since converters look at the nodes connected to the node being converted) and to
+ * reuse the jobs of all other nodes.
+ * 
+ * There is one instance per {@link WorkflowManager}; instances keep only weak references to the workflow manager they
+ * track, so they are discarded together with it.
+ * 
+ * @author delagarza
+ */
+public class IncrementalConversionState implements WorkflowListener, NodeStateChangeListener {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(IncrementalConversionState.class);
+	private final static Map<WorkflowManager, IncrementalConversionState> STATES = new WeakHashMap<WorkflowManager, IncrementalConversionState>();
+
+	private final WeakReference<WorkflowManager> workflowManagerReference;
+	// jobs of the last successful conversion
+	private final Map<NodeID, Job> convertedJobs = new TreeMap<NodeID, Job>();
+	// nodes that changed since the last successful conversion
+	private final Set<NodeID> dirtyNodes = new TreeSet<NodeID>();
+
+	/**
+	 * Gets the state associated to the given workflow manager. The first call for a workflow manager registers the
+	 * needed listeners; since no conversion has been done yet, all of its nodes will be converted.
+	 * 
+	 * @param workflowManager
+	 *            the workflow manager.
+	 * @return the state associated to the passed workflow manager.
+	 */
+	public static IncrementalConversionState forWorkflowManager(final WorkflowManager workflowManager) {
+		Validate.notNull(workflowManager, "workflowManager cannot be null");
+		synchronized (STATES) {
+			IncrementalConversionState state = STATES.get(workflowManager);
+			if (state == null) {
+				state = new IncrementalConversionState(workflowManager);
+				workflowManager.addListener(state);
+				for (final NodeContainer nodeContainer : workflowManager.getNodeContainers()) {
+					nodeContainer.addNodeStateChangeListener(state);
+				}
+				STATES.put(workflowManager, state);
+			}
+			return state;
+		}
+	}
+
+	private IncrementalConversionState(final WorkflowManager workflowManager) {
+		this.workflowManagerReference = new WeakReference<WorkflowManager>(workflowManager);
+	}
+
+	@Override
+	public void workflowChanged(final WorkflowEvent event) {
+		switch (event.getType()) {
+			case NODE_ADDED : {
+				final NodeContainer nodeContainer = (NodeContainer) event.getNewValue();
+				nodeContainer.addNodeStateChangeListener(this);
+				markDirty(nodeContainer.getID());
+				break;
+			}
+			case NODE_REMOVED : {
+				final NodeContainer nodeContainer = (NodeContainer) event.getOldValue();
+				nodeContainer.removeNodeStateChangeListener(this);
+				forget(nodeContainer.getID());
+				break;
+			}
+			case CONNECTION_ADDED :
+				markDirty((ConnectionContainer) event.getNewValue());
+				break;
+			case CONNECTION_REMOVED :
+				markDirty((ConnectionContainer) event.getOldValue());
+				break;
+			case WORKFLOW_DIRTY :
+				// changing the settings of a node does not always change its state, but it does flag the node as dirty
+				final WorkflowManager workflowManager = workflowManagerReference.get();
+				if (workflowManager != null) {
+					for (final NodeContainer nodeContainer : workflowManager.getNodeContainers()) {
+						if (nodeContainer.isDirty()) {
+							markDirty(nodeContainer.getID());
+						}
+					}
+				}
+				break;
+			default :
+				// nop, e.g., annotations do not affect the conversion
+		}
+	}
+
+	@Override
+	public void stateChanged(final NodeStateEvent state) {
+		markDirty(state.getSource());
+	}
+
+	private void markDirty(final ConnectionContainer connectionContainer) {
+		if (connectionContainer != null) {
+			markDirty(connectionContainer.getSource());
+			markDirty(connectionContainer.getDest());
+		}
+	}
+
+	private synchronized void markDirty(final NodeID nodeId) {
+		if (nodeId != null && dirtyNodes.add(nodeId) && LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Node " + nodeId + " needs to be converted again");
+		}
+	}
+
+	private synchronized void forget(final NodeID nodeId) {
+		convertedJobs.remove(nodeId);
+		dirtyNodes.add(nodeId);
+	}
+
+	/**
+	 * Determines which of the given nodes need to be converted, that is: nodes that have not been converted yet, nodes
+	 * that changed since the last conversion and the nodes connected to them.
+	 * 
+	 * @param workflowManager
+	 *            the workflow manager containing the nodes.
+	 * @param nodeIds
+	 *            the ids of the processing nodes of the workflow.
+	 * @return the subset of the given ids that need to be converted.
+	 */
+	public synchronized Set<NodeID> getNodesToConvert(final WorkflowManager workflowManager, final Collection<NodeID> nodeIds) {
+		final Set<NodeID> affectedNodes = new TreeSet<NodeID>(dirtyNodes);
+		for (final NodeID dirtyNode : dirtyNodes) {
+			if (workflowManager.containsNodeContainer(dirtyNode)) {
+				for (final ConnectionContainer connection : workflowManager.getIncomingConnectionsFor(dirtyNode)) {
+					affectedNodes.add(connection.getSource());
+				}
+				for (final ConnectionContainer connection : workflowManager.getOutgoingConnectionsFor(dirtyNode)) {
+					affectedNodes.add(connection.getDest());
+				}
+			}
+		}
+		final Set<NodeID> nodesToConvert = new TreeSet<NodeID>();
+		for (final NodeID nodeId : nodeIds) {
+			if (affectedNodes.contains(nodeId) || !convertedJobs.containsKey(nodeId)) {
+				nodesToConvert.add(nodeId);
+			}
+		}
+		return nodesToConvert;
+	}
+
+	/**
+	 * Returns a copy of the job obtained for the given node in the last conversion. Each call returns a new copy, so
+	 * conversions never share (and modify) the same instances. Connections to other jobs are not copied, since they
+	 * will be recreated.
+	 * 
+	 * @param nodeId
+	 *            the id of the node.
+	 * @return a copy of the previously converted job, or {@code null} if the node has not been converted.
+	 */
+	public synchronized Job getConvertedJob(final NodeID nodeId) {
+		final Job job = convertedJobs.get(nodeId);
+		return job == null ? null : job.copy();
+	}
+
+	/**
+	 * Records the result of a successful conversion.
+	 * 
+	 * @param jobs
+	 *            all of the jobs of the converted workflow, as they were produced by the node converters (i.e., before
+	 *            connecting them); this instance takes ownership of them.
+	 * @param processedDirtyNodes
+	 *            the dirty nodes that were taken into account in this conversion; nodes that were flagged as dirty
+	 *            while the conversion was running remain dirty.
+	 */
+	public synchronized void update(final Collection<Job> jobs, final Collection<NodeID> processedDirtyNodes) {
+		convertedJobs.clear();
+		for (final Job job : jobs) {
+			convertedJobs.put(job.getId(), job);
+		}
+		dirtyNodes.removeAll(processedDirtyNodes);
+	}
+
+	/**
+	 * @return a copy of the ids of the nodes that changed since the last conversion.
+	 */
+	public synchronized Set<NodeID> getDirtyNodes() {
+		return new TreeSet<NodeID>(dirtyNodes);
+	}
+}
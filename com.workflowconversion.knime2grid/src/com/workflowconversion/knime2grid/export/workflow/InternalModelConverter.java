@@ -19,12 +19,19 @@
 package com.workflowconversion.knime2grid.export.workflow;
 
 import java.io.File;
-import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.Validate;
 import org.eclipse.draw2d.IFigure;
@@ -38,6 +45,7 @@ import org.knime.core.node.workflow.NodeContainer;
 import org.knime.core.node.workflow.NodeID;
 import org.knime.core.node.workflow.WorkflowManager;
 import org.knime.core.ui.node.workflow.NodeContainerUI;
+import org.knime.core.util.ThreadUtils;
 import org.knime.workbench.editor2.WorkflowEditor;
 import org.knime.workbench.editor2.editparts.NodeContainerEditPart;
 import org.knime.workbench.editor2.editparts.NodeInPortEditPart;
@@ -68,13 +76,52 @@ public class InternalModelConverter {
 	private final WorkflowEditor editor;
 	private final Collection<NodeContainerConverter> nodeConverters;
 	private final Collection<SourceConverter> sourceConverters;
+	private final int conversionThreads;
+	private final IncrementalConversionState incrementalState;
 
 	public InternalModelConverter(final WorkflowEditor editor, final Collection<NodeContainerConverter> handlers,
 			final Collection<SourceConverter> sourceConverters) {
+		this(editor, handlers, sourceConverters, 1);
+	}
+
+	/**
+	 * @param editor
+	 *            The editor containing the workflow to convert.
+	 * @param handlers
+	 *            The node converters, from most to less specific.
+	 * @param sourceConverters
+	 *            The source converters.
+	 * @param conversionThreads
+	 *            Maximum number of nodes that will be converted at the same time. Using more than one thread requires
+	 *            all of the passed {@link NodeContainerConverter} instances to be thread-safe.
+	 */
+	public InternalModelConverter(final WorkflowEditor editor, final Collection<NodeContainerConverter> handlers,
+			final Collection<SourceConverter> sourceConverters, final int conversionThreads) {
+		this(editor, handlers, sourceConverters, conversionThreads, null);
+	}
+
+	/**
+	 * @param editor
+	 *            The editor containing the workflow to convert.
+	 * @param handlers
+	 *            The node converters, from most to less specific.
+	 * @param sourceConverters
+	 *            The source converters.
+	 * @param conversionThreads
+	 *            Maximum number of nodes that will be converted at the same time.
+	 * @param incrementalState
+	 *            If not {@code null}, only the nodes that changed since the last conversion tracked by this state (and
+	 *            their neighbours) are converted; the jobs of all other nodes are reused.
+	 */
+	public InternalModelConverter(final WorkflowEditor editor, final Collection<NodeContainerConverter> handlers,
+			final Collection<SourceConverter> sourceConverters, final int conversionThreads, final IncrementalConversionState incrementalState) {
 		Validate.notNull(editor, "editor cannot be null");
+		Validate.isTrue(conversionThreads > 0, "conversionThreads must be a positive number", conversionThreads);
 		this.editor = editor;
 		this.nodeConverters = handlers;
 		this.sourceConverters = sourceConverters;
+		this.conversionThreads = conversionThreads;
+		this.incrementalState = incrementalState;
 	}
 
 	public Workflow convert() throws Exception {
@@ -86,10 +133,14 @@ public class InternalModelConverter {
 		final WorkflowManager workflowManager = workflowManagerWrapper.get();
 		final Workflow workflow = new Workflow();
 		workflow.setName(workflowManager.getName());
+		// changes made while this conversion runs will be picked up by the next one
+		final Collection<NodeID> processedDirtyNodes = incrementalState == null ? null : incrementalState.getDirtyNodes();
 
 		// 1. convert the nodes (inputs/outputs will be created, but their type will be
 		// Unassigned)
 		convertNodes(workflowManager, workflow);
+		// the following steps (and the exporters) modify the jobs, so keep them as the node converters produced them
+		final Collection<Job> convertedJobs = incrementalState == null ? null : copyJobs(workflow.getJobs());
 
 		// 2. connect inputs/outputs
 		convertEdges(workflowManager, workflow);
@@ -101,36 +152,131 @@ public class InternalModelConverter {
 		// ports
 		setGraphicalElements(workflow, editor);
 
+		if (incrementalState != null) {
+			incrementalState.update(convertedJobs, processedDirtyNodes);
+		}
+
 		return workflow;
 	}
 
-	private void convertNodes(final WorkflowManager workflowManager, final Workflow workflow) throws IOException, Exception {
+	private Collection<Job> copyJobs(final Collection<Job> jobs) {
+		final Collection<Job> copies = new ArrayList<Job>(jobs.size());
+		for (final Job job : jobs) {
+			copies.add(job.copy());
+		}
+		return copies;
+	}
+
+	private void convertNodes(final WorkflowManager workflowManager, final Workflow workflow) throws Exception {
+		final List<NativeNodeContainer> processingNodes = new ArrayList<NativeNodeContainer>();
 		for (final NodeContainer nc : workflowManager.getNodeContainers()) {
 			if (nc instanceof NativeNodeContainer) {
-				final NativeNodeContainer nativeNodeContainer = (NativeNodeContainer) nc;
-				final File workingDirectory = Files
-						.createTempDirectory("knime2guse_" + ConverterUtils.fixNodeIdForFileSystem(nativeNodeContainer.getID().toString())).toFile();
-				if (isProcessingNode(nativeNodeContainer)) {
-					// go through all registered handlers
-					Job convertedJob = null;
-					for (final NodeContainerConverter handler : nodeConverters) {
-						if (handler.canHandle(nativeNodeContainer)) {
-							convertedJob = handler.convert(nativeNodeContainer, workflowManager, workingDirectory);
-							break;
-						}
-					}
-					if (convertedJob == null) {
-						throw new RuntimeException("Got a null job when converting node: " + nativeNodeContainer);
-					}
-					// we only have the jobs, without connections, this will be
-					// done later on
-					workflow.addJob(convertedJob);
+				if (isProcessingNode(nc)) {
+					processingNodes.add((NativeNodeContainer) nc);
 				}
 			} else if (nc instanceof WorkflowManager) {
 				// TODO: expand metanodes
 				throw new ApplicationException("We're sorry, metanodes are not supported yet.");
 			}
 		}
+
+		final List<NativeNodeContainer> nodesToConvert = reuseConvertedJobs(workflowManager, workflow, processingNodes);
+		if (conversionThreads > 1 && nodesToConvert.size() > 1) {
+			convertNodesInParallel(workflowManager, workflow, nodesToConvert);
+		} else {
+			for (final NativeNodeContainer nativeNodeContainer : nodesToConvert) {
+				// we only have the jobs, without connections, this will be
+				// done later on
+				workflow.addJob(convertNode(nativeNodeContainer, workflowManager));
+			}
+		}
+	}
+
+	// adds the jobs of the previous conversion that are still valid to the workflow and returns the nodes that have to
+	// be converted
+	private List<NativeNodeContainer> reuseConvertedJobs(final WorkflowManager workflowManager, final Workflow workflow,
+			final List<NativeNodeContainer> processingNodes) {
+		if (incrementalState == null) {
+			return processingNodes;
+		}
+		final Collection<NodeID> processingNodeIds = new ArrayList<NodeID>(processingNodes.size());
+		for (final NativeNodeContainer nativeNodeContainer : processingNodes) {
+			processingNodeIds.add(nativeNodeContainer.getID());
+		}
+		final Collection<NodeID> nodeIdsToConvert = incrementalState.getNodesToConvert(workflowManager, processingNodeIds);
+		final List<NativeNodeContainer> nodesToConvert = new ArrayList<NativeNodeContainer>(nodeIdsToConvert.size());
+		for (final NativeNodeContainer nativeNodeContainer : processingNodes) {
+			if (nodeIdsToConvert.contains(nativeNodeContainer.getID())) {
+				nodesToConvert.add(nativeNodeContainer);
+			} else {
+				workflow.addJob(incrementalState.getConvertedJob(nativeNodeContainer.getID()));
+			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Reusing " + (processingNodes.size() - nodesToConvert.size()) + " previously converted jobs, converting " + nodesToConvert.size()
+					+ " nodes");
+		}
+		return nodesToConvert;
+	}
+
+	private void convertNodesInParallel(final WorkflowManager workflowManager, final Workflow workflow, final List<NativeNodeContainer> processingNodes)
+			throws Exception {
+		final int nThreads = Math.min(conversionThreads, processingNodes.size());
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Converting " + processingNodes.size() + " nodes using " + nThreads + " threads");
+		}
+		// propagate the NodeContext of the calling thread, KNIME complains loudly without it
+		final ExecutorService executor = ThreadUtils.executorServiceWithContext(Executors.newFixedThreadPool(nThreads));
+		try {
+			final List<Future<Job>> convertedJobs = new ArrayList<Future<Job>>(processingNodes.size());
+			for (final NativeNodeContainer nativeNodeContainer : processingNodes) {
+				convertedJobs.add(executor.submit(new Callable<Job>() {
+					@Override
+					public Job call() throws Exception {
+						return convertNode(nativeNodeContainer, workflowManager);
+					}
+				}));
+			}
+			// merge the jobs in the same order in which KNIME lists its nodes, not in the order in which the conversions
+			// finished, so the first reported error is the same one a sequential conversion would report
+			for (final Future<Job> convertedJob : convertedJobs) {
+				workflow.addJob(getConvertedJob(convertedJob));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Job getConvertedJob(final Future<Job> convertedJob) throws Exception {
+		try {
+			return convertedJob.get();
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	private Job convertNode(final NativeNodeContainer nativeNodeContainer, final WorkflowManager workflowManager) throws Exception {
+		final File workingDirectory = Files
+				.createTempDirectory("knime2guse_" + ConverterUtils.fixNodeIdForFileSystem(nativeNodeContainer.getID().toString())).toFile();
+		// go through all registered handlers
+		Job convertedJob = null;
+		for (final NodeContainerConverter handler : nodeConverters) {
+			if (handler.canHandle(nativeNodeContainer)) {
+				convertedJob = handler.convert(nativeNodeContainer, workflowManager, workingDirectory);
+				break;
+			}
+		}
+		if (convertedJob == null) {
+			throw new RuntimeException("Got a null job when converting node: " + nativeNodeContainer);
+		}
+		return convertedJob;
 	}
 
 	private void convertEdges(final WorkflowManager workflowManager, final Workflow workflow) {
@@ -159,20 +305,19 @@ public class InternalModelConverter {
 	}
 
 	private void handleUnassignedInputs(final WorkflowManager workflowManager, final Workflow workflow) throws Exception {
+		// a reader can feed several nodes, but its content needs to be materialized only once
+		final Map<NodeID, IFileParameter> convertedSources = new HashMap<NodeID, IFileParameter>();
+		int sharedInputs = 0;
 		for (final Job job : workflow.getJobs()) {
 			for (final Input input : job.getInputs()) {
 				if (input.getConnectionType() == ConnectionType.NotAssigned) {
 					final NodeID originalSourceID = input.getSourceId();
-					final NodeContainer originalSource = workflowManager.getNodeContainer(originalSourceID);
-					IFileParameter inputData = null;
-					for (final SourceConverter sourceConverter : sourceConverters) {
-						if (sourceConverter.canHandle(originalSource)) {
-							inputData = sourceConverter.convert(originalSource, workflowManager);
-							break;
-						}
-					}
+					IFileParameter inputData = convertedSources.get(originalSourceID);
 					if (inputData == null) {
-						throw new RuntimeException("The input could not be converted. This is probably a bug and should be reported!");
+						inputData = convertSource(workflowManager, originalSourceID);
+						convertedSources.put(originalSourceID, inputData);
+					} else {
+						sharedInputs++;
 					}
 					// TODO: remove? it seems that GenericKnimeNodeConverter converts multifile inputs as well
 					// input.setMultiFile(input.isMultiFile() || inputData instanceof FileListParameter);
@@ -181,6 +326,20 @@ public class InternalModelConverter {
 				}
 			}
 		}
+		// nothing is copied here, the bytes that are actually saved are reported by the exporter
+		if (sharedInputs > 0 && LOGGER.isDebugEnabled()) {
+			LOGGER.debug(String.format("%d input(s) share the data of %d source node(s)", sharedInputs, convertedSources.size()));
+		}
+	}
+
+	private IFileParameter convertSource(final WorkflowManager workflowManager, final NodeID originalSourceID) throws Exception {
+		final NodeContainer originalSource = workflowManager.getNodeContainer(originalSourceID);
+		for (final SourceConverter sourceConverter : sourceConverters) {
+			if (sourceConverter.canHandle(originalSource)) {
+				return sourceConverter.convert(originalSource, workflowManager);
+			}
+		}
+		throw new RuntimeException("The input could not be converted. This is probably a bug and should be reported!");
 	}
 
 	@SuppressWarnings("unchecked")
@@ -0,0 +1,154 @@
+package com.workflowconversion.knime2grid.export.workflow.impl.guse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.knime.core.node.NodeLogger;
+
+import com.workflowconversion.knime2grid.export.cache.ArchiveIndex;
+import com.workflowconversion.knime2grid.export.cache.RuntimeHistory;
+import com.workflowconversion.knime2grid.export.io.download.DataFetcher;
+import com.workflowconversion.knime2grid.export.io.zip.CompressionPolicy;
+import com.workflowconversion.knime2grid.export.io.zip.CompressionReport;
+import com.workflowconversion.knime2grid.export.io.zip.ParallelGzipOutputStream;
+import com.workflowconversion.knime2grid.model.Input;
+import com.workflowconversion.knime2grid.model.Job;
+import com.workflowconversion.knime2grid.model.Output;
+
+/**
+ * State shared by everything that is written during one export of a {@link GuseKnimeWorkflowExporter}: the settings,
+ * the plans made before writing (remote references, resource estimates, loops) and the resources used while writing
+ * (compression threads, the previous archive, downloaded data), which are released by {@link #close()}.
+ *
+ * @author delagarza
+ */
+class ExportContext {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(ExportContext.class);
+
+	final GuseExportSettings settings;
+	final Map<Input, String> remoteReferences;
+	// resources needed by jobs whose tools have run before
+	final Map<Job, RuntimeHistory.Estimate> resourceEstimates;
+	// generators of loops whose elements are grouped into work units and how long an element took before (0 if
+	// unknown), the jobs in the body of those loops, their collectors and the inputs that receive work units
+	final Map<Job, Long> batchedGenerators = new IdentityHashMap<Job, Long>();
+	final Set<Job> batchedJobs = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+	final Set<Job> batchedCollectors = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+	final Set<Input> batchInputs = Collections.newSetFromMap(new IdentityHashMap<Input, Boolean>());
+	// generators and collectors of loops mapped to parameter sweeps, which are not exported; inputs of jobs in those
+	// loops and the generator inputs they read instead, with the id of the ports they are paired with; outputs
+	// split by gUSE into one file per element; inputs of jobs after the loops and the collector inputs they read
+	final Set<Job> sweptJobs = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+	final Map<Input, Input> sweepInputs = new IdentityHashMap<Input, Input>();
+	final Map<Input, Integer> sweepDotProductIds = new IdentityHashMap<Input, Integer>();
+	final Set<Output> generatorOutputs = Collections.newSetFromMap(new IdentityHashMap<Output, Boolean>());
+	final Map<Input, Input> collectedInputs = new IdentityHashMap<Input, Input>();
+	// already compressed data (e.g., packed inputs, mini workflows) is stored instead of deflated again
+	final CompressionPolicy compressionPolicy = new CompressionPolicy();
+	final CompressionReport compressionReport = new CompressionReport();
+	// null if packed inputs are compressed on the writing thread
+	final ExecutorService gzipExecutor;
+	// remote data downloaded during the export is deleted when the export ends
+	final DataFetcher dataFetcher = new DataFetcher();
+
+	// index of the archive being written
+	final ArchiveIndex index;
+	// the archive being replaced and its index, both null if there is nothing to copy from
+	final ZipFile previousArchive;
+	final ArchiveIndex previousIndex;
+	// sizes shared by several inputs and fingerprints of inputs with identical content
+	final Set<Long> duplicateSizes = new HashSet<Long>();
+	final Set<String> duplicateFingerprints = new HashSet<String>();
+	// only used by the thread that writes the archive; fingerprints of duplicate inputs and the entry containing
+	// their (already compressed) content
+	final Map<String, String> sharedEntries = new HashMap<String, String>();
+	long reusedEntries;
+	long reusedBytes;
+	long duplicateEntries;
+	long duplicateBytes;
+	// fingerprints of the scripts written so far and, for scripts written more than once, the entry containing their
+	// (already compressed) content
+	final Set<String> writtenScripts = new HashSet<String>();
+	final Map<String, String> sharedScripts = new HashMap<String, String>();
+	// only used by the thread that prepares jobs
+	final StringBuilder scriptBuffer = new StringBuilder();
+
+	/**
+	 * @param settings
+	 *            the settings of the export.
+	 * @param remoteReferences
+	 *            inputs that are not included in the archive and the locations they are referenced by.
+	 * @param resourceEstimates
+	 *            resources needed by jobs whose tools have run before.
+	 * @param previousArchiveFile
+	 *            the archive being replaced, {@code null} if there is nothing to copy from.
+	 * @param previousIndex
+	 *            the index of the archive being replaced, {@code null} if there is nothing to copy from.
+	 */
+	ExportContext(final GuseExportSettings settings, final Map<Input, String> remoteReferences, final Map<Job, RuntimeHistory.Estimate> resourceEstimates,
+			final File previousArchiveFile, final ArchiveIndex previousIndex) {
+		this.settings = settings;
+		this.remoteReferences = remoteReferences;
+		this.resourceEstimates = resourceEstimates;
+		// known file digests are reused even if the archive itself can't be read
+		this.index = previousIndex == null ? new ArchiveIndex() : previousIndex.next();
+		this.previousArchive = previousArchiveFile == null ? null : openPreviousArchive(previousArchiveFile);
+		this.previousIndex = previousArchive == null ? null : previousIndex;
+		// entries might be compressed on a pool as well, a separate one avoids workers waiting on their own pool
+		this.gzipExecutor = settings.getCompressionThreads() > 1 ? Executors.newFixedThreadPool(settings.getCompressionThreads()) : null;
+	}
+
+	// packed inputs can be huge (e.g., hundreds of FASTQ files), so their blocks are deflated in parallel; the
+	// result is a regular gzip stream, job_wrapper.sh and zip_loop_start.sh need no changes
+	OutputStream newGzipOutputStream(final OutputStream outputStream) throws IOException {
+		if (gzipExecutor == null) {
+			return new GZIPOutputStream(outputStream, GuseKnimeWorkflowExporter.STREAM_BUFFER_SIZE);
+		}
+		return new ParallelGzipOutputStream(outputStream, gzipExecutor, settings.getCompressionThreads(), Deflater.DEFAULT_COMPRESSION,
+				ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+	}
+
+	private static ZipFile openPreviousArchive(final File previousArchiveFile) {
+		try {
+			return new ZipFile(previousArchiveFile);
+		} catch (final IOException e) {
+			LOGGER.warn("Could not read the previous archive " + previousArchiveFile + ", all entries will be written from scratch", e);
+			return null;
+		}
+	}
+
+	// returns the entry of the previous archive whose source had the same fingerprint, if any
+	ZipArchiveEntry getReusableEntry(final String entryName, final String fingerprint) {
+		if (previousArchive == null || !fingerprint.equals(previousIndex.getFingerprint(entryName))) {
+			return null;
+		}
+		return previousArchive.getEntry(entryName);
+	}
+
+	/**
+	 * Releases the resources used while writing; the plans and counters are kept.
+	 */
+	void close() {
+		if (gzipExecutor != null) {
+			gzipExecutor.shutdownNow();
+		}
+		dataFetcher.close();
+		if (previousArchive != null) {
+			ZipFile.closeQuietly(previousArchive);
+		}
+	}
+}
@@ -0,0 +1,497 @@
+package com.workflowconversion.knime2grid.export.workflow.impl.guse;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+import com.workflowconversion.knime2grid.preference.PreferenceConstants;
+
+/**
+ * Settings that tune how {@link GuseKnimeWorkflowExporter} writes gUSE archives.
+ * 
+ * Instances are immutable and are created via a {@link Builder}, either directly or from the preferences of this
+ * plug-in using {@link #fromPreferences(IPreferenceStore)}.
+ * 
+ * @author delagarza
+ */
+public class GuseExportSettings {
+
+	private final int pipelineQueueSize;
+	private final int compressionThreads;
+	private final long scatterSpaceBytes;
+	private final boolean incrementalExport;
+	private final int maxAttempts;
+	private final int retryBackoffSeconds;
+	private final int outputTimeoutSeconds;
+	private final boolean scratchStaging;
+	private final String scratchDirectory;
+	private final boolean resourceRequests;
+	private final double resourceSafetyFactor;
+	private final String runtimeStatisticsDirectory;
+	private final boolean generatorBatching;
+	private final int targetBatchSeconds;
+	private final int maxWorkUnits;
+	private final boolean batchParallel;
+	private final boolean parameterSweeps;
+	private final long remoteReferenceThresholdBytes;
+	private final Map<String, String> remotePathMappings;
+
+	private GuseExportSettings(final int pipelineQueueSize, final int compressionThreads, final long scatterSpaceBytes, final boolean incrementalExport,
+			final int maxAttempts, final int retryBackoffSeconds, final int outputTimeoutSeconds, final boolean scratchStaging,
+			final String scratchDirectory, final boolean resourceRequests, final double resourceSafetyFactor, final String runtimeStatisticsDirectory,
+			final boolean generatorBatching, final int targetBatchSeconds, final int maxWorkUnits, final boolean batchParallel,
+			final boolean parameterSweeps, final long remoteReferenceThresholdBytes, final Map<String, String> remotePathMappings) {
+		Validate.isTrue(pipelineQueueSize >= 0, "pipelineQueueSize cannot be negative", pipelineQueueSize);
+		Validate.isTrue(compressionThreads > 0, "compressionThreads must be positive", compressionThreads);
+		Validate.isTrue(scatterSpaceBytes > 0, "scatterSpaceBytes must be positive", scatterSpaceBytes);
+		Validate.isTrue(maxAttempts > 0, "maxAttempts must be positive", maxAttempts);
+		Validate.isTrue(retryBackoffSeconds >= 0, "retryBackoffSeconds cannot be negative", retryBackoffSeconds);
+		Validate.isTrue(outputTimeoutSeconds >= 0, "outputTimeoutSeconds cannot be negative", outputTimeoutSeconds);
+		Validate.notNull(scratchDirectory, "scratchDirectory cannot be null");
+		Validate.isTrue(resourceSafetyFactor >= 1, "resourceSafetyFactor cannot be less than 1", resourceSafetyFactor);
+		Validate.notNull(runtimeStatisticsDirectory, "runtimeStatisticsDirectory cannot be null");
+		Validate.isTrue(targetBatchSeconds > 0, "targetBatchSeconds must be positive", targetBatchSeconds);
+		Validate.isTrue(maxWorkUnits > 0, "maxWorkUnits must be positive", maxWorkUnits);
+		Validate.isTrue(remoteReferenceThresholdBytes >= 0, "remoteReferenceThresholdBytes cannot be negative", remoteReferenceThresholdBytes);
+		this.pipelineQueueSize = pipelineQueueSize;
+		this.compressionThreads = compressionThreads;
+		this.scatterSpaceBytes = scatterSpaceBytes;
+		this.incrementalExport = incrementalExport;
+		this.maxAttempts = maxAttempts;
+		this.retryBackoffSeconds = retryBackoffSeconds;
+		this.outputTimeoutSeconds = outputTimeoutSeconds;
+		this.scratchStaging = scratchStaging;
+		this.scratchDirectory = scratchDirectory;
+		this.resourceRequests = resourceRequests;
+		this.resourceSafetyFactor = resourceSafetyFactor;
+		this.runtimeStatisticsDirectory = runtimeStatisticsDirectory;
+		this.generatorBatching = generatorBatching;
+		this.targetBatchSeconds = targetBatchSeconds;
+		this.maxWorkUnits = maxWorkUnits;
+		this.batchParallel = batchParallel;
+		this.parameterSweeps = parameterSweeps;
+		this.remoteReferenceThresholdBytes = remoteReferenceThresholdBytes;
+		this.remotePathMappings = Collections.unmodifiableMap(new LinkedHashMap<String, String>(remotePathMappings));
+	}
+
+	/**
+	 * Creates settings using the values found in the given preference store.
+	 * 
+	 * @param preferenceStore
+	 *            the preference store.
+	 * @return settings matching the given preferences.
+	 */
+	public static GuseExportSettings fromPreferences(final IPreferenceStore preferenceStore) {
+		Validate.notNull(preferenceStore, "preferenceStore cannot be null");
+		final Builder builder = new Builder();
+		builder.withPipelineQueueSize(preferenceStore.getInt(PreferenceConstants.GUSE_PIPELINE_QUEUE_SIZE));
+		builder.withCompressionThreads(preferenceStore.getInt(PreferenceConstants.GUSE_COMPRESSION_THREADS));
+		builder.withScatterSpaceBytes(preferenceStore.getLong(PreferenceConstants.GUSE_SCATTER_SPACE_MB) * 1024L * 1024L);
+		builder.withIncrementalExport(preferenceStore.getBoolean(PreferenceConstants.GUSE_INCREMENTAL_EXPORT));
+		builder.withMaxAttempts(preferenceStore.getInt(PreferenceConstants.GUSE_MAX_ATTEMPTS));
+		builder.withRetryBackoffSeconds(preferenceStore.getInt(PreferenceConstants.GUSE_RETRY_BACKOFF_SECONDS));
+		builder.withOutputTimeoutSeconds(preferenceStore.getInt(PreferenceConstants.GUSE_OUTPUT_TIMEOUT_SECONDS));
+		builder.withScratchStaging(preferenceStore.getBoolean(PreferenceConstants.GUSE_SCRATCH_STAGING));
+		builder.withScratchDirectory(preferenceStore.getString(PreferenceConstants.GUSE_SCRATCH_DIRECTORY).trim());
+		builder.withResourceRequests(preferenceStore.getBoolean(PreferenceConstants.GUSE_RESOURCE_REQUESTS));
+		builder.withResourceSafetyFactor(preferenceStore.getInt(PreferenceConstants.GUSE_RESOURCE_SAFETY_PERCENT) / 100.0);
+		builder.withRuntimeStatisticsDirectory(preferenceStore.getString(PreferenceConstants.GUSE_RUNTIME_STATISTICS_DIRECTORY).trim());
+		builder.withGeneratorBatching(preferenceStore.getBoolean(PreferenceConstants.GUSE_GENERATOR_BATCHING));
+		builder.withTargetBatchSeconds(preferenceStore.getInt(PreferenceConstants.GUSE_TARGET_BATCH_SECONDS));
+		builder.withMaxWorkUnits(preferenceStore.getInt(PreferenceConstants.GUSE_MAX_WORK_UNITS));
+		builder.withBatchParallel(preferenceStore.getBoolean(PreferenceConstants.GUSE_BATCH_PARALLEL));
+		builder.withParameterSweeps(preferenceStore.getBoolean(PreferenceConstants.GUSE_PARAMETER_SWEEPS));
+		builder.withRemoteReferenceThresholdBytes(preferenceStore.getLong(PreferenceConstants.GUSE_REMOTE_REFERENCE_THRESHOLD_MB) * 1024L * 1024L);
+		// local_prefix=remote_prefix;local_prefix=remote_prefix...
+		for (final String mapping : StringUtils.split(preferenceStore.getString(PreferenceConstants.GUSE_REMOTE_PATH_MAPPINGS), ';')) {
+			final String localPrefix = StringUtils.substringBefore(mapping, "=").trim();
+			final String remotePrefix = StringUtils.substringAfter(mapping, "=").trim();
+			if (!localPrefix.isEmpty() && !remotePrefix.isEmpty()) {
+				builder.withRemotePathMapping(localPrefix, remotePrefix);
+			}
+		}
+		return builder.newInstance();
+	}
+
+	/**
+	 * @return the number of jobs that can be prepared ahead of the archive writer; {@code 0} means that jobs are
+	 *         prepared and written one after another.
+	 */
+	public int getPipelineQueueSize() {
+		return pipelineQueueSize;
+	}
+
+	/**
+	 * @return the number of threads used to compress the entries of the archive and the tar.gz files of multi-file
+	 *         inputs; {@code 1} means that they are compressed sequentially.
+	 */
+	public int getCompressionThreads() {
+		return compressionThreads;
+	}
+
+	/**
+	 * @return the maximum amount of content, in bytes, that can be compressed ahead of the archive writer when entries
+	 *         are compressed on several threads.
+	 */
+	public long getScatterSpaceBytes() {
+		return scatterSpaceBytes;
+	}
+
+	/**
+	 * @return whether exporting to an existing archive copies the inputs that have not changed from it, instead of
+	 *         compressing them again.
+	 */
+	public boolean isIncrementalExport() {
+		return incrementalExport;
+	}
+
+	/**
+	 * @return the maximum number of times the job scripts execute a tool that failed.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @return the number of seconds the job scripts wait before executing a failed tool again; the wait doubles after
+	 *         each attempt.
+	 */
+	public int getRetryBackoffSeconds() {
+		return retryBackoffSeconds;
+	}
+
+	/**
+	 * @return the number of seconds the job scripts wait for the outputs of a tool to become visible before considering
+	 *         the attempt failed.
+	 */
+	public int getOutputTimeoutSeconds() {
+		return outputTimeoutSeconds;
+	}
+
+	/**
+	 * @return whether the job scripts run tools in node-local scratch space.
+	 */
+	public boolean isScratchStaging() {
+		return scratchStaging;
+	}
+
+	/**
+	 * @return the scratch directory used by the job scripts; if empty, scripts look for one in the environment.
+	 */
+	public String getScratchDirectory() {
+		return scratchDirectory;
+	}
+
+	/**
+	 * @return whether walltime, memory and cores are requested for jobs whose tools have run before.
+	 */
+	public boolean isResourceRequests() {
+		return resourceRequests;
+	}
+
+	/**
+	 * @return the factor by which the walltime and memory used by previous runs of a tool are multiplied when requesting
+	 *         resources for it.
+	 */
+	public double getResourceSafetyFactor() {
+		return resourceSafetyFactor;
+	}
+
+	/**
+	 * @return the directory in which the statistics written by the job scripts are collected; they are added to the
+	 *         runtime history before each export. If empty, nothing is added.
+	 */
+	public String getRuntimeStatisticsDirectory() {
+		return runtimeStatisticsDirectory;
+	}
+
+	/**
+	 * @return whether the elements of a loop are grouped into work units, so that gUSE submits one job per unit
+	 *         instead of one job per element.
+	 */
+	public boolean isGeneratorBatching() {
+		return generatorBatching;
+	}
+
+	/**
+	 * @return the number of seconds a work unit should take; the number of elements in a unit is chosen at runtime
+	 *         based on how long an element took in previous runs.
+	 */
+	public int getTargetBatchSeconds() {
+		return targetBatchSeconds;
+	}
+
+	/**
+	 * @return the maximum number of work units a loop is split into, regardless of how many elements it has.
+	 */
+	public int getMaxWorkUnits() {
+		return maxWorkUnits;
+	}
+
+	/**
+	 * @return whether the elements of a work unit are processed in parallel on the cores given to the job.
+	 */
+	public boolean isBatchParallel() {
+		return batchParallel;
+	}
+
+	/**
+	 * @return whether loops are mapped to gUSE parameter sweeps (i.e., parametric ports and generator outputs) instead
+	 *         of being exported with generator and collector jobs.
+	 */
+	public boolean isParameterSweeps() {
+		return parameterSweeps;
+	}
+
+	/**
+	 * @return the minimum size, in bytes, of inputs that are referenced remotely instead of being included in the
+	 *         archive; {@code 0} means that inputs are referenced remotely only if explicitly requested.
+	 */
+	public long getRemoteReferenceThresholdBytes() {
+		return remoteReferenceThresholdBytes;
+	}
+
+	/**
+	 * @return prefixes of local paths (keys) and the prefixes under which the same files can be found by the execution
+	 *         resources (values).
+	 */
+	public Map<String, String> getRemotePathMappings() {
+		return remotePathMappings;
+	}
+
+	/**
+	 * Builder for {@link GuseExportSettings}. All values default to the ones used in the plug-in preferences.
+	 * 
+	 * @author delagarza
+	 */
+	public static class Builder {
+		private int pipelineQueueSize = 4;
+		private int compressionThreads = Runtime.getRuntime().availableProcessors();
+		private long scatterSpaceBytes = 1024L * 1024L * 1024L;
+		private boolean incrementalExport = true;
+		private int maxAttempts = 3;
+		private int retryBackoffSeconds = 10;
+		private int outputTimeoutSeconds = 120;
+		private boolean scratchStaging = false;
+		private String scratchDirectory = "";
+		private boolean resourceRequests = true;
+		private double resourceSafetyFactor = 1.5;
+		private String runtimeStatisticsDirectory = "";
+		private boolean generatorBatching = false;
+		private int targetBatchSeconds = 600;
+		private int maxWorkUnits = 1000;
+		private boolean batchParallel = true;
+		private boolean parameterSweeps = false;
+		private long remoteReferenceThresholdBytes = 0;
+		private final Map<String, String> remotePathMappings = new LinkedHashMap<String, String>();
+
+		/**
+		 * @param pipelineQueueSize
+		 *            number of jobs that can be prepared ahead of the archive writer, {@code 0} to disable pipelining.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withPipelineQueueSize(final int pipelineQueueSize) {
+			this.pipelineQueueSize = pipelineQueueSize;
+			return this;
+		}
+
+		/**
+		 * @param compressionThreads
+		 *            number of threads used to compress entries, {@code 1} to compress them sequentially.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withCompressionThreads(final int compressionThreads) {
+			this.compressionThreads = compressionThreads;
+			return this;
+		}
+
+		/**
+		 * @param scatterSpaceBytes
+		 *            maximum amount of content, in bytes, compressed ahead of the archive writer.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withScatterSpaceBytes(final long scatterSpaceBytes) {
+			this.scatterSpaceBytes = scatterSpaceBytes;
+			return this;
+		}
+
+		/**
+		 * @param incrementalExport
+		 *            whether unchanged inputs are copied from the archive being replaced.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withIncrementalExport(final boolean incrementalExport) {
+			this.incrementalExport = incrementalExport;
+			return this;
+		}
+
+		/**
+		 * @param maxAttempts
+		 *            maximum number of times a failed tool is executed.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withMaxAttempts(final int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 * @param retryBackoffSeconds
+		 *            seconds to wait before executing a failed tool again.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withRetryBackoffSeconds(final int retryBackoffSeconds) {
+			this.retryBackoffSeconds = retryBackoffSeconds;
+			return this;
+		}
+
+		/**
+		 * @param outputTimeoutSeconds
+		 *            seconds to wait for the outputs of a tool to become visible.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withOutputTimeoutSeconds(final int outputTimeoutSeconds) {
+			this.outputTimeoutSeconds = outputTimeoutSeconds;
+			return this;
+		}
+
+		/**
+		 * @param scratchStaging
+		 *            whether tools are run in node-local scratch space.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withScratchStaging(final boolean scratchStaging) {
+			this.scratchStaging = scratchStaging;
+			return this;
+		}
+
+		/**
+		 * @param scratchDirectory
+		 *            the scratch directory, empty to let the job scripts find one.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withScratchDirectory(final String scratchDirectory) {
+			this.scratchDirectory = scratchDirectory;
+			return this;
+		}
+
+		/**
+		 * @param resourceRequests
+		 *            whether resources are requested based on the runtime history.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withResourceRequests(final boolean resourceRequests) {
+			this.resourceRequests = resourceRequests;
+			return this;
+		}
+
+		/**
+		 * @param resourceSafetyFactor
+		 *            factor applied to the walltime and memory of previous runs, at least {@code 1}.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withResourceSafetyFactor(final double resourceSafetyFactor) {
+			this.resourceSafetyFactor = resourceSafetyFactor;
+			return this;
+		}
+
+		/**
+		 * @param runtimeStatisticsDirectory
+		 *            directory in which job statistics are collected, empty to not add any.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withRuntimeStatisticsDirectory(final String runtimeStatisticsDirectory) {
+			this.runtimeStatisticsDirectory = runtimeStatisticsDirectory;
+			return this;
+		}
+
+		/**
+		 * @param generatorBatching
+		 *            whether the elements of loops are grouped into work units.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withGeneratorBatching(final boolean generatorBatching) {
+			this.generatorBatching = generatorBatching;
+			return this;
+		}
+
+		/**
+		 * @param targetBatchSeconds
+		 *            seconds a work unit should take.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withTargetBatchSeconds(final int targetBatchSeconds) {
+			this.targetBatchSeconds = targetBatchSeconds;
+			return this;
+		}
+
+		/**
+		 * @param maxWorkUnits
+		 *            maximum number of work units per loop.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withMaxWorkUnits(final int maxWorkUnits) {
+			this.maxWorkUnits = maxWorkUnits;
+			return this;
+		}
+
+		/**
+		 * @param batchParallel
+		 *            whether the elements of a work unit are processed in parallel.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withBatchParallel(final boolean batchParallel) {
+			this.batchParallel = batchParallel;
+			return this;
+		}
+
+		/**
+		 * @param parameterSweeps
+		 *            whether loops are mapped to gUSE parameter sweeps.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withParameterSweeps(final boolean parameterSweeps) {
+			this.parameterSweeps = parameterSweeps;
+			return this;
+		}
+
+		/**
+		 * @param remoteReferenceThresholdBytes
+		 *            minimum size, in bytes, of inputs that are referenced remotely, {@code 0} to disable this.
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withRemoteReferenceThresholdBytes(final long remoteReferenceThresholdBytes) {
+			this.remoteReferenceThresholdBytes = remoteReferenceThresholdBytes;
+			return this;
+		}
+
+		/**
+		 * @param localPrefix
+		 *            prefix of local paths.
+		 * @param remotePrefix
+		 *            prefix under which execution resources find the files under {@code localPrefix} (e.g., a URL or
+		 *            the mount point of a shared file system).
+		 * @return a reference to {@code this} builder.
+		 */
+		public Builder withRemotePathMapping(final String localPrefix, final String remotePrefix) {
+			Validate.notEmpty(localPrefix, "localPrefix cannot be null or empty");
+			Validate.notEmpty(remotePrefix, "remotePrefix cannot be null or empty");
+			this.remotePathMappings.put(localPrefix, remotePrefix);
+			return this;
+		}
+
+		/**
+		 * @return a new instance of {@link GuseExportSettings}.
+		 */
+		public GuseExportSettings newInstance() {
+			return new GuseExportSettings(pipelineQueueSize, compressionThreads, scatterSpaceBytes, incrementalExport, maxAttempts, retryBackoffSeconds,
+					outputTimeoutSeconds, scratchStaging, scratchDirectory, resourceRequests, resourceSafetyFactor, runtimeStatisticsDirectory,
+					generatorBatching, targetBatchSeconds, maxWorkUnits, batchParallel, parameterSweeps,
+					remoteReferenceThresholdBytes, remotePathMappings);
+		}
+	}
+}
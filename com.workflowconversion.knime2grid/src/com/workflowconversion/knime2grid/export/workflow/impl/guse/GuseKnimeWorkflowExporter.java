@@ -18,53 +18,71 @@
  */
 package com.workflowconversion.knime2grid.export.workflow.impl.guse;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.zip.GZIPOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang.StringEscapeUtils;
-import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.knime.core.node.NodeLogger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import com.genericworkflownodes.knime.commandline.CommandLineElement;
 import com.workflowconversion.knime2grid.KnimeWorkflowExporterActivator;
 import com.workflowconversion.knime2grid.exception.ApplicationException;
+import com.workflowconversion.knime2grid.export.cache.ArchiveIndex;
+import com.workflowconversion.knime2grid.export.cache.ConversionCache;
+import com.workflowconversion.knime2grid.export.cache.RuntimeHistory;
+import com.workflowconversion.knime2grid.export.io.staging.FileStager;
+import com.workflowconversion.knime2grid.export.io.zip.BufferedSeekableByteChannel;
+import com.workflowconversion.knime2grid.export.io.zip.CompressionReport;
+import com.workflowconversion.knime2grid.export.io.zip.EntryContent;
+import com.workflowconversion.knime2grid.export.io.zip.ParallelZipEntryWriter;
+import com.workflowconversion.knime2grid.export.io.zip.SequentialZipEntryWriter;
+import com.workflowconversion.knime2grid.export.io.zip.ZipEntryWriter;
 import com.workflowconversion.knime2grid.export.workflow.KnimeWorkflowExporter;
 import com.workflowconversion.knime2grid.format.ExtensionFilter;
 import com.workflowconversion.knime2grid.model.ConnectionType;
+import com.workflowconversion.knime2grid.model.DataHandle;
 import com.workflowconversion.knime2grid.model.Input;
 import com.workflowconversion.knime2grid.model.Job;
 import com.workflowconversion.knime2grid.model.JobType;
@@ -86,6 +104,28 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 	private static final String OUTPUT_PORTS_WITH_FILELIST_SCRIPT_KEY = "@@OUTPUT_PORTS_WITH_FILELIST@@";
 	private static final String COMMAND_LINE_PARAMETERS_SCRIPT_KEY = "@@COMMAND_LINE_PARAMETERS@@";
 	private static final String INPUT_FILENAME_TRANSLATION_SCRIPT_KEY = "@@INPUT_FILENAME_TRANSLATION@@";
+	private static final String EXPECTED_OUTPUTS_SCRIPT_KEY = "@@EXPECTED_OUTPUTS@@";
+	private static final String MAX_ATTEMPTS_SCRIPT_KEY = "@@MAX_ATTEMPTS@@";
+	private static final String RETRY_BACKOFF_SECONDS_SCRIPT_KEY = "@@RETRY_BACKOFF_SECONDS@@";
+	private static final String OUTPUT_TIMEOUT_SECONDS_SCRIPT_KEY = "@@OUTPUT_TIMEOUT_SECONDS@@";
+	private static final String INPUT_PORTS_SCRIPT_KEY = "@@INPUT_PORTS@@";
+	private static final String OUTPUT_PORTS_SCRIPT_KEY = "@@OUTPUT_PORTS@@";
+	private static final String SCRATCH_STAGING_SCRIPT_KEY = "@@SCRATCH_STAGING@@";
+	private static final String SCRATCH_DIRECTORY_SCRIPT_KEY = "@@SCRATCH_DIRECTORY@@";
+	private static final String TOOL_ID_SCRIPT_KEY = "@@TOOL_ID@@";
+	private static final String INPUT_PORT_NAME_SCRIPT_KEY = "@@INPUT_PORT_NAME@@";
+	private static final String OUTPUT_BASE_NAME_SCRIPT_KEY = "@@OUTPUT_BASE_NAME@@";
+	private static final String INPUT_BASE_NAME_SCRIPT_KEY = "@@INPUT_BASE_NAME@@";
+	private static final String OUTPUT_PORT_NAME_SCRIPT_KEY = "@@OUTPUT_PORT_NAME@@";
+	private static final String BATCH_INPUT_PORTS_SCRIPT_KEY = "@@BATCH_INPUT_PORTS@@";
+	private static final String BATCH_PARALLEL_SCRIPT_KEY = "@@BATCH_PARALLEL@@";
+	private static final String REQUESTED_CORES_SCRIPT_KEY = "@@REQUESTED_CORES@@";
+	private static final String BATCHING_SCRIPT_KEY = "@@BATCHING@@";
+	private static final String TARGET_BATCH_MILLIS_SCRIPT_KEY = "@@TARGET_BATCH_MILLIS@@";
+	private static final String ELEMENT_MILLIS_SCRIPT_KEY = "@@ELEMENT_MILLIS@@";
+	private static final String MAX_WORK_UNITS_SCRIPT_KEY = "@@MAX_WORK_UNITS@@";
+	private static final String GENERATOR_OUTPUT_PORTS_SCRIPT_KEY = "@@GENERATOR_OUTPUT_PORTS@@";
+	private static final String COLLECTED_INPUT_PORTS_SCRIPT_KEY = "@@COLLECTED_INPUT_PORTS@@";
 	private static final String FILENAME_TRANSLATION_VAR_PREFIX = "KNIME2GRID_VAR_";
 	private static final String QUOTE_REGEX = "\"";
 	private static final String QUOTE_REPLACEMENT_FOR_BASH_SCRIPT = "\\\"";
@@ -93,6 +133,45 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 	private static final String LOCAL_EXECUTOR_NAME = "dci-bridge host(64bit)";
 	private static final NodeLogger LOGGER = NodeLogger.getLogger(GuseKnimeWorkflowExporter.class);
 	private static final char ZIP_ENTRY_SEPARATOR = '/';
+	static final int STREAM_BUFFER_SIZE = 64 * 1024;
+	private static final String WORKFLOW_DESCRIPTOR_ENTRY_NAME = "workflow.xml";
+	// protocols the execution resources can fetch data from by themselves, other URLs (e.g., knime://) are meaningless
+	// outside of the workbench that exported the workflow
+	private static final Set<String> GRID_REACHABLE_PROTOCOLS = Collections
+			.unmodifiableSet(new HashSet<String>(Arrays.asList("http", "https", "ftp", "gsiftp", "srm")));
+	// the archive being replaced by an incremental export is kept next to the new one under this suffix
+	private static final String PREVIOUS_ARCHIVE_SUFFIX = ".previous";
+	// bump this version whenever the way in which inputs are written changes, so entries of older archives are not copied
+	private static final String INPUT_FINGERPRINT_NAMESPACE = GuseKnimeWorkflowExporter.class.getName() + ":input:1";
+	private static final String SCRIPT_FINGERPRINT_NAMESPACE = GuseKnimeWorkflowExporter.class.getName() + ":script:1";
+	// description keys are prefixed by the type of the resource, e.g., unicore.keyWalltime
+	private static final String WALLTIME_DESCRIPTION_KEY = ".keyWalltime";
+	private static final String MEMORY_DESCRIPTION_KEY = ".keyMemory";
+	private static final String CORES_DESCRIPTION_KEY = ".keyCPUs";
+
+	// null if resources are never requested
+	private final RuntimeHistory runtimeHistory;
+
+	// script templates are parsed once per exporter, the first time they're needed
+	private ScriptTemplate jobWrapperTemplate;
+	private ScriptTemplate zipLoopStartTemplate;
+	private ScriptTemplate zipLoopEndTemplate;
+
+	/**
+	 * Creates an exporter that doesn't request resources for jobs.
+	 */
+	public GuseKnimeWorkflowExporter() {
+		this(null);
+	}
+
+	/**
+	 * @param runtimeHistory
+	 *            history of previous runs of tools, used to request walltime, memory and cores for jobs, or {@code null}
+	 *            to never request resources.
+	 */
+	public GuseKnimeWorkflowExporter(final RuntimeHistory runtimeHistory) {
+		this.runtimeHistory = runtimeHistory;
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -199,14 +278,329 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 			LOGGER.debug("exporting using " + getShortDescription() + " to [" + destination.getAbsolutePath() + "]");
 		}
 
+		final GuseExportSettings settings = loadSettings();
+		loadScriptTemplates();
 		validateWorkflow(workflow);
 		fixWorkflowForGuse(workflow);
+		final Map<Input, String> remoteReferences = resolveRemoteReferences(workflow, settings);
+		final Map<Job, RuntimeHistory.Estimate> resourceEstimates = estimateResources(workflow, settings, remoteReferences);
+
+		// the index of the archive being replaced is removed before anything else, so an index never describes an
+		// archive that was only partially written
+		final File indexFile = ArchiveIndex.getIndexFile(destination);
+		recoverPreviousArchive(destination, indexFile);
+		final ArchiveIndex previousIndex = settings.isIncrementalExport() && destination.isFile() ? readIndex(indexFile) : null;
+		Files.deleteIfExists(indexFile.toPath());
+		// the archive being replaced is kept until the new one is complete, unchanged inputs are copied from it
+		final File previousArchive = previousIndex == null ? null : setAsidePreviousArchive(destination);
+		try {
+			final ExportContext context = new ExportContext(settings, remoteReferences, resourceEstimates, previousArchive, previousIndex);
+			try {
+				final LoopPlanner loopPlanner = new LoopPlanner(workflow, context);
+				loopPlanner.planParameterSweeps();
+				loopPlanner.planLoopBatching();
+				writeArchive(workflow, destination, context);
+			} finally {
+				context.close();
+			}
+			if (settings.isIncrementalExport()) {
+				context.index.write(indexFile);
+			}
+		} catch (final Throwable e) {
+			if (previousArchive != null) {
+				// failing to restore the previous archive must not hide the reason why the export failed
+				try {
+					Files.move(previousArchive.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} catch (final IOException restoreException) {
+					e.addSuppressed(restoreException);
+				}
+			}
+			throw e;
+		}
+		if (previousArchive != null) {
+			FileUtils.deleteQuietly(previousArchive);
+		}
+	}
+
+	private void writeArchive(final Workflow workflow, final File destination, final ExportContext context) throws Exception {
+		// a seekable archive lets the sizes of the entries be written into the local headers after their content, so
+		// nothing needs to be held in memory and Zip64 extensions are used for large entries as needed; the channel
+		// is buffered, since headers and compressed data are written in small chunks
+		findDuplicateInputs(workflow, context);
+		final SeekableByteChannel archiveChannel = BufferedSeekableByteChannel.open(destination);
+		final ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(archiveChannel);
+		zipOutputStream.setUseZip64(Zip64Mode.AsNeeded);
+		try {
+			final ZipEntryWriter entryWriter = createEntryWriter(zipOutputStream, archiveChannel, context);
+			try {
+				if (isPipelined(workflow, context.settings)) {
+					// workflow.xml is the only entry that needs to see the whole workflow, so we write it last
+					writeJobs(workflow, entryWriter, context);
+					writeWorkflowDescriptor(workflow, entryWriter, context);
+				} else {
+					writeWorkflowDescriptor(workflow, entryWriter, context);
+					writeJobs(workflow, entryWriter, context);
+				}
+				entryWriter.finish();
+				logCompressionReport(context.compressionReport);
+				if (context.duplicateEntries > 0) {
+					LOGGER.info(String.format("Copied %d duplicate inputs (%s) instead of compressing them again", context.duplicateEntries,
+							FileUtils.byteCountToDisplaySize(context.duplicateBytes)));
+				}
+				if (context.previousArchive != null) {
+					LOGGER.info(String.format("Copied %d unchanged inputs (%s) from the previous archive", context.reusedEntries,
+							FileUtils.byteCountToDisplaySize(context.reusedBytes)));
+				}
+			} finally {
+				entryWriter.close();
+			}
+		} finally {
+			zipOutputStream.close();
+		}
+	}
+
+	// the same reference file or CTD is often used by many jobs, but gUSE needs a copy in the folder of each job; to
+	// compress identical inputs only once, they are first grouped by size and only inputs sharing a size are hashed
+	private void findDuplicateInputs(final Workflow workflow, final ExportContext context) throws IOException {
+		final Map<Long, List<Input>> inputsBySize = new HashMap<Long, List<Input>>();
+		for (final Job job : workflow.getJobs()) {
+			for (final Input input : job.getInputs()) {
+				if (input.getConnectionType() != ConnectionType.UserProvided || context.remoteReferences.containsKey(input)) {
+					continue;
+				}
+				final long size = getLocalSize(input);
+				if (size != ZipEntryWriter.UNKNOWN_SIZE) {
+					List<Input> inputs = inputsBySize.get(size);
+					if (inputs == null) {
+						inputs = new LinkedList<Input>();
+						inputsBySize.put(size, inputs);
+					}
+					inputs.add(input);
+				}
+			}
+		}
+		final Set<String> fingerprints = new HashSet<String>();
+		for (final Map.Entry<Long, List<Input>> entry : inputsBySize.entrySet()) {
+			if (entry.getValue().size() > 1) {
+				context.duplicateSizes.add(entry.getKey());
+				for (final Input input : entry.getValue()) {
+					final String fingerprint = fingerprint(input, context);
+					if (!fingerprints.add(fingerprint)) {
+						context.duplicateFingerprints.add(fingerprint);
+					}
+				}
+			}
+		}
+	}
+
+	// remote data would need to be downloaded just to find out whether it's a duplicate
+	private long getLocalSize(final Input input) throws IOException {
+		long size = 0;
+		for (final DataHandle dataHandle : input.getDataHandles()) {
+			if (!dataHandle.isLocal()) {
+				return ZipEntryWriter.UNKNOWN_SIZE;
+			}
+			size += dataHandle.getLocalFile().length();
+		}
+		return size;
+	}
+
+	private ArchiveIndex readIndex(final File indexFile) {
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		try {
+			return ArchiveIndex.read(indexFile);
+		} catch (final IOException e) {
+			LOGGER.warn("Could not read " + indexFile + ", all entries will be written from scratch", e);
+			return null;
+		}
+	}
+
+	private File setAsidePreviousArchive(final File destination) throws IOException {
+		final File previousArchive = getPreviousArchiveFile(destination);
+		Files.move(destination.toPath(), previousArchive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return previousArchive;
+	}
+
+	private File getPreviousArchiveFile(final File destination) {
+		return new File(destination.getPath() + PREVIOUS_ARCHIVE_SUFFIX);
+	}
+
+	// an archive set aside by an export that didn't finish (e.g., KNIME crashed) is still there: if the index of the new
+	// archive was written, the new archive is complete and the previous one is no longer needed, otherwise the new
+	// archive is incomplete (or missing) and the previous one is restored
+	private void recoverPreviousArchive(final File destination, final File indexFile) throws IOException {
+		final File previousArchive = getPreviousArchiveFile(destination);
+		if (!previousArchive.isFile()) {
+			return;
+		}
+		if (indexFile.isFile()) {
+			LOGGER.warn("Removing " + previousArchive + ", which was left behind by a previous export");
+			Files.delete(previousArchive.toPath());
+		} else {
+			LOGGER.warn("The previous export to " + destination + " did not finish, restoring the archive it replaced");
+			Files.move(previousArchive.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// entries are written in the same order regardless of the number of threads; duplicates are copied from the archive
+	private ZipEntryWriter createEntryWriter(final ZipArchiveOutputStream zipOutputStream, final SeekableByteChannel archiveChannel,
+			final ExportContext context) throws IOException {
+		final GuseExportSettings settings = context.settings;
+		if (settings.getCompressionThreads() > 1) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Compressing entries using " + settings.getCompressionThreads() + " threads");
+			}
+			return new ParallelZipEntryWriter(zipOutputStream, archiveChannel, settings.getCompressionThreads(), settings.getScatterSpaceBytes(),
+					context.compressionPolicy, context.compressionReport);
+		}
+		return new SequentialZipEntryWriter(zipOutputStream, archiveChannel, context.compressionPolicy, context.compressionReport);
+	}
+
+	private void logCompressionReport(final CompressionReport compressionReport) {
+		if (LOGGER.isDebugEnabled()) {
+			for (final CompressionReport.Entry entry : compressionReport.getEntries()) {
+				LOGGER.debug(entry);
+			}
+		}
+		LOGGER.info("Compressed gUSE archive entries: " + compressionReport.getSummary());
+	}
+
+	private synchronized void loadScriptTemplates() throws IOException {
+		if (jobWrapperTemplate == null) {
+			jobWrapperTemplate = ScriptTemplate.load(getClass(), "job_wrapper.sh", EXECUTABLE_SCRIPT_KEY, INPUT_PORTS_WITH_FILELIST_SCRIPT_KEY,
+					OUTPUT_PORTS_WITH_FILELIST_SCRIPT_KEY, COMMAND_LINE_PARAMETERS_SCRIPT_KEY, INPUT_FILENAME_TRANSLATION_SCRIPT_KEY,
+					EXPECTED_OUTPUTS_SCRIPT_KEY, MAX_ATTEMPTS_SCRIPT_KEY, RETRY_BACKOFF_SECONDS_SCRIPT_KEY, OUTPUT_TIMEOUT_SECONDS_SCRIPT_KEY,
+					INPUT_PORTS_SCRIPT_KEY, OUTPUT_PORTS_SCRIPT_KEY, SCRATCH_STAGING_SCRIPT_KEY, SCRATCH_DIRECTORY_SCRIPT_KEY, TOOL_ID_SCRIPT_KEY,
+					BATCH_INPUT_PORTS_SCRIPT_KEY, BATCH_PARALLEL_SCRIPT_KEY, GENERATOR_OUTPUT_PORTS_SCRIPT_KEY, COLLECTED_INPUT_PORTS_SCRIPT_KEY,
+					REQUESTED_CORES_SCRIPT_KEY);
+			zipLoopStartTemplate = ScriptTemplate.load(getClass(), "zip_loop_start.sh", INPUT_PORT_NAME_SCRIPT_KEY, OUTPUT_BASE_NAME_SCRIPT_KEY,
+					BATCHING_SCRIPT_KEY, TARGET_BATCH_MILLIS_SCRIPT_KEY, ELEMENT_MILLIS_SCRIPT_KEY, MAX_WORK_UNITS_SCRIPT_KEY);
+			zipLoopEndTemplate = ScriptTemplate.load(getClass(), "zip_loop_end.sh", INPUT_BASE_NAME_SCRIPT_KEY, OUTPUT_PORT_NAME_SCRIPT_KEY,
+					BATCHING_SCRIPT_KEY);
+		}
+	}
+
+	private GuseExportSettings loadSettings() {
+		final KnimeWorkflowExporterActivator plugin = KnimeWorkflowExporterActivator.getDefault();
+		if (plugin == null) {
+			// not running inside of KNIME, use the defaults
+			return new GuseExportSettings.Builder().newInstance();
+		}
+		return GuseExportSettings.fromPreferences(plugin.getPreferenceStore());
+	}
+
+	// inputs can be explicitly referenced remotely, other inputs are referenced remotely if they are large enough and
+	// the execution resources can find them; multi-file inputs are always packed into the archive
+	private Map<Input, String> resolveRemoteReferences(final Workflow workflow, final GuseExportSettings settings) {
+		final Map<Input, String> remoteReferences = new IdentityHashMap<Input, String>();
+		for (final Job job : workflow.getJobs()) {
+			for (final Input input : job.getInputs()) {
+				if (input.getConnectionType() != ConnectionType.UserProvided) {
+					continue;
+				}
+				String remoteReference = input.getRemoteReference();
+				if (remoteReference == null && settings.getRemoteReferenceThresholdBytes() > 0 && !input.isMultiFile()) {
+					final DataHandle dataHandle = input.getDataHandles().get(0);
+					// we don't know how big remote content is, but it's not worth downloading it just to include it
+					if (dataHandle.getExpectedSize() == DataHandle.UNKNOWN_SIZE
+							|| dataHandle.getExpectedSize() >= settings.getRemoteReferenceThresholdBytes()) {
+						remoteReference = getRemoteLocation(dataHandle, settings);
+					}
+				}
+				if (remoteReference != null) {
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Input " + input.getName() + " of job " + job.getName() + " will be referenced as " + remoteReference);
+					}
+					remoteReferences.put(input, remoteReference);
+				}
+			}
+		}
+		return remoteReferences;
+	}
+
+	// URLs the execution resources can reach can be used as they are, local paths need to be mapped; data that can't
+	// be referenced is included in the archive
+	private String getRemoteLocation(final DataHandle dataHandle, final GuseExportSettings settings) {
+		if (!dataHandle.isLocal()) {
+			if (GRID_REACHABLE_PROTOCOLS.contains(dataHandle.getUrl().getProtocol().toLowerCase())) {
+				return dataHandle.getLocation();
+			}
+			LOGGER.warn(String.format("The execution resources can't access %s, it will be included in the archive", dataHandle.getLocation()));
+			return null;
+		}
+		final String path = FilenameUtils.separatorsToUnix(dataHandle.getLocalFile().getAbsolutePath());
+		for (final Map.Entry<String, String> mapping : settings.getRemotePathMappings().entrySet()) {
+			// prefixes are whole directories, i.e., /data must not match /database/file; a trailing slash is optional
+			final String localPrefix = StringUtils.removeEnd(FilenameUtils.separatorsToUnix(mapping.getKey()), "/");
+			if (path.equals(localPrefix) || path.startsWith(localPrefix + '/')) {
+				return StringUtils.removeEnd(mapping.getValue(), "/") + path.substring(localPrefix.length());
+			}
+		}
+		LOGGER.warn(String.format("%s is larger than the configured threshold, but there is no remote location for it; it will be included in the archive",
+				dataHandle.getLocation()));
+		return null;
+	}
+
+	// jobs running tools that have run before get estimates of the resources they need; statistics of finished jobs
+	// are added to the history first, so the estimates are as recent as possible
+	private Map<Job, RuntimeHistory.Estimate> estimateResources(final Workflow workflow, final GuseExportSettings settings,
+			final Map<Input, String> remoteReferences) throws IOException {
+		final Map<Job, RuntimeHistory.Estimate> resourceEstimates = new IdentityHashMap<Job, RuntimeHistory.Estimate>();
+		if (runtimeHistory == null || !settings.isResourceRequests()) {
+			return resourceEstimates;
+		}
+		if (!settings.getRuntimeStatisticsDirectory().isEmpty()) {
+			try {
+				runtimeHistory.ingest(new File(settings.getRuntimeStatisticsDirectory()));
+			} catch (final IOException e) {
+				LOGGER.warn("Could not add the statistics under " + settings.getRuntimeStatisticsDirectory() + " to the runtime history", e);
+			}
+		}
+		final Set<Job> estimatedJobs = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+		for (final Job job : workflow.getJobs()) {
+			estimateResources(job, workflow, remoteReferences, resourceEstimates, estimatedJobs);
+		}
+		LOGGER.info(String.format("Requesting resources for %d of %d jobs based on previous runs", resourceEstimates.size(), workflow.getJobs().size()));
+		return resourceEstimates;
+	}
 
-		final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(destination));
+	// the size of the inputs of a job depends on the outputs of the jobs before it, which are estimated first
+	private RuntimeHistory.Estimate estimateResources(final Job job, final Workflow workflow, final Map<Input, String> remoteReferences,
+			final Map<Job, RuntimeHistory.Estimate> resourceEstimates, final Set<Job> estimatedJobs) throws IOException {
+		if (!estimatedJobs.add(job)) {
+			return resourceEstimates.get(job);
+		}
+		// generators and collectors run on the local executor
+		if (job.getToolId() == null || job.getJobType() == JobType.Generator || job.getJobType() == JobType.Collector) {
+			return null;
+		}
+		long inputBytes = 0;
+		for (final Input input : job.getInputs()) {
+			final long size;
+			if (input.getConnectionType() == ConnectionType.UserProvided) {
+				size = remoteReferences.containsKey(input) ? input.getDataHandles().get(0).getExpectedSize() : getLocalSize(input);
+			} else {
+				final RuntimeHistory.Estimate sourceEstimate = estimateResources(workflow.getJob(input.getSourceId()), workflow, remoteReferences,
+						resourceEstimates, estimatedJobs);
+				size = sourceEstimate == null ? RuntimeHistory.UNKNOWN_SIZE : sourceEstimate.getOutputBytes();
+			}
+			if (size < 0) {
+				inputBytes = RuntimeHistory.UNKNOWN_SIZE;
+				break;
+			}
+			inputBytes += size;
+		}
+		final RuntimeHistory.Estimate estimate = runtimeHistory.estimate(job.getToolId(), inputBytes);
+		if (estimate != null) {
+			resourceEstimates.put(job, estimate);
+		}
+		return estimate;
+	}
 
-		writeWorkflowDescriptor(workflow, zipOutputStream);
-		writeJobs(workflow, zipOutputStream);
-		zipOutputStream.close();
+	private boolean isPipelined(final Workflow workflow, final GuseExportSettings settings) {
+		return settings.getPipelineQueueSize() > 0 && workflow.getJobs().size() > 1;
 	}
 
 	// check that all input ports have been assigned
@@ -265,78 +659,259 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 		}
 	}
 
-	private void writeWorkflowDescriptor(final Workflow workflow, final ZipOutputStream zipOutputStream)
-			throws IOException, TransformerException, ParserConfigurationException {
-		final StringBuilder builder = new StringBuilder();
-		generateWorkflowXml(workflow, builder);
-		zipOutputStream.putNextEntry(new ZipEntry("workflow.xml"));
-		zipOutputStream.write(formatXml(builder.toString()).getBytes());
-		zipOutputStream.closeEntry();
+	private void writeWorkflowDescriptor(final Workflow workflow, final ZipEntryWriter entryWriter, final ExportContext context) throws IOException {
+		entryWriter.writeEntry(WORKFLOW_DESCRIPTOR_ENTRY_NAME, new EntryContent() {
+			@Override
+			public void writeTo(final OutputStream outputStream) throws IOException {
+				try {
+					generateWorkflowXml(workflow, outputStream, context);
+				} catch (final XMLStreamException e) {
+					throw new IOException("Could not write " + WORKFLOW_DESCRIPTOR_ENTRY_NAME, e);
+				}
+			}
+
+			@Override
+			public String getSourceName() {
+				return WORKFLOW_DESCRIPTOR_ENTRY_NAME;
+			}
+		}, ZipEntryWriter.UNKNOWN_SIZE);
 	}
 
-	private void writeJobs(final Workflow workflow, final ZipOutputStream zipOutputStream) throws IOException, TransformerException {
+	private void writeJobs(final Workflow workflow, final ZipEntryWriter entryWriter, final ExportContext context) throws Exception {
 		// add a folder named after the workflow
 		final String rootEntryName = workflow.getName() + ZIP_ENTRY_SEPARATOR;
-		zipOutputStream.putNextEntry(new ZipEntry(rootEntryName));
-		for (final Job job : workflow.getJobs()) {
-			writeJob(rootEntryName, zipOutputStream, job);
+		entryWriter.writeDirectory(rootEntryName);
+		if (isPipelined(workflow, context.settings)) {
+			writeJobsPipelined(rootEntryName, entryWriter, workflow, context);
+		} else {
+			for (final Job job : workflow.getJobs()) {
+				if (!context.sweptJobs.contains(job)) {
+					writeJob(entryWriter, prepareJob(rootEntryName, job, context), context);
+				}
+			}
+		}
+	}
+
+	// preparing a job (generating its script, downloading remote files of multi-file inputs) doesn't need the archive,
+	// so jobs are prepared on a separate thread while the previous ones are being written;
+	// at most queueSize jobs are prepared ahead of the writer
+	private void writeJobsPipelined(final String rootEntryName, final ZipEntryWriter entryWriter, final Workflow workflow, final ExportContext context)
+			throws Exception {
+		final int queueSize = context.settings.getPipelineQueueSize();
+		final ExecutorService preparer = Executors.newSingleThreadExecutor();
+		try {
+			final Deque<Future<PreparedJob>> preparedJobs = new ArrayDeque<Future<PreparedJob>>(queueSize);
+			for (final Job job : workflow.getJobs()) {
+				if (context.sweptJobs.contains(job)) {
+					continue;
+				}
+				if (preparedJobs.size() == queueSize) {
+					writeJob(entryWriter, getPreparedJob(preparedJobs.removeFirst()), context);
+				}
+				preparedJobs.addLast(preparer.submit(new Callable<PreparedJob>() {
+					@Override
+					public PreparedJob call() throws Exception {
+						return prepareJob(rootEntryName, job, context);
+					}
+				}));
+			}
+			while (!preparedJobs.isEmpty()) {
+				writeJob(entryWriter, getPreparedJob(preparedJobs.removeFirst()), context);
+			}
+		} finally {
+			preparer.shutdownNow();
 		}
-		zipOutputStream.closeEntry();
 	}
 
-	private void writeJob(final String rootEntryName, final ZipOutputStream zipOutputStream, final Job job) throws IOException {
-		final String jobEntryName = rootEntryName + job.getName() + ZIP_ENTRY_SEPARATOR;
-		zipOutputStream.putNextEntry(new ZipEntry(jobEntryName));
-		writeExecuteBin(jobEntryName, zipOutputStream, job);
-		if (hasInputs(job)) {
-			writeInputs(jobEntryName, zipOutputStream, job);
+	private PreparedJob getPreparedJob(final Future<PreparedJob> preparedJob) throws Exception {
+		try {
+			return preparedJob.get();
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
 		}
-		zipOutputStream.closeEntry();
 	}
 
-	// gUSE requires an executable script named execute.bin (we use
-	// job_srapper/zip_loop_start/zip_loop_end
-	private void writeExecuteBin(final String rootEntryName, final ZipOutputStream zipOutputStream, final Job job) throws IOException {
-		final String scriptContents;
+	private PreparedJob prepareJob(final String rootEntryName, final Job job, final ExportContext context) throws IOException {
+		final PreparedJob preparedJob = new PreparedJob(rootEntryName + job.getName() + ZIP_ENTRY_SEPARATOR);
+		preparedJob.executeBin = generateExecuteBin(job, context).toString().getBytes(StandardCharsets.UTF_8);
+		preparedJob.executeBinFingerprint = new ConversionCache.KeyBuilder(SCRIPT_FINGERPRINT_NAMESPACE).add(preparedJob.executeBin).build();
+		if (hasInputs(job, context)) {
+			prepareInputs(preparedJob, job, context);
+		}
+		return preparedJob;
+	}
+
+	private void writeJob(final ZipEntryWriter entryWriter, final PreparedJob preparedJob, final ExportContext context) throws IOException {
+		entryWriter.writeDirectory(preparedJob.jobEntryName);
+		// gUSE requires an executable script named execute.bin; jobs running the same tool with the same parameters
+		// (e.g., the iterations of a loop) get identical scripts, which are compressed only twice: jobs are prepared
+		// while others are being written, so the first occurrence of a script is written as a regular entry, the
+		// second one as a shared entry and all others as duplicates of the shared one
+		final String executeBinEntryName = preparedJob.jobEntryName + "execute.bin";
+		final String fingerprint = preparedJob.executeBinFingerprint;
+		final String sharedEntryName = context.sharedScripts.get(fingerprint);
+		final EntryContent executeBin = bytesContent(executeBinEntryName, preparedJob.executeBin);
+		if (sharedEntryName != null) {
+			entryWriter.writeDuplicate(executeBinEntryName, sharedEntryName);
+		} else if (context.writtenScripts.add(fingerprint)) {
+			entryWriter.writeEntry(executeBinEntryName, executeBin, preparedJob.executeBin.length);
+		} else {
+			entryWriter.writeSharedEntry(executeBinEntryName, executeBin, preparedJob.executeBin.length);
+			context.sharedScripts.put(fingerprint, executeBinEntryName);
+		}
+		if (!preparedJob.inputs.isEmpty()) {
+			entryWriter.writeDirectory(preparedJob.jobEntryName + "inputs" + ZIP_ENTRY_SEPARATOR);
+			for (final PreparedInput preparedInput : preparedJob.inputs) {
+				writeInput(entryWriter, preparedInput);
+			}
+		}
+	}
+
+	private void writeInput(final ZipEntryWriter entryWriter, final PreparedInput preparedInput) throws IOException {
+		final ExportContext context = preparedInput.context;
+		final String fingerprint = preparedInput.fingerprint;
+		if (fingerprint == null) {
+			entryWriter.writeEntry(preparedInput.entryName, preparedInput, preparedInput.expectedSize);
+			return;
+		}
+		context.index.putFingerprint(preparedInput.entryName, fingerprint);
+		final String sharedEntryName = context.sharedEntries.get(fingerprint);
+		if (sharedEntryName != null) {
+			entryWriter.writeDuplicate(preparedInput.entryName, sharedEntryName);
+			context.duplicateEntries++;
+			context.duplicateBytes += preparedInput.expectedSize;
+			return;
+		}
+		final ZipArchiveEntry previousEntry = context.getReusableEntry(preparedInput.entryName, fingerprint);
+		if (previousEntry != null) {
+			entryWriter.copyEntry(context.previousArchive, previousEntry);
+			context.reusedEntries++;
+			context.reusedBytes += previousEntry.getSize();
+		} else if (context.duplicateFingerprints.contains(fingerprint)) {
+			entryWriter.writeSharedEntry(preparedInput.entryName, preparedInput, preparedInput.expectedSize);
+			context.sharedEntries.put(fingerprint, preparedInput.entryName);
+		} else {
+			entryWriter.writeEntry(preparedInput.entryName, preparedInput, preparedInput.expectedSize);
+		}
+	}
+
+	private EntryContent bytesContent(final String sourceName, final byte[] bytes) {
+		return new EntryContent() {
+			@Override
+			public void writeTo(final OutputStream outputStream) throws IOException {
+				outputStream.write(bytes);
+			}
+
+			@Override
+			public String getSourceName() {
+				return sourceName;
+			}
+		};
+	}
+
+	// gUSE doesn't support file lists, so the files of multi-file inputs are packed into a tar.gz that is piped
+	// straight into the current entry of the archive
+	private static void writePackedFiles(final OutputStream outputStream, final List<DataHandle> dataHandles, final ExportContext context)
+			throws IOException {
+		// the shield makes sure that closing the tar stream does not close the archive
+		final TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(context.newGzipOutputStream(new CloseShieldOutputStream(outputStream)));
+		try {
+			tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+			tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			int fileIndex = 0;
+			for (final DataHandle dataHandle : dataHandles) {
+				// tar entries need to know their size in advance, so remote data has been downloaded already
+				final File inputFile = context.dataFetcher.getLocalFile(dataHandle);
+				// the index keeps entry names unique, files from different folders could have the same name
+				final String tarEntryName = fileIndex + "_" + dataHandle.getName();
+				tarOutputStream.putArchiveEntry(new TarArchiveEntry(inputFile, tarEntryName));
+				try (final InputStream inputStream = FileStager.openDirect(inputFile, tarEntryName)) {
+					IOUtils.copyLarge(inputStream, tarOutputStream, new byte[STREAM_BUFFER_SIZE]);
+				}
+				tarOutputStream.closeArchiveEntry();
+				fileIndex++;
+			}
+		} finally {
+			tarOutputStream.close();
+		}
+	}
+
+	// we use job_wrapper/zip_loop_start/zip_loop_end
+	// scripts are rendered into the buffer of the context, which is reused for all jobs
+	private StringBuilder generateExecuteBin(final Job job, final ExportContext context) {
 		switch (job.getJobType()) {
 			case Generator :
-				scriptContents = generateGeneratorScript(job);
-				break;
+				return generateGeneratorScript(job, context);
 			case Collector :
-				scriptContents = generateCollectorScript(job);
-				break;
+				return generateCollectorScript(job, context);
 			default :
-				scriptContents = generateDefaultScript(job);
+				return generateDefaultScript(job, context);
 		}
-		zipOutputStream.putNextEntry(new ZipEntry(rootEntryName + "execute.bin"));
-		zipOutputStream.write(scriptContents.getBytes());
-		zipOutputStream.closeEntry();
 	}
 
-	private String generateGeneratorScript(final Job job) throws IOException {
+	private StringBuilder generateGeneratorScript(final Job job, final ExportContext context) {
 		// TODO: this is hackish, we know (assume) that generator jobs have one input and one output
 		final Input input = job.getInputs().iterator().next();
 		final Output output = job.getOutputs().iterator().next();
-		return loadScript("zip_loop_start.sh", "@@INPUT_PORT_NAME@@", fixPortName(input), "@@OUTPUT_BASE_NAME@@", fixPortName(output));
+		final Long elementMillis = context.batchedGenerators.get(job);
+		return zipLoopStartTemplate.newValues().with(INPUT_PORT_NAME_SCRIPT_KEY, fixPortName(input))
+				.with(OUTPUT_BASE_NAME_SCRIPT_KEY, fixPortName(output)).with(BATCHING_SCRIPT_KEY, Boolean.toString(elementMillis != null))
+				.with(TARGET_BATCH_MILLIS_SCRIPT_KEY, Long.toString(context.settings.getTargetBatchSeconds() * 1000L))
+				.with(ELEMENT_MILLIS_SCRIPT_KEY, Long.toString(elementMillis == null ? 0 : elementMillis))
+				.with(MAX_WORK_UNITS_SCRIPT_KEY, Integer.toString(context.settings.getMaxWorkUnits())).render(context.scriptBuffer);
 	}
 
-	private String generateCollectorScript(final Job job) throws IOException {
+	private StringBuilder generateCollectorScript(final Job job, final ExportContext context) {
 		// TODO: this is hackish, we know (assume) that collector jobs have one input and one output
 		final Input input = job.getInputs().iterator().next();
 		final Output output = job.getOutputs().iterator().next();
-		return loadScript("zip_loop_end.sh", "@@INPUT_BASE_NAME@@", fixPortName(input), "@@OUTPUT_PORT_NAME@@", fixPortName(output));
+		return zipLoopEndTemplate.newValues().with(INPUT_BASE_NAME_SCRIPT_KEY, fixPortName(input))
+				.with(OUTPUT_PORT_NAME_SCRIPT_KEY, fixPortName(output))
+				.with(BATCHING_SCRIPT_KEY, Boolean.toString(context.batchedCollectors.contains(job))).render(context.scriptBuffer);
 	}
 
-	private String generateDefaultScript(final Job job) throws IOException {
+	private StringBuilder generateDefaultScript(final Job job, final ExportContext context) {
+		final GuseExportSettings settings = context.settings;
 		final StringBuilder fileListInputs = new StringBuilder();
 		final StringBuilder fileListOutputs = new StringBuilder();
 		final StringBuilder fileNameTranslation = new StringBuilder();
 		// see comment on job_wrapper.sh
-		final StringBuilder majorHackett = new StringBuilder();
+		final StringBuilder expectedOutputs = new StringBuilder();
+		// all ports, files are staged in and out based on these
+		final StringBuilder inputPorts = new StringBuilder();
+		final StringBuilder outputPorts = new StringBuilder();
+		// inputs that are work units of a batched loop
+		final StringBuilder batchInputPorts = new StringBuilder();
+		// outputs split for, and inputs collected from, loops mapped to parameter sweeps
+		final StringBuilder generatorOutputPorts = new StringBuilder();
+		final StringBuilder collectedInputPorts = new StringBuilder();
 
 		// not related to port number, this is just a hack for the wrapper script
 		int scriptPortIndex = 0;
 		for (final Input input : job.getInputs()) {
+			if (inputPorts.length() > 0) {
+				inputPorts.append(' ');
+			}
+			inputPorts.append(fixPortName(input));
+			if (context.batchInputs.contains(input)) {
+				if (batchInputPorts.length() > 0) {
+					batchInputPorts.append(' ');
+				}
+				batchInputPorts.append(fixPortName(input));
+			}
+			if (context.collectedInputs.containsKey(input)) {
+				if (collectedInputPorts.length() > 0) {
+					collectedInputPorts.append(' ');
+				}
+				collectedInputPorts.append(fixPortName(input));
+			}
 			if (input.isMultiFile()) {
 				if (fileListInputs.length() > 0) {
 					// not the first element, we can prepend a space
@@ -352,48 +927,64 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 			}
 		}
 		for (final Output output : job.getOutputs()) {
+			if (outputPorts.length() > 0) {
+				outputPorts.append(' ');
+			}
+			outputPorts.append(fixPortName(output));
+			if (context.generatorOutputs.contains(output)) {
+				if (generatorOutputPorts.length() > 0) {
+					generatorOutputPorts.append(' ');
+				}
+				generatorOutputPorts.append(fixPortName(output));
+			}
 			if (output.isMultiFile()) {
 				if (fileListOutputs.length() > 0) {
 					fileListOutputs.append(' ');
 				}
 				fileListOutputs.append(fixPortName(output));
-			}
-			if (job.getJobType() == JobType.KnimeInternal) {
-				if (majorHackett.length() > 0) {
-					majorHackett.append(' ');
+			} else if (job.getJobType() == JobType.KnimeInternal) {
+				// archives of multi-file outputs are created by the script itself, after the tool has run
+				if (expectedOutputs.length() > 0) {
+					expectedOutputs.append(' ');
 				}
-				majorHackett.append(fixPortName(output));
+				expectedOutputs.append(fixPortName(output));
 			}
 		}
 
 		// script handles empty variables for input/output ports with filelist, make sure to escape the command line,
 		// which is not 100% under the control of this class
-		return loadScript("job_wrapper.sh", EXECUTABLE_SCRIPT_KEY, job.getRemoteApplication().getPath(), INPUT_PORTS_WITH_FILELIST_SCRIPT_KEY,
-				fileListInputs.toString(), OUTPUT_PORTS_WITH_FILELIST_SCRIPT_KEY, fileListOutputs.toString(), COMMAND_LINE_PARAMETERS_SCRIPT_KEY,
-				generateCommandLine(job).replace(QUOTE_REGEX, QUOTE_REPLACEMENT_FOR_BASH_SCRIPT), INPUT_FILENAME_TRANSLATION_SCRIPT_KEY,
-				fileNameTranslation.toString(), "@@MAJOR_HACKETT@@", majorHackett.toString());
+		final ScriptTemplate.Values values = jobWrapperTemplate.newValues();
+		values.with(EXECUTABLE_SCRIPT_KEY, job.getRemoteApplication().getPath());
+		values.with(INPUT_PORTS_WITH_FILELIST_SCRIPT_KEY, fileListInputs.toString());
+		values.with(OUTPUT_PORTS_WITH_FILELIST_SCRIPT_KEY, fileListOutputs.toString());
+		values.with(COMMAND_LINE_PARAMETERS_SCRIPT_KEY, generateCommandLine(job).replace(QUOTE_REGEX, QUOTE_REPLACEMENT_FOR_BASH_SCRIPT));
+		values.with(INPUT_FILENAME_TRANSLATION_SCRIPT_KEY, fileNameTranslation.toString());
+		values.with(EXPECTED_OUTPUTS_SCRIPT_KEY, expectedOutputs.toString());
+		values.with(MAX_ATTEMPTS_SCRIPT_KEY, Integer.toString(settings.getMaxAttempts()));
+		values.with(RETRY_BACKOFF_SECONDS_SCRIPT_KEY, Integer.toString(settings.getRetryBackoffSeconds()));
+		values.with(OUTPUT_TIMEOUT_SECONDS_SCRIPT_KEY, Integer.toString(settings.getOutputTimeoutSeconds()));
+		values.with(INPUT_PORTS_SCRIPT_KEY, inputPorts.toString());
+		values.with(OUTPUT_PORTS_SCRIPT_KEY, outputPorts.toString());
+		values.with(SCRATCH_STAGING_SCRIPT_KEY, Boolean.toString(settings.isScratchStaging()));
+		values.with(SCRATCH_DIRECTORY_SCRIPT_KEY, settings.getScratchDirectory().replace(QUOTE_REGEX, QUOTE_REPLACEMENT_FOR_BASH_SCRIPT));
+		values.with(TOOL_ID_SCRIPT_KEY, StringUtils.defaultString(job.getToolId()).replace(QUOTE_REGEX, QUOTE_REPLACEMENT_FOR_BASH_SCRIPT));
+		values.with(BATCH_INPUT_PORTS_SCRIPT_KEY, batchInputPorts.toString());
+		values.with(BATCH_PARALLEL_SCRIPT_KEY, Boolean.toString(settings.isBatchParallel()));
+		values.with(GENERATOR_OUTPUT_PORTS_SCRIPT_KEY, generatorOutputPorts.toString());
+		values.with(COLLECTED_INPUT_PORTS_SCRIPT_KEY, collectedInputPorts.toString());
+		values.with(REQUESTED_CORES_SCRIPT_KEY, getRequestedCores(job, context));
+		return values.render(context.scriptBuffer);
 	}
 
-	// loads a script from file,
-	// substitutions are given as varargs: key1, val1, key2, val2, key3, val3
-	private String loadScript(final String scriptName, final String... substitutions) throws IOException {
-		// at the very least check that we have an odd-numbered amount of varargs
-		Validate.isTrue(substitutions.length % 2 == 0, "Substitutions are given as follows: key1, val1, key2, val2...; this is a bug!");
-		try (final InputStream scriptStream = this.getClass().getResourceAsStream(scriptName)) {
-			String scriptContents = IOUtils.toString(scriptStream, StandardCharsets.UTF_8.name());
-			// yeah, we're doing it old-school
-			for (int i = 0; i < substitutions.length; i += 2) {
-				//
-				scriptContents = scriptContents.replace(substitutions[i], substitutions[i + 1]);
-			}
-			return scriptContents;
-		}
-
+	// the cores requested in the job description (see addResourceRequests), or an empty string if none were requested
+	private String getRequestedCores(final Job job, final ExportContext context) {
+		final RuntimeHistory.Estimate estimate = context.resourceEstimates.get(job);
+		return estimate == null || estimate.getCores() <= 0 ? "" : Integer.toString(estimate.getCores());
 	}
 
-	private boolean hasInputs(final Job job) {
+	private boolean hasInputs(final Job job, final ExportContext context) {
 		for (final Input input : job.getInputs()) {
-			if (input.getConnectionType() == ConnectionType.UserProvided) {
+			if (getConnectedInput(input, context).getConnectionType() == ConnectionType.UserProvided) {
 				return true;
 			}
 		}
@@ -401,95 +992,116 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 	}
 
 	// this method assumes that there are true inputs to write
-	private void writeInputs(final String rootEntryName, final ZipOutputStream zipOutputStream, final Job job) throws IOException {
-		final String jobInputsFolderName = rootEntryName + "inputs" + ZIP_ENTRY_SEPARATOR;
-		zipOutputStream.putNextEntry(new ZipEntry(jobInputsFolderName));
+	private void prepareInputs(final PreparedJob preparedJob, final Job job, final ExportContext context) throws IOException {
+		final String jobInputsFolderName = preparedJob.jobEntryName + "inputs" + ZIP_ENTRY_SEPARATOR;
 		for (final Input input : job.getInputs()) {
-			if (input.getConnectionType() == ConnectionType.UserProvided) {
+			// remotely referenced inputs are not part of the archive
+			if (input.getConnectionType() == ConnectionType.UserProvided && !context.remoteReferences.containsKey(input)) {
 				final String inputFolderName = jobInputsFolderName + input.getPortNr() + ZIP_ENTRY_SEPARATOR;
 				// each input goes into its own folder and the filename must be named "0"
-				zipOutputStream.putNextEntry(new ZipEntry(inputFolderName + '0'));
-				writeInput(zipOutputStream, input);
-				zipOutputStream.closeEntry();
+				final PreparedInput preparedInput = new PreparedInput(inputFolderName + '0', context);
+				if (input.isMultiFile()) {
+					preparedInput.packedDataHandles = input.getDataHandles();
+					preparedInput.sourceName = fixPortName(input);
+					// download remote files concurrently, while previous jobs are being written
+					context.dataFetcher.prefetch(preparedInput.packedDataHandles);
+					preparedInput.expectedSize = 0;
+					for (final DataHandle dataHandle : preparedInput.packedDataHandles) {
+						preparedInput.expectedSize += context.dataFetcher.getLocalFile(dataHandle).length();
+					}
+				} else {
+					// single files are streamed straight from their location by the writer
+					preparedInput.dataHandle = input.getDataHandles().get(0);
+					preparedInput.sourceName = preparedInput.dataHandle.getName();
+					preparedInput.expectedSize = preparedInput.dataHandle.getExpectedSize();
+				}
+				if (context.settings.isIncrementalExport() || context.duplicateSizes.contains(getLocalSize(input))) {
+					preparedInput.fingerprint = fingerprint(input, context);
+				}
+				preparedJob.inputs.add(preparedInput);
+			}
+			final Input generatorInput = context.sweepInputs.get(input);
+			if (generatorInput != null && generatorInput.getConnectionType() == ConnectionType.UserProvided) {
+				prepareParametricInput(preparedJob, jobInputsFolderName + input.getPortNr() + ZIP_ENTRY_SEPARATOR, generatorInput, context);
 			}
 		}
-		zipOutputStream.closeEntry();
 	}
 
-	private void writeInput(final ZipOutputStream zipOutputStream, final Input input) throws IOException {
+	// the files of a parametric input are not packed, gUSE expects them in the folder of the port named 0, 1, ...
+	private void prepareParametricInput(final PreparedJob preparedJob, final String inputFolderName, final Input generatorInput,
+			final ExportContext context) throws IOException {
+		int fileIndex = 0;
+		for (final DataHandle dataHandle : generatorInput.getDataHandles()) {
+			final PreparedInput preparedInput = new PreparedInput(inputFolderName + fileIndex, context);
+			preparedInput.dataHandle = dataHandle;
+			preparedInput.sourceName = dataHandle.getName();
+			preparedInput.expectedSize = dataHandle.getExpectedSize();
+			if (context.settings.isIncrementalExport()) {
+				preparedInput.fingerprint = fingerprint(dataHandle, context.index);
+			}
+			preparedJob.inputs.add(preparedInput);
+			fileIndex++;
+		}
+	}
+
+	// identifies the content of the entry of an input, so that it can be copied from a previous archive if the content
+	// didn't change, or from another entry with the same content
+	private String fingerprint(final Input input, final ExportContext context) throws IOException {
+		final ConversionCache.KeyBuilder keyBuilder = new ConversionCache.KeyBuilder(INPUT_FINGERPRINT_NAMESPACE);
 		if (input.isMultiFile()) {
-			zipOutputStream.write(getFileListAsArchiveBytes(input));
+			keyBuilder.add("packed");
+			for (final DataHandle dataHandle : input.getDataHandles()) {
+				keyBuilder.add(dataHandle.getName());
+				keyBuilder.add(context.index.digest(context.dataFetcher.getLocalFile(dataHandle)));
+			}
 		} else {
-			zipOutputStream.write(Files.readAllBytes(input.getAssociatedFiles().get(0).toPath()));
+			return fingerprint(input.getDataHandles().get(0), context.index);
 		}
+		return keyBuilder.build();
 	}
 
-	private byte[] getFileListAsArchiveBytes(final Input input) throws IOException {
-		final ByteArrayOutputStream rawOutputStream = new ByteArrayOutputStream(4096);
-		final GZIPOutputStream gzOutputStream = new GZIPOutputStream(new BufferedOutputStream(rawOutputStream));
-		final TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(gzOutputStream);
-
-		for (final File inputFile : input.getAssociatedFiles()) {
-			tarOutputStream.putArchiveEntry(new TarArchiveEntry(inputFile, inputFile.getName()));
-			final FileInputStream fileStream = new FileInputStream(inputFile);
-			final BufferedInputStream bufferedStream = new BufferedInputStream(fileStream);
-			IOUtils.copy(bufferedStream, tarOutputStream);
-			tarOutputStream.closeArchiveEntry();
-			fileStream.close();
-			bufferedStream.close();
+	private String fingerprint(final DataHandle dataHandle, final ArchiveIndex index) throws IOException {
+		// remote files would need to be downloaded just to find out whether they changed
+		if (!dataHandle.isLocal()) {
+			return null;
 		}
-
-		tarOutputStream.close();
-
-		return rawOutputStream.toByteArray();
+		final ConversionCache.KeyBuilder keyBuilder = new ConversionCache.KeyBuilder(INPUT_FINGERPRINT_NAMESPACE);
+		keyBuilder.add("single");
+		keyBuilder.add(index.digest(dataHandle.getLocalFile()));
+		return keyBuilder.build();
 	}
 
-	private String formatXml(final String unformattedXml) throws TransformerException {
-		final Transformer transformer = TransformerFactory.newInstance().newTransformer();
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-		// initialize StreamResult with File object to save to file
-		final StreamResult result = new StreamResult(new StringWriter());
-		final StreamSource source = new StreamSource(new StringReader(unformattedXml));
-		transformer.transform(source, result);
-		return result.getWriter().toString();
-	}
+	// the document is written in a single pass straight into the archive, so it's never held in memory, not even for
+	// workflows with thousands of jobs
+	private void generateWorkflowXml(final Workflow workflow, final OutputStream outputStream, final ExportContext context)
+			throws IOException, XMLStreamException {
+		final Writer streamWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), STREAM_BUFFER_SIZE);
+		final IndentingXmlWriter writer = new IndentingXmlWriter(XMLOutputFactory.newInstance().createXMLStreamWriter(streamWriter));
+		writer.startDocument();
 
-	/**
-	 * @param workflow
-	 * @throws ParserConfigurationException
-	 * @throws TransformerException
-	 */
-	private void generateWorkflowXml(final Workflow workflow, final StringBuilder builder) throws ParserConfigurationException, TransformerException {
-		final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		final DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-		final Document document = documentBuilder.newDocument();
-		document.setXmlStandalone(false);
-		document.setXmlVersion("1.0");
-
-		final Element workflowElement = document.createElement("workflow");
-		document.appendChild(workflowElement);
+		writer.startElement("workflow");
 		final String workflowName = workflow.getName();
-		workflowElement.setAttribute("download", "all");
-		workflowElement.setAttribute("export", "proj");
-		workflowElement.setAttribute("mainabst", "");
-		workflowElement.setAttribute("maingraf", workflowName);
-		workflowElement.setAttribute("mainreal", workflowName);
-		workflowElement.setAttribute("name", workflowName);
-
-		final Element grafElement = document.createElement("graf");
-		workflowElement.appendChild(grafElement);
-		grafElement.setAttribute("name", workflowName);
-		grafElement.setAttribute("text", "KNIME Workflow exported to gUSE format.");
+		writer.attribute("download", "all");
+		writer.attribute("export", "proj");
+		writer.attribute("mainabst", "");
+		writer.attribute("maingraf", workflowName);
+		writer.attribute("mainreal", workflowName);
+		writer.attribute("name", workflowName);
+
+		writer.startElement("graf");
+		writer.attribute("name", workflowName);
+		writer.attribute("text", "KNIME Workflow exported to gUSE format.");
 
 		// graph (abstract)
 		for (final Job job : workflow.getJobs()) {
-			final Element jobElement = document.createElement("job");
-			grafElement.appendChild(jobElement);
-			jobElement.setAttribute("name", job.getName());
-			jobElement.setAttribute("text", job.getDescription());
-			jobElement.setAttribute("x", Integer.toString(job.getX()));
-			jobElement.setAttribute("y", Integer.toString(job.getY()));
+			if (context.sweptJobs.contains(job)) {
+				continue;
+			}
+			writer.startElement("job");
+			writer.attribute("name", job.getName());
+			writer.attribute("text", job.getDescription());
+			writer.attribute("x", Integer.toString(job.getX()));
+			writer.attribute("y", Integer.toString(job.getY()));
 
 			// inputs
 			for (final Input input : job.getInputs()) {
@@ -497,111 +1109,138 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 				// wspgrade (i.e., the user would have to actually upload something) in wspgrade, if prejob and
 				// preoutput attributes are empty, it means that the port needs to be configured,
 				// since it's not a channel
-				final Element inputElement = document.createElement("input");
-				jobElement.appendChild(inputElement);
-				inputElement.setAttribute("name", fixPortName(input));
-				inputElement.setAttribute("prejob", getPreJob(workflow, input));
-				inputElement.setAttribute("preoutput", getPreOutput(input));
-				inputElement.setAttribute("seq", Integer.toString(input.getPortNr()));
-				inputElement.setAttribute("text", "Port description");
-				inputElement.setAttribute("x", Integer.toString(input.getX()));
-				inputElement.setAttribute("y", Integer.toString(input.getY()));
+				writer.emptyElement("input");
+				writer.attribute("name", fixPortName(input));
+				writer.attribute("prejob", getPreJob(workflow, getConnectedInput(input, context)));
+				writer.attribute("preoutput", getPreOutput(getConnectedInput(input, context)));
+				writer.attribute("seq", Integer.toString(input.getPortNr()));
+				writer.attribute("text", "Port description");
+				writer.attribute("x", Integer.toString(input.getX()));
+				writer.attribute("y", Integer.toString(input.getY()));
 			}
 			// outputs
 			for (final Output output : job.getOutputs()) {
-				final Element outputElement = document.createElement("output");
-				jobElement.appendChild(outputElement);
-				outputElement.setAttribute("name", fixPortName(output));
-				outputElement.setAttribute("seq", Integer.toString(output.getPortNr()));
-				outputElement.setAttribute("text", "Description of Port");
-				outputElement.setAttribute("x", Integer.toString(output.getX()));
-				outputElement.setAttribute("y", Integer.toString(output.getY()));
+				writer.emptyElement("output");
+				writer.attribute("name", fixPortName(output));
+				writer.attribute("seq", Integer.toString(output.getPortNr()));
+				writer.attribute("text", "Description of Port");
+				writer.attribute("x", Integer.toString(output.getX()));
+				writer.attribute("y", Integer.toString(output.getY()));
 			}
+			writer.endElement();
 		}
+		writer.endElement();
 
 		// concrete
-		final Element realElement = document.createElement("real");
-		workflowElement.appendChild(realElement);
-		realElement.setAttribute("abst", "");
-		realElement.setAttribute("graf", workflowName);
-		realElement.setAttribute("name", workflowName);
-		realElement.setAttribute("text", "Workflow generated by the KNIME2grid plug-in.");
+		writer.startElement("real");
+		writer.attribute("abst", "");
+		writer.attribute("graf", workflowName);
+		writer.attribute("name", workflowName);
+		writer.attribute("text", "Workflow generated by the KNIME2grid plug-in.");
 
 		for (final Job job : workflow.getJobs()) {
-			final Element jobElement = document.createElement("job");
-			realElement.appendChild(jobElement);
-			jobElement.setAttribute("name", job.getName());
-			jobElement.setAttribute("text", job.getDescription());
-			jobElement.setAttribute("x", Integer.toString(job.getX()));
-			jobElement.setAttribute("y", Integer.toString(job.getY()));
-
-			addExecutionProperty(jobElement, "type", "Sequence");
+			if (context.sweptJobs.contains(job)) {
+				continue;
+			}
+			writer.startElement("job");
+			writer.attribute("name", job.getName());
+			writer.attribute("text", job.getDescription());
+			writer.attribute("x", Integer.toString(job.getX()));
+			writer.attribute("y", Integer.toString(job.getY()));
+
+			addExecutionProperty(writer, "type", "Sequence");
 			// parameters are given direclty in the script
-			addExecutionProperty(jobElement, "params", "");
-			addExecutionProperty(jobElement, "binary", "knime2grid.script");
-			addExecutionProperty(jobElement, "jobistype", "binary");
-			addMiddlewareSpecificProperties(jobElement, job);
+			addExecutionProperty(writer, "params", "");
+			addExecutionProperty(writer, "binary", "knime2grid.script");
+			addExecutionProperty(writer, "jobistype", "binary");
+			addMiddlewareSpecificProperties(writer, job, context.resourceEstimates.get(job), context.batchedJobs.contains(job), context.settings);
 
 			// inputs
 			for (final Input input : job.getInputs()) {
-				final Element inputElement = document.createElement("input");
-				jobElement.appendChild(inputElement);
-				inputElement.setAttribute("name", fixPortName(input));
-				inputElement.setAttribute("prejob", getPreJob(workflow, input));
-				inputElement.setAttribute("preoutput", getPreOutput(input));
-				inputElement.setAttribute("seq", Integer.toString(input.getPortNr()));
-				inputElement.setAttribute("text", "Port description");
+				final boolean hasProperties = hasConcreteInputPortProperties(input, context);
+				if (hasProperties) {
+					writer.startElement("input");
+				} else {
+					writer.emptyElement("input");
+				}
+				writer.attribute("name", fixPortName(input));
+				writer.attribute("prejob", getPreJob(workflow, getConnectedInput(input, context)));
+				writer.attribute("preoutput", getPreOutput(getConnectedInput(input, context)));
+				writer.attribute("seq", Integer.toString(input.getPortNr()));
+				writer.attribute("text", "Port description");
 				// FIXME: x, y for ports? These values have to be scaled, but ain't nobody got time for that
-				inputElement.setAttribute("x", Integer.toString(input.getX()));
-				inputElement.setAttribute("y", Integer.toString(input.getY()));
-				addConcreteInputPortProperties(inputElement, input);
-
+				writer.attribute("x", Integer.toString(input.getX()));
+				writer.attribute("y", Integer.toString(input.getY()));
+				if (hasProperties) {
+					addConcreteInputPortProperties(writer, input, context);
+					writer.endElement();
+				}
 			}
 			// outputs
 			for (final Output output : job.getOutputs()) {
-				final Element outputElement = document.createElement("output");
-				jobElement.appendChild(outputElement);
-				outputElement.setAttribute("name", fixPortName(output));
-				outputElement.setAttribute("seq", Integer.toString(output.getPortNr()));
-				outputElement.setAttribute("text", "Description of Port");
-				outputElement.setAttribute("x", Integer.toString(output.getX()));
-				outputElement.setAttribute("y", Integer.toString(output.getY()));
-				addConcreteOutputPortProperties(outputElement, output);
-			}
-		}
-
-		// dump document into the passed string builder
-		final TransformerFactory tf = TransformerFactory.newInstance();
-		final Transformer transformer = tf.newTransformer();
-		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-		transformer.setOutputProperty(OutputKeys.VERSION, "1.0");
-		transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-		transformer.setOutputProperty(OutputKeys.STANDALONE, "no");
-
-		final StringWriter writer = new StringWriter();
-		transformer.transform(new DOMSource(document), new StreamResult(writer));
-		builder.append(writer.toString());
-	}
-
-	private void addConcreteInputPortProperties(final Element inputElement, final Input input) {
-		switch (input.getConnectionType()) {
+				writer.startElement("output");
+				writer.attribute("name", fixPortName(output));
+				writer.attribute("seq", Integer.toString(output.getPortNr()));
+				writer.attribute("text", "Description of Port");
+				writer.attribute("x", Integer.toString(output.getX()));
+				writer.attribute("y", Integer.toString(output.getY()));
+				addConcreteOutputPortProperties(writer, output, context);
+				writer.endElement();
+			}
+			writer.endElement();
+		}
+		writer.endElement();
+
+		writer.endElement();
+		writer.endDocument();
+		// the stream belongs to the archive, it must not be closed
+		streamWriter.flush();
+	}
+
+	// inputs of jobs next to loops mapped to parameter sweeps are connected to whatever the generator or collector they
+	// replace was connected to
+	private Input getConnectedInput(final Input input, final ExportContext context) {
+		Input connectedInput = context.sweepInputs.get(input);
+		if (connectedInput == null) {
+			connectedInput = context.collectedInputs.get(input);
+		}
+		return connectedInput == null ? input : connectedInput;
+	}
+
+	private boolean hasConcreteInputPortProperties(final Input input, final ExportContext context) {
+		final ConnectionType connectionType = getConnectedInput(input, context).getConnectionType();
+		return context.sweepInputs.containsKey(input) || connectionType == ConnectionType.UserProvided || connectionType == ConnectionType.Collector;
+	}
+
+	private void addConcreteInputPortProperties(final IndentingXmlWriter writer, final Input input, final ExportContext context)
+			throws XMLStreamException {
+		final Input generatorInput = context.sweepInputs.get(input);
+		if (generatorInput != null) {
+			addParametricInputPortProperties(writer, input, generatorInput, context.sweepDotProductIds.get(input));
+			return;
+		}
+		final String remoteReference = context.remoteReferences.get(input);
+		switch (getConnectedInput(input, context).getConnectionType()) {
 			case UserProvided :
-				// anything goes, key is required, value is ignored
-				addConcretePortProperty(inputElement, "file", "knime2grid.file");
-				addConcretePortProperty(inputElement, "eparam", "0");
-				addConcretePortProperty(inputElement, "pequaltype", "0");
-				addConcretePortProperty(inputElement, "intname", fixPortName(input));
-				addConcretePortProperty(inputElement, "dpid", Integer.toString(input.getPortNr()));
+				if (remoteReference != null) {
+					// the execution resource fetches the data itself
+					addConcretePortProperty(writer, "file", remoteReference);
+				} else {
+					// anything goes, key is required, value is ignored
+					addConcretePortProperty(writer, "file", "knime2grid.file");
+				}
+				addConcretePortProperty(writer, "eparam", "0");
+				addConcretePortProperty(writer, "pequaltype", "0");
+				addConcretePortProperty(writer, "intname", fixPortName(input));
+				addConcretePortProperty(writer, "dpid", Integer.toString(input.getPortNr()));
 				break;
 			case Collector :
-				addConcretePortProperty(inputElement, "waitingtmp", "all");
-				addConcretePortProperty(inputElement, "waiting", "all");
-				addConcretePortProperty(inputElement, "eparam", "1");
-				addConcretePortProperty(inputElement, "pequaltype", "0");
-				addConcretePortProperty(inputElement, "intname", fixPortName(input));
-				addConcretePortProperty(inputElement, "dpid", Integer.toString(input.getPortNr()));
+				addConcretePortProperty(writer, "waitingtmp", "all");
+				addConcretePortProperty(writer, "waiting", "all");
+				addConcretePortProperty(writer, "eparam", "1");
+				addConcretePortProperty(writer, "pequaltype", "0");
+				addConcretePortProperty(writer, "intname", fixPortName(input));
+				addConcretePortProperty(writer, "dpid", Integer.toString(input.getPortNr()));
 				break;
 			default :
 				// no extra properties required
@@ -609,12 +1248,30 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 		}
 	}
 
-	private void addConcreteOutputPortProperties(final Element outputElement, final Output output) {
-		final String mainCount = output.getConnectionType() == ConnectionType.Generator ? "2" : "1";
-		addConcretePortProperty(outputElement, "maincount0", mainCount);
-		addConcretePortProperty(outputElement, "maincount", mainCount);
-		addConcretePortProperty(outputElement, "intname", fixPortName(output));
-		addConcretePortProperty(outputElement, "type0", "permanent");
+	// each instance of the job receives one of the files of a parametric input (eparam); the ports of the same loop
+	// share a dot product id, so gUSE pairs their files element by element instead of combining all of them
+	private void addParametricInputPortProperties(final IndentingXmlWriter writer, final Input input, final Input generatorInput,
+			final int dotProductId) throws XMLStreamException {
+		if (generatorInput.getConnectionType() == ConnectionType.UserProvided) {
+			// the files are part of the archive, see prepareParametricInput
+			addConcretePortProperty(writer, "file", "knime2grid.file");
+			addConcretePortProperty(writer, "max", Integer.toString(generatorInput.getDataHandles().size()));
+		}
+		addConcretePortProperty(writer, "eparam", "1");
+		addConcretePortProperty(writer, "pequaltype", "1");
+		addConcretePortProperty(writer, "intname", fixPortName(input));
+		addConcretePortProperty(writer, "dpid", Integer.toString(dotProductId));
+	}
+
+	private void addConcreteOutputPortProperties(final IndentingXmlWriter writer, final Output output, final ExportContext context)
+			throws XMLStreamException {
+		// jobs before a loop mapped to a parameter sweep generate one file per element
+		final boolean generator = output.getConnectionType() == ConnectionType.Generator || context.generatorOutputs.contains(output);
+		final String mainCount = generator ? "2" : "1";
+		addConcretePortProperty(writer, "maincount0", mainCount);
+		addConcretePortProperty(writer, "maincount", mainCount);
+		addConcretePortProperty(writer, "intname", fixPortName(output));
+		addConcretePortProperty(writer, "type0", "permanent");
 	}
 
 	private String getPreJob(final Workflow workflow, final Input input) {
@@ -666,12 +1323,13 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 		return builder.toString();
 	}
 
-	private void addMiddlewareSpecificProperties(final Element jobElement, final Job job) {
+	private void addMiddlewareSpecificProperties(final IndentingXmlWriter writer, final Job job, final RuntimeHistory.Estimate estimate,
+			final boolean batched, final GuseExportSettings settings) throws XMLStreamException {
 		final Application remoteApplication = job.getRemoteApplication();
 		if (remoteApplication != null) {
-			addExecutionProperty(jobElement, "gridtype", remoteApplication.getOwningResource().getType());
-			addExecutionProperty(jobElement, "resource", job.getRemoteQueue() != null ? job.getRemoteQueue().getName() : "");
-			addExecutionProperty(jobElement, "grid", remoteApplication.getOwningResource().getName());
+			addExecutionProperty(writer, "gridtype", remoteApplication.getOwningResource().getType());
+			addExecutionProperty(writer, "resource", job.getRemoteQueue() != null ? job.getRemoteQueue().getName() : "");
+			addExecutionProperty(writer, "grid", remoteApplication.getOwningResource().getName());
 			// FIXME: include code handling UNICORE (keeping old prototype code here for
 			// reference)
 			// addExecutionProperty(builder, "gridtype", "unicore");
@@ -683,37 +1341,52 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 			// + remoteApplication.getVersion());
 			// addDescriptionProperty(builder, "unicore.keyWalltime", "30");
 			// addDescriptionProperty(builder, "unicore.keyMemory", "2000");
+			if (estimate != null) {
+				addResourceRequests(writer, remoteApplication.getOwningResource().getType(), estimate, batched, settings.getResourceSafetyFactor());
+			}
+		}
+	}
+
+	// walltime in minutes and memory in MB, as in the prototype above; cores are rounded already. The walltime of
+	// batched jobs depends on the size of their work units, which is only known at runtime
+	private void addResourceRequests(final IndentingXmlWriter writer, final String resourceType, final RuntimeHistory.Estimate estimate,
+			final boolean batched, final double safetyFactor) throws XMLStreamException {
+		if (!batched) {
+			final long walltimeMinutes = Math.max(1, (long) Math.ceil(estimate.getWalltimeMillis() * safetyFactor / 60000));
+			addDescriptionProperty(writer, resourceType + WALLTIME_DESCRIPTION_KEY, Long.toString(walltimeMinutes));
+		}
+		if (estimate.getPeakRssKb() > 0) {
+			final long memoryMegabytes = (long) Math.ceil(estimate.getPeakRssKb() * safetyFactor / 1024);
+			addDescriptionProperty(writer, resourceType + MEMORY_DESCRIPTION_KEY, Long.toString(memoryMegabytes));
+		}
+		if (estimate.getCores() > 0) {
+			addDescriptionProperty(writer, resourceType + CORES_DESCRIPTION_KEY, Integer.toString(estimate.getCores()));
 		}
 	}
 
-	private void addDescriptionProperty(final Element jobElement, final String key, final String value) {
-		final Document document = jobElement.getOwnerDocument();
-		final Element descriptionElement = document.createElement("description");
-		jobElement.appendChild(descriptionElement);
-		descriptionElement.setAttribute("key", StringEscapeUtils.escapeXml(key));
-		descriptionElement.setAttribute("value", StringEscapeUtils.escapeXml(value));
+	// values are escaped before being written (and thus escaped again by the writer), gUSE expects them that way
+	private void addDescriptionProperty(final IndentingXmlWriter writer, final String key, final String value) throws XMLStreamException {
+		writer.emptyElement("description");
+		writer.attribute("key", StringEscapeUtils.escapeXml(key));
+		writer.attribute("value", StringEscapeUtils.escapeXml(value));
 	}
 
-	private void addConcretePortProperty(final Element portElement, final String key, final String value) {
-		final Document document = portElement.getOwnerDocument();
-		final Element portPropertiesElement = document.createElement("port_prop");
-		portElement.appendChild(portPropertiesElement);
-		portPropertiesElement.setAttribute("desc", "null");
-		portPropertiesElement.setAttribute("inh", "null");
-		portPropertiesElement.setAttribute("label", "null");
-		portPropertiesElement.setAttribute("key", StringEscapeUtils.escapeXml(key));
-		portPropertiesElement.setAttribute("value", StringEscapeUtils.escapeXml(value));
+	private void addConcretePortProperty(final IndentingXmlWriter writer, final String key, final String value) throws XMLStreamException {
+		writer.emptyElement("port_prop");
+		writer.attribute("desc", "null");
+		writer.attribute("inh", "null");
+		writer.attribute("key", StringEscapeUtils.escapeXml(key));
+		writer.attribute("label", "null");
+		writer.attribute("value", StringEscapeUtils.escapeXml(value));
 	}
 
-	private void addExecutionProperty(final Element jobElement, final String key, final String value) {
-		final Document document = jobElement.getOwnerDocument();
-		final Element executeElement = document.createElement("execute");
-		jobElement.appendChild(executeElement);
-		executeElement.setAttribute("desc", "null");
-		executeElement.setAttribute("inh", "null");
-		executeElement.setAttribute("label", "null");
-		executeElement.setAttribute("key", StringEscapeUtils.escapeXml(key));
-		executeElement.setAttribute("value", StringEscapeUtils.escapeXml(value));
+	private void addExecutionProperty(final IndentingXmlWriter writer, final String key, final String value) throws XMLStreamException {
+		writer.emptyElement("execute");
+		writer.attribute("desc", "null");
+		writer.attribute("inh", "null");
+		writer.attribute("key", StringEscapeUtils.escapeXml(key));
+		writer.attribute("label", "null");
+		writer.attribute("value", StringEscapeUtils.escapeXml(value));
 	}
 
 	// Collector/Generator jobs use a local executor
@@ -753,4 +1426,104 @@ public class GuseKnimeWorkflowExporter implements KnimeWorkflowExporter {
 	public Collection<ExtensionFilter> getExtensionFilters() {
 		return Arrays.asList(new ExtensionFilter("*.zip", "ZIP Archive"));
 	}
+
+	// a job whose contents are ready to be written into the archive
+	private static class PreparedJob {
+		final String jobEntryName;
+		final Collection<PreparedInput> inputs = new LinkedList<PreparedInput>();
+		byte[] executeBin;
+		String executeBinFingerprint;
+
+		PreparedJob(final String jobEntryName) {
+			this.jobEntryName = jobEntryName;
+		}
+	}
+
+	// the data of an input, either a single file or several files that need to be packed
+	private static class PreparedInput implements EntryContent {
+		final String entryName;
+		final ExportContext context;
+		// used to guess whether the data is already compressed
+		String sourceName;
+		// null if the entry can't be copied from a previous archive or from another entry
+		String fingerprint;
+		DataHandle dataHandle;
+		List<DataHandle> packedDataHandles;
+		long expectedSize = ZipEntryWriter.UNKNOWN_SIZE;
+
+		PreparedInput(final String entryName, final ExportContext context) {
+			this.entryName = entryName;
+			this.context = context;
+		}
+
+		@Override
+		public void writeTo(final OutputStream outputStream) throws IOException {
+			// this is the first time the data is actually read
+			if (packedDataHandles != null) {
+				writePackedFiles(outputStream, packedDataHandles, context);
+			} else {
+				// local data is read from its original location, there's no need to stage it anywhere else
+				try (final InputStream inputStream = context.dataFetcher.openStream(dataHandle, entryName)) {
+					IOUtils.copyLarge(inputStream, outputStream, new byte[STREAM_BUFFER_SIZE]);
+				}
+			}
+		}
+
+		@Override
+		public String getSourceName() {
+			return sourceName;
+		}
+	}
+
+	// writes XML indented by two spaces, the way the Transformer that was used before did; elements with children
+	// must be started using startElement, elements without children using emptyElement
+	private static class IndentingXmlWriter {
+		private static final String INDENTATION = "  ";
+		private final XMLStreamWriter writer;
+		private int depth;
+
+		IndentingXmlWriter(final XMLStreamWriter writer) {
+			this.writer = writer;
+		}
+
+		void startDocument() throws XMLStreamException {
+			writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+		}
+
+		void startElement(final String name) throws XMLStreamException {
+			indent();
+			writer.writeStartElement(name);
+			depth++;
+		}
+
+		void emptyElement(final String name) throws XMLStreamException {
+			indent();
+			writer.writeEmptyElement(name);
+		}
+
+		void attribute(final String name, final String value) throws XMLStreamException {
+			// DOM used to write null values as empty attributes
+			writer.writeAttribute(name, value == null ? "" : value);
+		}
+
+		// all elements started using startElement have children
+		void endElement() throws XMLStreamException {
+			depth--;
+			indent();
+			writer.writeEndElement();
+		}
+
+		void endDocument() throws XMLStreamException {
+			writer.writeCharacters("\n");
+			writer.writeEndDocument();
+			writer.flush();
+		}
+
+		private void indent() throws XMLStreamException {
+			writer.writeCharacters("\n");
+			for (int i = 0; i < depth; i++) {
+				writer.writeCharacters(INDENTATION);
+			}
+		}
+	}
 }
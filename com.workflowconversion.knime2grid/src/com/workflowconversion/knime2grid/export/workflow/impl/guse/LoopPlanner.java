@@ -0,0 +1,327 @@
+package com.workflowconversion.knime2grid.export.workflow.impl.guse;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.knime.core.node.NodeLogger;
+
+import com.workflowconversion.knime2grid.export.cache.RuntimeHistory;
+import com.workflowconversion.knime2grid.model.ConnectionType;
+import com.workflowconversion.knime2grid.model.Input;
+import com.workflowconversion.knime2grid.model.Job;
+import com.workflowconversion.knime2grid.model.JobType;
+import com.workflowconversion.knime2grid.model.Output;
+import com.workflowconversion.knime2grid.model.Workflow;
+
+/**
+ * Decides how the loops of a workflow (i.e., the jobs between a Generator and its Collectors) are exported: either
+ * mapped to gUSE parameter sweeps, or with their elements grouped into work units. The plans are recorded in the
+ * {@link ExportContext}; the workflow itself is not modified.
+ *
+ * @author delagarza
+ */
+class LoopPlanner {
+
+	private final static NodeLogger LOGGER = NodeLogger.getLogger(LoopPlanner.class);
+
+	private final Workflow workflow;
+	private final ExportContext context;
+	// jobs that receive the outputs of each job
+	private final Map<Job, List<Job>> successors;
+
+	/**
+	 * @param workflow
+	 *            the workflow being exported.
+	 * @param context
+	 *            the context of the export, into which the plans are recorded.
+	 */
+	LoopPlanner(final Workflow workflow, final ExportContext context) {
+		this.workflow = workflow;
+		this.context = context;
+		this.successors = getSuccessors(workflow);
+	}
+
+	// loops are mapped to gUSE parameter sweeps where possible: jobs before the loop become generators (their multi-file
+	// outputs are split into one file per element), lists provided by the user become parametric inputs of the jobs in
+	// the loop and jobs after the loop collect the outputs of all elements; the Generator and Collector jobs, and the
+	// tar files passing through them, are then not exported at all. The mapping is kept in the context, the model is
+	// not modified since its jobs are reused by the next (incremental) conversion
+	void planParameterSweeps() {
+		if (!context.settings.isParameterSweeps()) {
+			return;
+		}
+		final Map<Job, Set<Job>> loopContents = findLoopContents();
+		int sweeps = 0;
+		for (final Job generator : workflow.getJobs()) {
+			if (generator.getJobType() != JobType.Generator) {
+				continue;
+			}
+			final Set<Job> collectors = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+			final Set<Job> body = findLoopBody(generator, collectors);
+			if (body == null || collectors.isEmpty() || !canSweep(generator, body, collectors, loopContents)) {
+				LOGGER.warn("The loop starting at job " + generator.getName()
+						+ " cannot be mapped to a parameter sweep, it will be exported with generator and collector jobs");
+				continue;
+			}
+			context.sweptJobs.add(generator);
+			for (final Job bodyJob : body) {
+				// inputs of the same loop are paired element by element (dot product), they share the id of the first
+				int dotProductId = -1;
+				for (final Input input : bodyJob.getInputs()) {
+					if (input.getConnectionType() != ConnectionType.UserProvided && workflow.getJob(input.getSourceId()) == generator) {
+						final Input generatorInput = getGeneratorInput(generator, input);
+						if (dotProductId < 0) {
+							dotProductId = input.getPortNr();
+						}
+						context.sweepInputs.put(input, generatorInput);
+						context.sweepDotProductIds.put(input, dotProductId);
+						if (generatorInput.getConnectionType() != ConnectionType.UserProvided) {
+							context.generatorOutputs
+									.add(workflow.getJob(generatorInput.getSourceId()).getOutputByPortNr(generatorInput.getSourcePortNr()));
+						}
+					}
+				}
+			}
+			for (final Job collector : collectors) {
+				context.sweptJobs.add(collector);
+				final Input collectorInput = collector.getInputs().iterator().next();
+				for (final Job consumer : successors.get(collector)) {
+					for (final Input input : consumer.getInputs()) {
+						if (input.getConnectionType() != ConnectionType.UserProvided && workflow.getJob(input.getSourceId()) == collector) {
+							context.collectedInputs.put(input, collectorInput);
+						}
+					}
+				}
+			}
+			sweeps++;
+		}
+		if (sweeps > 0) {
+			LOGGER.info(String.format("Mapped %d loops to parameter sweeps, %d generator/collector jobs will not be exported", sweeps,
+					context.sweptJobs.size()));
+		}
+	}
+
+	// the elements of a loop are grouped into work units of K elements, so gUSE submits N/K jobs instead of N; the body
+	// of a loop are the jobs reachable from its generator before reaching its collector. K is chosen by
+	// zip_loop_start.sh, which knows N, based on how long an element took in previous runs
+	void planLoopBatching() {
+		if (!context.settings.isGeneratorBatching()) {
+			return;
+		}
+		final Map<Job, Set<Job>> loopBodies = new IdentityHashMap<Job, Set<Job>>();
+		for (final Job job : workflow.getJobs()) {
+			// loops mapped to parameter sweeps are split by gUSE itself, one element per job
+			if (job.getJobType() != JobType.Generator || context.sweptJobs.contains(job)) {
+				continue;
+			}
+			final Set<Job> collectors = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+			final Set<Job> body = findLoopBody(job, collectors);
+			if (body == null || collectors.isEmpty()) {
+				// work units of the outer loop would have to contain whole inner loops
+				LOGGER.warn("The elements of the loop starting at job " + job.getName() + " will not be grouped into work units, it contains other loops");
+				continue;
+			}
+			loopBodies.put(job, body);
+			context.batchedJobs.addAll(body);
+			context.batchedCollectors.addAll(collectors);
+		}
+		// generators of zipped lists feed the same jobs, so they must group elements the same way
+		for (final Map.Entry<Job, Set<Job>> loopBody : loopBodies.entrySet()) {
+			long elementMillis = 0;
+			for (final Map.Entry<Job, Set<Job>> otherLoopBody : loopBodies.entrySet()) {
+				if (loopBody.getKey() == otherLoopBody.getKey() || !Collections.disjoint(loopBody.getValue(), otherLoopBody.getValue())) {
+					for (final Job bodyJob : otherLoopBody.getValue()) {
+						final RuntimeHistory.Estimate estimate = context.resourceEstimates.get(bodyJob);
+						if (estimate != null) {
+							elementMillis = Math.max(elementMillis, estimate.getWalltimeMillis());
+						}
+					}
+				}
+			}
+			context.batchedGenerators.put(loopBody.getKey(), elementMillis);
+		}
+		// inputs of batched jobs coming from within the loop are work units, the rest are the same for all elements
+		for (final Job job : context.batchedJobs) {
+			for (final Input input : job.getInputs()) {
+				if (input.getConnectionType() != ConnectionType.UserProvided) {
+					final Job source = workflow.getJob(input.getSourceId());
+					if (context.batchedGenerators.containsKey(source) || context.batchedJobs.contains(source)) {
+						context.batchInputs.add(input);
+					}
+				}
+			}
+		}
+		if (!loopBodies.isEmpty()) {
+			LOGGER.info(String.format("Grouping the elements of %d loops (%d jobs) into work units", loopBodies.size(), context.batchedJobs.size()));
+		}
+	}
+
+	// gUSE can't express everything a loop can do: lists must come either from the user or from a job that produces
+	// nothing else for other jobs, and the results of the loop must be collected by regular jobs that take file lists.
+	// Sweeps can't be nested either, so neither the jobs producing the lists nor the jobs consuming the results may be
+	// part of another loop
+	private boolean canSweep(final Job generator, final Set<Job> body, final Set<Job> collectors, final Map<Job, Set<Job>> loopContents) {
+		for (final Input input : generator.getInputs()) {
+			if (input.getConnectionType() == ConnectionType.UserProvided) {
+				// remote references point to a single file, not to a set of parametric inputs
+				if (context.remoteReferences.containsKey(input) || input.getDataHandles().isEmpty()) {
+					return false;
+				}
+				continue;
+			}
+			final Job source = workflow.getJob(input.getSourceId());
+			if (source.getJobType() == JobType.Generator || source.getJobType() == JobType.Collector
+					|| isInOtherLoop(source, generator, loopContents)) {
+				return false;
+			}
+			final Output sourceOutput = source.getOutputByPortNr(input.getSourcePortNr());
+			if (!sourceOutput.isMultiFile()) {
+				return false;
+			}
+			for (final Output.Destination destination : sourceOutput.getDestinations()) {
+				if (destination.getTarget() != generator) {
+					return false;
+				}
+			}
+		}
+		for (final Job bodyJob : body) {
+			for (final Input input : bodyJob.getInputs()) {
+				if (input.getConnectionType() != ConnectionType.UserProvided && workflow.getJob(input.getSourceId()) == generator
+						&& getGeneratorInput(generator, input) == null) {
+					return false;
+				}
+			}
+		}
+		for (final Job collector : collectors) {
+			if (collector.getInputs().size() != 1 || collector.getInputs().iterator().next().getConnectionType() == ConnectionType.UserProvided
+					|| successors.get(collector).isEmpty()) {
+				return false;
+			}
+			for (final Job consumer : successors.get(collector)) {
+				if (consumer.getJobType() == JobType.Generator || consumer.getJobType() == JobType.Collector
+						|| isInOtherLoop(consumer, generator, loopContents)) {
+					return false;
+				}
+				for (final Input input : consumer.getInputs()) {
+					if (input.getConnectionType() != ConnectionType.UserProvided && workflow.getJob(input.getSourceId()) == collector
+							&& !input.isMultiFile()) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	// the N-th output of a ZipLoopStart node emits the elements of its N-th input
+	private static Input getGeneratorInput(final Job generator, final Input bodyInput) {
+		final Output generatorOutput = generator.getOutputByPortNr(bodyInput.getSourcePortNr());
+		for (final Input input : generator.getInputs()) {
+			if (input.getOriginalPortNr() == generatorOutput.getOriginalPortNr()) {
+				return input;
+			}
+		}
+		return null;
+	}
+
+	private static Map<Job, List<Job>> getSuccessors(final Workflow workflow) {
+		final Map<Job, List<Job>> successors = new IdentityHashMap<Job, List<Job>>();
+		for (final Job job : workflow.getJobs()) {
+			successors.put(job, new LinkedList<Job>());
+		}
+		for (final Job job : workflow.getJobs()) {
+			for (final Input input : job.getInputs()) {
+				if (input.getConnectionType() != ConnectionType.UserProvided) {
+					final List<Job> sourceSuccessors = successors.get(workflow.getJob(input.getSourceId()));
+					if (!sourceSuccessors.contains(job)) {
+						sourceSuccessors.add(job);
+					}
+				}
+			}
+		}
+		return successors;
+	}
+
+	private boolean isInOtherLoop(final Job job, final Job generator, final Map<Job, Set<Job>> loopContents) {
+		for (final Map.Entry<Job, Set<Job>> contents : loopContents.entrySet()) {
+			if (contents.getKey() != generator && contents.getValue().contains(job)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// unlike findLoopBody, this follows nested loops: the contents of a loop are the jobs reachable from its generator
+	// before reaching one of its own collectors, including the generators, bodies and collectors of nested loops. Jobs
+	// are visited once per nesting depth, since the same job could be reached from inside and from outside a nested
+	// loop
+	private Map<Job, Set<Job>> findLoopContents() {
+		final Map<Job, Set<Job>> loopContents = new IdentityHashMap<Job, Set<Job>>();
+		for (final Job generator : workflow.getJobs()) {
+			if (generator.getJobType() != JobType.Generator) {
+				continue;
+			}
+			final Set<Job> contents = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+			final Map<Job, Set<Integer>> visitedDepths = new IdentityHashMap<Job, Set<Integer>>();
+			final Deque<Job> pending = new ArrayDeque<Job>();
+			final Deque<Integer> pendingDepths = new ArrayDeque<Integer>();
+			for (final Job successor : successors.get(generator)) {
+				pending.add(successor);
+				pendingDepths.add(1);
+			}
+			while (!pending.isEmpty()) {
+				final Job job = pending.poll();
+				int depth = pendingDepths.poll();
+				if (job.getJobType() == JobType.Collector && depth == 1) {
+					// one of the collectors of this loop
+					continue;
+				}
+				Set<Integer> depths = visitedDepths.get(job);
+				if (depths == null) {
+					depths = new HashSet<Integer>();
+					visitedDepths.put(job, depths);
+				}
+				if (!depths.add(depth)) {
+					continue;
+				}
+				contents.add(job);
+				if (job.getJobType() == JobType.Generator) {
+					depth++;
+				} else if (job.getJobType() == JobType.Collector) {
+					depth--;
+				}
+				for (final Job successor : successors.get(job)) {
+					pending.add(successor);
+					pendingDepths.add(depth);
+				}
+			}
+			loopContents.put(generator, contents);
+		}
+		return loopContents;
+	}
+
+	// the body of a loop are the jobs reachable from its generator before reaching a collector; returns null if the
+	// loop contains other loops
+	private Set<Job> findLoopBody(final Job generator, final Set<Job> collectors) {
+		final Set<Job> body = Collections.newSetFromMap(new IdentityHashMap<Job, Boolean>());
+		final Deque<Job> pending = new ArrayDeque<Job>(successors.get(generator));
+		while (!pending.isEmpty()) {
+			final Job successor = pending.poll();
+			if (successor.getJobType() == JobType.Collector) {
+				collectors.add(successor);
+			} else if (successor.getJobType() == JobType.Generator) {
+				return null;
+			} else if (body.add(successor)) {
+				pending.addAll(successors.get(successor));
+			}
+		}
+		return body;
+	}
+}
@@ -0,0 +1,184 @@
+package com.workflowconversion.knime2grid.export.workflow.impl.guse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.Validate;
+
+import com.workflowconversion.knime2grid.exception.ApplicationException;
+
+/**
+ * A script containing placeholders (e.g., {@code @@EXECUTABLE@@}). Templates are parsed only once into literal and
+ * placeholder segments, so that rendering a script is a single pass over the segments, instead of one pass over the
+ * whole script for each placeholder.
+ *
+ * Placeholders are declared when the template is loaded and values are given by placeholder when rendering (see
+ * {@link #newValues()}). A template that uses undeclared placeholders, or that lacks any of the declared ones, is a bug
+ * in this plug-in and is reported as soon as the template is loaded.
+ *
+ * Instances of this class are immutable.
+ *
+ * @author delagarza
+ */
+class ScriptTemplate {
+
+	private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("@@[A-Za-z0-9_]+@@");
+
+	private final String name;
+	private final String[] placeholders;
+	// literals.length == placeholderIndexes.length + 1; literal i is followed by the value of placeholder
+	// placeholderIndexes[i]
+	private final String[] literals;
+	private final int[] placeholderIndexes;
+	private final int literalsLength;
+
+	private ScriptTemplate(final String name, final String[] placeholders, final String[] literals, final int[] placeholderIndexes) {
+		this.name = name;
+		this.placeholders = placeholders;
+		this.literals = literals;
+		this.placeholderIndexes = placeholderIndexes;
+		int length = 0;
+		for (final String literal : literals) {
+			length += literal.length();
+		}
+		this.literalsLength = length;
+	}
+
+	/**
+	 * Loads a template from a resource.
+	 *
+	 * @param anchor
+	 *            class relative to which the resource is found.
+	 * @param scriptName
+	 *            the name of the resource.
+	 * @param placeholders
+	 *            the placeholders used in the template, including the {@code @@}s.
+	 * @return the template.
+	 * @throws IOException
+	 *             if the resource could not be read.
+	 */
+	static ScriptTemplate load(final Class<?> anchor, final String scriptName, final String... placeholders) throws IOException {
+		try (final InputStream scriptStream = anchor.getResourceAsStream(scriptName)) {
+			if (scriptStream == null) {
+				throw new ApplicationException("Script template " + scriptName + " could not be found, this is a bug!");
+			}
+			return parse(scriptName, IOUtils.toString(scriptStream, StandardCharsets.UTF_8.name()), placeholders);
+		}
+	}
+
+	/**
+	 * Parses a template.
+	 *
+	 * @param name
+	 *            the name of the template, used in error messages.
+	 * @param text
+	 *            the text of the template.
+	 * @param placeholders
+	 *            the placeholders used in the template, including the {@code @@}s.
+	 * @return the template.
+	 */
+	static ScriptTemplate parse(final String name, final String text, final String... placeholders) {
+		Validate.notNull(text, "text cannot be null");
+		final List<String> declaredPlaceholders = Arrays.asList(placeholders);
+		final Set<String> unusedPlaceholders = new LinkedHashSet<String>(declaredPlaceholders);
+		final List<String> literals = new ArrayList<String>();
+		final List<Integer> placeholderIndexes = new ArrayList<Integer>();
+		final Matcher matcher = PLACEHOLDER_PATTERN.matcher(text);
+		int literalStart = 0;
+		while (matcher.find()) {
+			final int placeholderIndex = declaredPlaceholders.indexOf(matcher.group());
+			if (placeholderIndex < 0) {
+				throw new ApplicationException("Script template " + name + " uses the undeclared placeholder " + matcher.group() + ", this is a bug!");
+			}
+			unusedPlaceholders.remove(matcher.group());
+			literals.add(text.substring(literalStart, matcher.start()));
+			placeholderIndexes.add(placeholderIndex);
+			literalStart = matcher.end();
+		}
+		literals.add(text.substring(literalStart));
+		if (!unusedPlaceholders.isEmpty()) {
+			throw new ApplicationException("Script template " + name + " does not use the placeholders " + unusedPlaceholders + ", this is a bug!");
+		}
+		final int[] indexes = new int[placeholderIndexes.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = placeholderIndexes.get(i);
+		}
+		return new ScriptTemplate(name, placeholders.clone(), literals.toArray(new String[literals.size()]), indexes);
+	}
+
+	/**
+	 * @return an empty set of values for the placeholders of this template.
+	 */
+	Values newValues() {
+		return new Values();
+	}
+
+	// values are indexed in the same order as the placeholders were declared
+	private StringBuilder render(final StringBuilder buffer, final String[] values) {
+		int valuesLength = 0;
+		for (final int placeholderIndex : placeholderIndexes) {
+			valuesLength += values[placeholderIndex].length();
+		}
+		buffer.setLength(0);
+		buffer.ensureCapacity(literalsLength + valuesLength);
+		for (int i = 0; i < placeholderIndexes.length; i++) {
+			buffer.append(literals[i]).append(values[placeholderIndexes[i]]);
+		}
+		return buffer.append(literals[literals.length - 1]);
+	}
+
+	/**
+	 * Values of the placeholders of a template, from which a script is rendered once all of them have been given.
+	 *
+	 * Instances of this class are not thread-safe.
+	 */
+	class Values {
+		private final String[] values = new String[placeholders.length];
+
+		private Values() {
+		}
+
+		/**
+		 * @param placeholder
+		 *            a placeholder declared by the template, including the {@code @@}s.
+		 * @param value
+		 *            the value of the placeholder.
+		 * @return a reference to {@code this} instance.
+		 */
+		Values with(final String placeholder, final String value) {
+			Validate.notNull(value, "value cannot be null");
+			final int placeholderIndex = Arrays.asList(placeholders).indexOf(placeholder);
+			if (placeholderIndex < 0) {
+				throw new ApplicationException("Script template " + name + " does not declare the placeholder " + placeholder + ", this is a bug!");
+			}
+			values[placeholderIndex] = value;
+			return this;
+		}
+
+		/**
+		 * Renders the script. The given buffer is cleared first, so it can be reused across calls.
+		 *
+		 * @param buffer
+		 *            the buffer into which the script is rendered.
+		 * @return the given buffer.
+		 */
+		StringBuilder render(final StringBuilder buffer) {
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] == null) {
+					throw new ApplicationException("No value was given for the placeholder " + placeholders[i] + " of script template " + name
+							+ ", this is a bug!");
+				}
+			}
+			return ScriptTemplate.this.render(buffer, values);
+		}
+	}
+}
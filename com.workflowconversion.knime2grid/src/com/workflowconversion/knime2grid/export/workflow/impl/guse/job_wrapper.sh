@@ -14,58 +14,679 @@ INPUT_PORTS_WITH_FILELIST="@@INPUT_PORTS_WITH_FILELIST@@"
 
 # contains names of output ports that generate filelists, separated by whitespace
 OUTPUT_PORTS_WITH_FILELIST="@@OUTPUT_PORTS_WITH_FILELIST@@"
+
+# in loops mapped to gUSE parameter sweeps there are no generator/collector jobs: the files of these output ports are
+# not compressed but renamed to foo_0, foo_1, ..., which gUSE passes to one instance of the next job each, and gUSE
+# provides the outputs of all instances of the loop to these input ports as foo_0, foo_1, ...
+GENERATOR_OUTPUT_PORTS="@@GENERATOR_OUTPUT_PORTS@@"
+COLLECTED_INPUT_PORTS="@@COLLECTED_INPUT_PORTS@@"
 EXECUTABLE="@@EXECUTABLE@@"
+# identifies the tool in the runtime statistics, so the exporter can request resources based on previous runs
+TOOL_ID="@@TOOL_ID@@"
 COMMAND_LINE_PARAMETERS="@@COMMAND_LINE_PARAMETERS@@"
 
 # KNIME 3.6 seems to have a race condition, sometimes KNIME reports that the node "Table Reader" is not available, but it is...
-# This is probably not best practice, not regular practice, hell, this should not be practice, but basically what we do here
-# is to wait for ALL outputs...
-# Major Hackett made me do it, I am sorry. The chain of command is sacred.
-MAJOR_HACKETT="@@MAJOR_HACKETT@@"
-# Hackett out!
-
-ARCHIVE_INDEX=0
-if [ -n "$INPUT_PORTS_WITH_FILELIST" ]; then
+# so, for KNIME nodes, we also check that ALL of these outputs were written, separated by whitespace
+EXPECTED_OUTPUTS="@@EXPECTED_OUTPUTS@@"
+
+# a tool that fails (or whose expected outputs don't show up) is executed at most MAX_ATTEMPTS times; the wait between
+# attempts starts at RETRY_BACKOFF_SECONDS and doubles after each attempt, plus some jitter, so that jobs that failed
+# together don't retry together
+MAX_ATTEMPTS=@@MAX_ATTEMPTS@@
+RETRY_BACKOFF_SECONDS=@@RETRY_BACKOFF_SECONDS@@
+MAX_RETRY_BACKOFF_SECONDS=600
+# outputs of a successful tool might take a while to be visible on shared file systems, they are polled this long
+# before the tool is considered to have failed
+OUTPUT_TIMEOUT_SECONDS=@@OUTPUT_TIMEOUT_SECONDS@@
+
+# all input and output ports of the job, separated by whitespace; when staging, only these files are copied to and from
+# the scratch directory
+INPUT_PORTS="@@INPUT_PORTS@@"
+OUTPUT_PORTS="@@OUTPUT_PORTS@@"
+
+# inputs of jobs in a batched loop are work units: tar files containing several elements, named after their index;
+# the tool is executed once per element, each one in its own directory, and outputs are packed into work units again
+BATCH_INPUT_PORTS="@@BATCH_INPUT_PORTS@@"
+# whether the elements of a work unit are processed in parallel, on as many cores as the job was given
+BATCH_PARALLEL="@@BATCH_PARALLEL@@"
+# cores requested for this job based on previous runs of the tool, empty if none were requested
+REQUESTED_CORES="@@REQUESTED_CORES@@"
+BATCH_DIRECTORY=".knime2grid_batch"
+# each element leaves its attempts, peak memory, input bytes and CPU time in this file
+ELEMENT_STATS_FILE_NAME=".knime2grid_element_stats"
+# the CPU time of the tool is passed from the subshell that runs it through this file
+TOOL_CPU_FILE_NAME=".knime2grid_tool_cpu_ms"
+
+# working directories are often on shared file systems (Lustre, NFS) where expanding thousands of small files hammers
+# the metadata server; in staging mode the job runs in node-local scratch space instead, which is either the
+# configured SCRATCH_DIRECTORY, $SLURM_TMPDIR or $TMPDIR
+SCRATCH_STAGING="@@SCRATCH_STAGING@@"
+SCRATCH_DIRECTORY="@@SCRATCH_DIRECTORY@@"
+# expanded archives and outputs need room as well, so we ask for this many times the size of the inputs
+SCRATCH_SPACE_FACTOR=3
+
+WORKING_DIRECTORY=$(pwd)
+STAGING_DIRECTORY=""
+
+# each run writes a small JSON record with the time spent in each phase, the number of attempts, the size of inputs
+# (once expanded) and outputs, and the peak resident memory and CPU time of the tool into STATS_FILE_NAME, next to the
+# outputs; the record is also printed, prefixed with KNIME2GRID_STATS, so it ends up in the logs collected by gUSE
+STATS_FILE_NAME="knime2grid-stats.json"
+STATS_PHASES="stage_in expand execute wait_for_outputs backoff compress stage_out"
+declare -A PHASE_MS
+PHASE_STARTED_MS=0
+STARTED_SECONDS=$(date +%s)
+ATTEMPT=0
+INPUT_BYTES=0
+OUTPUT_BYTES=0
+PEAK_RSS_KB=""
+CPU_MS=""
+ELEMENTS=1
+CLOCK_TICKS=$(getconf CLK_TCK 2> /dev/null || echo 100)
+
+# prints the current time in milliseconds, or in whole seconds if date doesn't support nanoseconds
+now_ms() {
+	local now
+	now=$(date +%s%N)
+	case "${now}" in
+		*N) echo $(($(date +%s) * 1000)) ;;
+		*) echo $((now / 1000000)) ;;
+	esac
+}
+
+phase_begin() {
+	PHASE_STARTED_MS=$(now_ms)
+}
+
+# adds the time since phase_begin to the given phase
+phase_end() {
+	PHASE_MS[$1]=$((${PHASE_MS[$1]:-0} + $(now_ms) - PHASE_STARTED_MS))
+}
+
+# prints the total size, in bytes, of the given files; missing files are ignored
+count_bytes() {
+	local total=0
+	local file
+	for file in "$@"; do
+		if [ -f "${file}" ]; then
+			total=$((total + $(wc -c < "${file}")))
+		fi
+	done
+	echo ${total}
+}
+
+json_escape() {
+	local value="${1//\\/\\\\}"
+	echo -n "${value//\"/\\\"}"
+}
+
+write_stats() {
+	local exit_code=$1
+	local phases=""
+	local phase
+	for phase in ${STATS_PHASES}; do
+		phases="${phases}${phases:+, }\"${phase}\": ${PHASE_MS[${phase}]:-0}"
+	done
+	local record="{\"script\": \"job_wrapper.sh\", \"tool\": \"$(json_escape "${TOOL_ID}")\", \"executable\": \"$(json_escape "${EXECUTABLE}")\", \"host\": \"$(json_escape "${HOSTNAME}")\", \"started\": ${STARTED_SECONDS}, \"exit_code\": ${exit_code}, \"attempts\": ${ATTEMPT}, \"elements\": ${ELEMENTS}, \"phases_ms\": {${phases}}, \"input_bytes\": ${INPUT_BYTES}, \"output_bytes\": ${OUTPUT_BYTES}, \"peak_rss_kb\": ${PEAK_RSS_KB:-null}, \"cpu_ms\": ${CPU_MS:-null}}"
+	echo "${record}" > "${WORKING_DIRECTORY}/${STATS_FILE_NAME}"
+	echo "KNIME2GRID_STATS ${record}"
+}
+
+# statistics are written even if the job fails, the scratch directory is always removed
+on_exit() {
+	local exit_code=$?
+	write_stats ${exit_code}
+	if [ -n "${STAGING_DIRECTORY}" ]; then
+		rm -rf "${STAGING_DIRECTORY}"
+	fi
+}
+trap on_exit EXIT
+
+# prints the files of the given ports, including the files of generator/collector ports
+port_files() {
+	local ports="$1"
+	local split_ports="$2"
+	local port
+	local file
+	for port in ${ports}; do
+		case " ${split_ports} " in
+			*" ${port} "*)
+				for file in "${port}"_*; do
+					if [ -e "${file}" ]; then
+						echo "${file}"
+					fi
+				done
+				;;
+			*) echo "${port}" ;;
+		esac
+	done
+}
+
+# prints the first usable scratch directory, if any
+find_scratch_directory() {
+	local candidate
+	for candidate in "${SCRATCH_DIRECTORY}" "${SLURM_TMPDIR}" "${TMPDIR}"; do
+		if [ -n "${candidate}" ] && [ -d "${candidate}" ] && [ -w "${candidate}" ]; then
+			echo "${candidate}"
+			return 0
+		fi
+	done
+	return 1
+}
+
+# copies the inputs to scratch space and changes into it; if there's no (large enough) scratch space, the job runs in
+# the working directory as usual
+stage_in() {
+	local scratch_directory
+	if ! scratch_directory=$(find_scratch_directory); then
+		echo "no scratch directory found, running in ${WORKING_DIRECTORY}"
+		return 0
+	fi
+	local required_kb=0
+	local input_port
+	for input_port in $(port_files "${INPUT_PORTS}" "${COLLECTED_INPUT_PORTS}"); do
+		if [ -e "${input_port}" ]; then
+			required_kb=$((required_kb + $(du -kL "${input_port}" | cut -f1)))
+		fi
+	done
+	required_kb=$((required_kb * SCRATCH_SPACE_FACTOR))
+	local available_kb
+	available_kb=$(df -Pk "${scratch_directory}" | awk 'NR == 2 { print $4 }')
+	if [ -z "${available_kb}" ] || [ ${available_kb} -lt ${required_kb} ]; then
+		echo "not enough space in ${scratch_directory} (${available_kb}KB available, ${required_kb}KB required), running in ${WORKING_DIRECTORY}"
+		return 0
+	fi
+	STAGING_DIRECTORY=$(mktemp -d "${scratch_directory}/knime2grid_XXXXXX") || return 0
+	for input_port in $(port_files "${INPUT_PORTS}" "${COLLECTED_INPUT_PORTS}"); do
+		if [ -e "${input_port}" ]; then
+			if ! cp -L "${input_port}" "${STAGING_DIRECTORY}/"; then
+				echo "could not copy ${input_port} to ${STAGING_DIRECTORY}" >&2
+				exit 1
+			fi
+		fi
+	done
+	echo "running in ${STAGING_DIRECTORY}"
+	cd "${STAGING_DIRECTORY}" || exit 1
+}
+
+# moves the outputs back into the working directory, nothing else is kept
+stage_out() {
+	if [ -z "${STAGING_DIRECTORY}" ]; then
+		return 0
+	fi
+	local output_port
+	for output_port in $(port_files "${OUTPUT_PORTS}" "${GENERATOR_OUTPUT_PORTS}"); do
+		if [ -e "${output_port}" ]; then
+			if ! mv "${output_port}" "${WORKING_DIRECTORY}/"; then
+				echo "could not move ${output_port} to ${WORKING_DIRECTORY}" >&2
+				exit 1
+			fi
+		fi
+	done
+	cd "${WORKING_DIRECTORY}" || exit 1
+}
+
+phase_begin
+if [ "${SCRATCH_STAGING}" = "true" ]; then
+	stage_in
+fi
+phase_end stage_in
+
+# at most this many archives are expanded at the same time, it can be overriden via the environment
+if [ -n "${KNIME2GRID_MAX_PARALLEL_EXTRACTIONS}" ]; then
+	MAX_PARALLEL_EXTRACTIONS=${KNIME2GRID_MAX_PARALLEL_EXTRACTIONS}
+else
+	MAX_PARALLEL_EXTRACTIONS=$(nproc 2>/dev/null || echo 1)
+	# extracting is mostly I/O, more than a few at once just makes the disk seek
+	if [ ${MAX_PARALLEL_EXTRACTIONS} -gt 4 ]; then
+		MAX_PARALLEL_EXTRACTIONS=4
+	fi
+fi
+
+# expands an archive and renames its files to 0_basename, 1_basename, ... (in the order in which they appear in the
+# archive); the archive is decompressed only once: tar lists each member as it extracts it. Names are listed as they
+# are, otherwise GNU tar escapes non-ASCII characters in the C locale and such members can't be found; a missing
+# member would shift the index of all following files, so that's an error
+expand_archive() {
+	local archive="$1"
+	local basename="$2"
+	local extraction_dir
+	extraction_dir=$(mktemp -d "./.knime2grid_expand_XXXXXX") || return 1
+	if ! tar --quoting-style=literal -xvzf "${archive}" -C "${extraction_dir}" > "${extraction_dir}.members"; then
+		rm -rf "${extraction_dir}" "${extraction_dir}.members"
+		return 1
+	fi
+	local file_index=0
+	local member
+	while IFS= read -r member; do
+		# directories are listed too, but only files are inputs
+		if [ -f "${extraction_dir}/${member}" ]; then
+			mv "${extraction_dir}/${member}" "${file_index}_${basename}" || break
+			file_index=$((file_index + 1))
+		fi
+	done < "${extraction_dir}.members"
+	local remaining_files
+	remaining_files=$(find "${extraction_dir}" -type f | wc -l)
+	rm -rf "${extraction_dir}" "${extraction_dir}.members"
+	if [ ${remaining_files} -ne 0 ]; then
+		echo "could not match ${remaining_files} of the files in ${archive} to the members listed by tar" >&2
+		return 1
+	fi
+}
+
+# renames the files collected by gUSE (port_0, port_1, ...) to 0_basename, 1_basename, ... in the order of the
+# elements of the loop
+collect_input() {
+	local input_port="$1"
+	local basename="$2"
+	local file_index=0
+	local element
+	for element in $(for file in "${input_port}"_*; do echo "${file##*_}"; done | grep -x '[0-9][0-9]*' | sort -n); do
+		mv "${input_port}_${element}" "${file_index}_${basename}" || return 1
+		file_index=$((file_index + 1))
+	done
+}
+
+# expands the multi-file inputs in the current directory
+expand_inputs() {
+	local archive_index=0
+	local extraction_pids=()
+	local extraction_failed=0
+	local input_port
+	local basename_variable_name
+	local extraction_pid
 	for input_port in ${INPUT_PORTS_WITH_FILELIST}; do
 		echo "expanding ${input_port}"
-		# extract files individually and rename them
-		FILE_INDEX=0
-		BASENAME_VARIABLE_NAME="KNIME2GRID_VAR_${FILE_INDEX}"
-		for input_file in `tar tfz ${input_port}`; do
-			# use basename and index to rename the file as its written to stdout
-			tar xOfz ${input_port} ${input_file} > ${FILE_INDEX}_${!BASENAME_VARIABLE_NAME}
-			FILE_INDEX=$(expr ${FILE_INDEX} + 1)
-		done
-		ARCHIVE_INDEX=$(expr ${ARCHIVE_INDEX} + 1)
+		# the N-th archive uses the N-th filename translation variable
+		basename_variable_name="KNIME2GRID_VAR_${archive_index}"
+		archive_index=$((archive_index + 1))
+		case " ${COLLECTED_INPUT_PORTS} " in
+			*" ${input_port} "*)
+				collect_input "${input_port}" "${!basename_variable_name}" || extraction_failed=1
+				continue
+				;;
+		esac
+		if [ ${#extraction_pids[@]} -ge ${MAX_PARALLEL_EXTRACTIONS} ]; then
+			wait ${extraction_pids[0]} || extraction_failed=1
+			extraction_pids=("${extraction_pids[@]:1}")
+		fi
+		expand_archive "${input_port}" "${!basename_variable_name}" &
+		extraction_pids+=($!)
 	done
-fi
+	for extraction_pid in "${extraction_pids[@]}"; do
+		wait ${extraction_pid} || extraction_failed=1
+	done
+	if [ ${extraction_failed} -ne 0 ]; then
+		echo "could not expand the multi-file inputs" >&2
+		return 1
+	fi
+}
 
-# execute the tool using Major Hackett's approach
-N_ATTEMPTS=1
-HACKETT_OUT=""
-while [  -z "${HACKETT_OUT}"  ]; do
-	echo "Executing(${N_ATTEMPTS}): ${EXECUTABLE} ${COMMAND_LINE_PARAMETERS}"
-	N_ATTEMPTS=$(expr ${N_ATTEMPTS} + 1)
-	${EXECUTABLE} ${COMMAND_LINE_PARAMETERS}
-	HACKETT_OUT="yes"
-	for hackettinno in ${MAJOR_HACKETT}; do
-		if [ ! -s ${hackettinno} ]; then
-			# expected output not found or size zero
-			HACKETT_OUT=""
-			sleep 2
-			break;
+# prints the size of the inputs in the current directory; inputs are counted once expanded, which is what the exporter
+# knows about them
+count_input_bytes() {
+	local total=0
+	local input_port
+	for input_port in ${INPUT_PORTS}; do
+		case " ${INPUT_PORTS_WITH_FILELIST} " in
+			*" ${input_port} "*) ;;
+			*) total=$((total + $(count_bytes "${input_port}"))) ;;
+		esac
+	done
+	local archive_index=0
+	local basename_variable_name
+	for input_port in ${INPUT_PORTS_WITH_FILELIST}; do
+		basename_variable_name="KNIME2GRID_VAR_${archive_index}"
+		total=$((total + $(count_bytes [0-9]*_"${!basename_variable_name}")))
+		archive_index=$((archive_index + 1))
+	done
+	echo ${total}
+}
+
+# whether all expected outputs exist and are not empty
+outputs_visible() {
+	local expected_output
+	for expected_output in ${EXPECTED_OUTPUTS}; do
+		if [ ! -s "${expected_output}" ]; then
+			return 1
 		fi
 	done
-done
+	return 0
+}
+
+# polls for the expected outputs until they are visible or OUTPUT_TIMEOUT_SECONDS have passed; the tool is not executed
+# again while polling
+wait_for_outputs() {
+	local waited=0
+	local poll_seconds=1
+	while ! outputs_visible; do
+		if [ ${waited} -ge ${OUTPUT_TIMEOUT_SECONDS} ]; then
+			return 1
+		fi
+		sleep ${poll_seconds}
+		waited=$((waited + poll_seconds))
+		poll_seconds=$((poll_seconds * 2))
+		if [ ${poll_seconds} -gt 10 ]; then
+			poll_seconds=10
+		fi
+	done
+	return 0
+}
+
+# waits before the given attempt: exponential backoff, capped, with up to 50% of jitter
+backoff() {
+	local attempt=$1
+	local backoff_seconds=${RETRY_BACKOFF_SECONDS}
+	local i
+	for ((i = 2; i < attempt && backoff_seconds < MAX_RETRY_BACKOFF_SECONDS; i++)); do
+		backoff_seconds=$((backoff_seconds * 2))
+	done
+	if [ ${backoff_seconds} -gt ${MAX_RETRY_BACKOFF_SECONDS} ]; then
+		backoff_seconds=${MAX_RETRY_BACKOFF_SECONDS}
+	fi
+	backoff_seconds=$((backoff_seconds + RANDOM % (backoff_seconds / 2 + 1)))
+	echo "waiting ${backoff_seconds}s before attempt ${attempt}"
+	sleep ${backoff_seconds}
+}
+
+# prints the resident memory, in KB, of the given process and all of its descendants
+tree_rss_kb() {
+	awk -v root="$1" '
+		/^Pid:/ { pid = $2 }
+		/^PPid:/ { parent[pid] = $2 }
+		/^VmRSS:/ { rss[pid] = $2 }
+		END {
+			in_tree[root] = 1
+			do {
+				changed = 0
+				for (p in parent) {
+					if (!(p in in_tree) && (parent[p] in in_tree)) {
+						in_tree[p] = 1
+						changed = 1
+					}
+				}
+			} while (changed)
+			for (p in in_tree) {
+				total += rss[p]
+			}
+			print total + 0
+		}' /proc/[0-9]*/status 2> /dev/null
+}
 
+# prints the CPU time, in milliseconds, used by the children of the given process that have finished
+children_cpu_ms() {
+	# the name of the process comes between parentheses and could contain spaces, so fields are counted after it
+	awk -v hz="${CLOCK_TICKS}" '{ sub(/^.*\) /, ""); print int(($14 + $15) * 1000 / hz) }' /proc/$1/stat
+}
+
+# runs the tool; if /proc is available, the resident memory of the tool and its children is sampled and the peak is kept
+# in PEAK_RSS_KB, and their CPU time is added to CPU_MS; samples are taken more often at the beginning, so that short
+# tools are not delayed by a whole second
+run_tool() {
+	if [ ! -r /proc/self/status ]; then
+		${EXECUTABLE} ${COMMAND_LINE_PARAMETERS}
+		return $?
+	fi
+	rm -f "${TOOL_CPU_FILE_NAME}"
+	# the tool is the only child of this subshell, so the CPU time of the subshell's children is the one of the tool,
+	# without the processes used to sample its memory
+	(
+		${EXECUTABLE} ${COMMAND_LINE_PARAMETERS}
+		tool_exit_code=$?
+		children_cpu_ms ${BASHPID} > "${TOOL_CPU_FILE_NAME}"
+		exit ${tool_exit_code}
+	) &
+	local tool_pid=$!
+	local rss_kb
+	local sample_seconds
+	local sample_index=0
+	local sample_intervals=(0.1 0.2 0.5)
+	while kill -0 ${tool_pid} 2> /dev/null; do
+		rss_kb=$(tree_rss_kb ${tool_pid})
+		if [ -z "${PEAK_RSS_KB}" ] || [ ${rss_kb} -gt ${PEAK_RSS_KB} ]; then
+			PEAK_RSS_KB=${rss_kb}
+		fi
+		sample_seconds=${sample_intervals[${sample_index}]:-1}
+		sample_index=$((sample_index + 1))
+		# not every sleep supports fractions of a second
+		sleep ${sample_seconds} 2> /dev/null || sleep 1
+	done
+	wait ${tool_pid}
+	local exit_code=$?
+	local tool_cpu_ms
+	if read -r tool_cpu_ms < "${TOOL_CPU_FILE_NAME}" 2> /dev/null && [ -n "${tool_cpu_ms}" ]; then
+		CPU_MS=$((${CPU_MS:-0} + tool_cpu_ms))
+	fi
+	rm -f "${TOOL_CPU_FILE_NAME}"
+	return ${exit_code}
+}
+
+# executes the tool, retrying if it fails; returns the exit code of the last attempt
+run_with_retries() {
+	local exit_code
+	local outputs_visible
+	ATTEMPT=1
+	while true; do
+		echo "Executing(${ATTEMPT}/${MAX_ATTEMPTS}): ${EXECUTABLE} ${COMMAND_LINE_PARAMETERS}"
+		phase_begin
+		run_tool
+		exit_code=$?
+		phase_end execute
+		if [ ${exit_code} -eq 0 ]; then
+			phase_begin
+			wait_for_outputs
+			outputs_visible=$?
+			phase_end wait_for_outputs
+			if [ ${outputs_visible} -eq 0 ]; then
+				return 0
+			fi
+			echo "the tool succeeded, but its outputs were not found after ${OUTPUT_TIMEOUT_SECONDS}s" >&2
+			exit_code=1
+		else
+			echo "the tool failed with exit code ${exit_code}" >&2
+		fi
+		if [ ${ATTEMPT} -ge ${MAX_ATTEMPTS} ]; then
+			echo "giving up after ${ATTEMPT} attempts" >&2
+			return ${exit_code}
+		fi
+		ATTEMPT=$((ATTEMPT + 1))
+		phase_begin
+		backoff ${ATTEMPT}
+		phase_end backoff
+	done
+}
+
+# renames 0_basename, 1_basename, ... to port_0, port_1, ... so gUSE can pass them to the instances of the next job
+split_output() {
+	local output_port="$1"
+	local basename="$2"
+	local file_index=0
+	local file
+	for file in $(for file in [0-9]*_"${basename}"; do echo "${file}"; done | sort -n); do
+		if [ -e "${file}" ]; then
+			mv "${file}" "${output_port}_${file_index}" || return 1
+			file_index=$((file_index + 1))
+		fi
+	done
+}
 
-# compress the multi-file outputs
-if [ -n "$OUTPUT_PORTS_WITH_FILELIST" ]; then
+# compresses the multi-file outputs in the current directory
+compress_outputs() {
+	local output_port
 	for output_port in ${OUTPUT_PORTS_WITH_FILELIST}; do
+		case " ${GENERATOR_OUTPUT_PORTS} " in
+			*" ${output_port} "*)
+				echo "splitting outputs for ${output_port}"
+				split_output "${output_port}" "${output_port:0:(-7)}" || return 1
+				continue
+				;;
+		esac
 		echo "compressing outputs for ${output_port}"
 		# the name of the port would be similar to foo.tar.gz, so we need to strip the .tar.gz (7 chars long) off the name
 		# tools have been configured to output files using the following pattern:
 		# 0_[foo].[bar], 1_[foo].[bar], ... 
 		tar cfz ${output_port} *_${output_port:0:(-7)}
 	done
-fi
\ No newline at end of file
+}
+
+# processes one element of a work unit in the current directory, meant to be run in a subshell
+run_element() {
+	PEAK_RSS_KB=""
+	expand_inputs || return 1
+	local input_bytes
+	input_bytes=$(count_input_bytes)
+	run_with_retries
+	local exit_code=$?
+	echo "${ATTEMPT} ${PEAK_RSS_KB:-0} ${input_bytes} ${CPU_MS:-0}" > "${ELEMENT_STATS_FILE_NAME}"
+	if [ ${exit_code} -ne 0 ]; then
+		return ${exit_code}
+	fi
+	compress_outputs
+}
+
+# prints the number of elements of a work unit processed at the same time; the cores of the node are not a good
+# guess, since jobs usually share nodes with other jobs, so unless the scheduler tells how many cores were allocated
+# to the job, only the requested cores (or a single one) are used
+batch_parallelism() {
+	if [ "${BATCH_PARALLEL}" != "true" ]; then
+		echo 1
+	elif [ -n "${KNIME2GRID_BATCH_PARALLELISM}" ]; then
+		echo ${KNIME2GRID_BATCH_PARALLELISM}
+	elif [ -n "${SLURM_CPUS_PER_TASK}" ]; then
+		echo ${SLURM_CPUS_PER_TASK}
+	elif [ -n "${NSLOTS}" ]; then
+		# SGE
+		echo ${NSLOTS}
+	elif [ -n "${PBS_NUM_PPN}" ]; then
+		# Torque
+		echo ${PBS_NUM_PPN}
+	elif [ -n "${REQUESTED_CORES}" ]; then
+		echo ${REQUESTED_CORES}
+	else
+		echo 1
+	fi
+}
+
+# unpacks the work units, processes each element in its own directory and packs the outputs of all elements into work
+# units again; statistics cover the whole unit
+run_batch() {
+	phase_begin
+	rm -rf "${BATCH_DIRECTORY}"
+	mkdir "${BATCH_DIRECTORY}" || return 1
+	local batch_port
+	for batch_port in ${BATCH_INPUT_PORTS}; do
+		mkdir "${BATCH_DIRECTORY}/in_${batch_port}" || return 1
+		if ! tar xf "${batch_port}" -C "${BATCH_DIRECTORY}/in_${batch_port}"; then
+			echo "could not unpack the work unit ${batch_port}" >&2
+			return 1
+		fi
+	done
+	# all work units of a job contain the same elements
+	local members
+	members=$(ls "${BATCH_DIRECTORY}/in_${BATCH_INPUT_PORTS%% *}" | sort -n)
+	ELEMENTS=$(echo ${members} | wc -w)
+	phase_end expand
+
+	local parallelism
+	parallelism=$(batch_parallelism)
+	echo "processing ${ELEMENTS} elements, ${parallelism} at a time"
+	phase_begin
+	local element_pids=()
+	local element_failed=0
+	local member
+	local member_directory
+	local input_port
+	for member in ${members}; do
+		member_directory="${BATCH_DIRECTORY}/run_${member}"
+		mkdir "${member_directory}" || return 1
+		for input_port in ${INPUT_PORTS}; do
+			case " ${BATCH_INPUT_PORTS} " in
+				*" ${input_port} "*) mv "${BATCH_DIRECTORY}/in_${input_port}/${member}" "${member_directory}/${input_port}" || return 1 ;;
+				*) [ -e "${input_port}" ] && ln -s "$(pwd)/${input_port}" "${member_directory}/${input_port}" ;;
+			esac
+		done
+		if [ ${#element_pids[@]} -ge ${parallelism} ]; then
+			wait ${element_pids[0]} || element_failed=1
+			element_pids=("${element_pids[@]:1}")
+		fi
+		(cd "${member_directory}" && run_element) > "${member_directory}.log" 2>&1 &
+		element_pids+=($!)
+	done
+	local element_pid
+	for element_pid in "${element_pids[@]}"; do
+		wait ${element_pid} || element_failed=1
+	done
+	phase_end execute
+
+	# logs are printed in the order of the elements, statistics are aggregated over all of them
+	local attempts
+	local rss_kb
+	local input_bytes
+	local cpu_ms
+	local peak_rss_kb=0
+	for member in ${members}; do
+		member_directory="${BATCH_DIRECTORY}/run_${member}"
+		echo "=== element ${member}"
+		cat "${member_directory}.log"
+		if read -r attempts rss_kb input_bytes cpu_ms < "${member_directory}/${ELEMENT_STATS_FILE_NAME}" 2> /dev/null; then
+			if [ ${attempts} -gt ${ATTEMPT} ]; then
+				ATTEMPT=${attempts}
+			fi
+			if [ ${rss_kb} -gt ${peak_rss_kb} ]; then
+				peak_rss_kb=${rss_kb}
+			fi
+			INPUT_BYTES=$((INPUT_BYTES + input_bytes))
+			# without /proc, the CPU time of the tool is not known
+			if [ -r /proc/self/status ]; then
+				CPU_MS=$((${CPU_MS:-0} + ${cpu_ms:-0}))
+			fi
+		fi
+	done
+	if [ ${peak_rss_kb} -gt 0 ]; then
+		# elements processed at the same time need memory at the same time
+		if [ ${parallelism} -lt ${ELEMENTS} ]; then
+			PEAK_RSS_KB=$((peak_rss_kb * parallelism))
+		else
+			PEAK_RSS_KB=$((peak_rss_kb * ELEMENTS))
+		fi
+	fi
+	if [ ${element_failed} -ne 0 ]; then
+		echo "not all elements of the work unit could be processed" >&2
+		return 1
+	fi
+
+	phase_begin
+	local output_port
+	local output_directory
+	for output_port in ${OUTPUT_PORTS}; do
+		output_directory="${BATCH_DIRECTORY}/out_${output_port}"
+		mkdir "${output_directory}" || return 1
+		for member in ${members}; do
+			mv "${BATCH_DIRECTORY}/run_${member}/${output_port}" "${output_directory}/${member}" || return 1
+		done
+		if ! tar cf "${output_port}" -C "${output_directory}" ${members}; then
+			echo "could not pack the work unit ${output_port}" >&2
+			return 1
+		fi
+	done
+	rm -rf "${BATCH_DIRECTORY}"
+	phase_end compress
+}
+
+if [ -n "${BATCH_INPUT_PORTS}" ]; then
+	run_batch || exit 1
+else
+	phase_begin
+	expand_inputs || exit 1
+	phase_end expand
+	INPUT_BYTES=$(count_input_bytes)
+	run_with_retries || exit $?
+	phase_begin
+	compress_outputs || exit 1
+	phase_end compress
+fi
+OUTPUT_BYTES=$(count_bytes $(port_files "${OUTPUT_PORTS}" "${GENERATOR_OUTPUT_PORTS}"))
+
+phase_begin
+stage_out
+phase_end stage_out
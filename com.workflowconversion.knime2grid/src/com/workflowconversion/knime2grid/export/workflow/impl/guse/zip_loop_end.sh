@@ -4,7 +4,63 @@
 # gUSE will provide files named after this port name, e.g., foo_0, foo_1, ...
 INPUT_BASE_NAME="@@INPUT_BASE_NAME@@"
 OUTPUT_PORT_NAME="@@OUTPUT_PORT_NAME@@"
+# when batching, each of the files provided by gUSE is a work unit, i.e., a tar file whose members are named after the
+# index of the element (see zip_loop_start.sh)
+BATCHING="@@BATCHING@@"
+
+# like job_wrapper.sh, a small JSON record with the time spent and the size of inputs and outputs is written into
+# knime2grid-stats.json and printed, prefixed with KNIME2GRID_STATS
+now_ms() {
+	local now
+	now=$(date +%s%N)
+	case "${now}" in
+		*N) echo $(($(date +%s) * 1000)) ;;
+		*) echo $((now / 1000000)) ;;
+	esac
+}
+
+# prints the total size, in bytes, of the given files; missing files are ignored
+count_bytes() {
+	local total=0
+	local file
+	for file in "$@"; do
+		if [ -f "${file}" ]; then
+			total=$((total + $(wc -c < "${file}")))
+		fi
+	done
+	echo ${total}
+}
+
+STARTED_SECONDS=$(date +%s)
+PHASE_STARTED_MS=$(now_ms)
+
+write_stats() {
+	local exit_code=$?
+	local record="{\"script\": \"zip_loop_end.sh\", \"host\": \"${HOSTNAME}\", \"started\": ${STARTED_SECONDS}, \"exit_code\": ${exit_code}, \"attempts\": 1, \"phases_ms\": {\"compress\": $(($(now_ms) - PHASE_STARTED_MS))}, \"input_bytes\": ${INPUT_BYTES:-0}, \"output_bytes\": ${OUTPUT_BYTES:-0}, \"peak_rss_kb\": null}"
+	echo "${record}" > knime2grid-stats.json
+	echo "KNIME2GRID_STATS ${record}"
+}
+trap write_stats EXIT
+
+INPUT_BYTES=$(count_bytes ${INPUT_BASE_NAME}_*)
+
+if [ "${BATCHING}" = "true" ]; then
+	UNPACK_DIR=$(mktemp -d "./.knime2grid_units_XXXXXX") || exit 1
+	for unit in ${INPUT_BASE_NAME}_*; do
+		if ! tar xf "${unit}" -C "${UNPACK_DIR}"; then
+			echo "could not unpack the work unit ${unit}" >&2
+			rm -rf "${UNPACK_DIR}"
+			exit 1
+		fi
+		rm "${unit}"
+	done
+	for element in $(ls "${UNPACK_DIR}"); do
+		mv "${UNPACK_DIR}/${element}" "${INPUT_BASE_NAME}_${element}"
+	done
+	rm -rf "${UNPACK_DIR}"
+fi
 
 # Achtung: hoc non est verum scientia
 tar cvfz ${OUTPUT_PORT_NAME} ${INPUT_BASE_NAME}_*
-rm ${INPUT_BASE_NAME}_*
\ No newline at end of file
+OUTPUT_BYTES=$(count_bytes "${OUTPUT_PORT_NAME}")
+rm ${INPUT_BASE_NAME}_*
@@ -5,10 +5,111 @@
 INPUT_PORT_NAME="@@INPUT_PORT_NAME@@"
 OUTPUT_BASE_NAME="@@OUTPUT_BASE_NAME@@" 
 
+# when batching, elements are grouped into work units, so that gUSE submits one job per unit instead of one job per
+# element; units are tar files whose members are named after the index of the element; the number of elements in a unit
+# is chosen so that a unit takes about TARGET_BATCH_MILLIS (given that an element took ELEMENT_MILLIS in previous runs,
+# 0 if unknown) and there are at most MAX_WORK_UNITS units
+BATCHING="@@BATCHING@@"
+TARGET_BATCH_MILLIS=@@TARGET_BATCH_MILLIS@@
+ELEMENT_MILLIS=@@ELEMENT_MILLIS@@
+MAX_WORK_UNITS=@@MAX_WORK_UNITS@@
+
+# like job_wrapper.sh, a small JSON record with the time spent and the size of inputs and outputs is written into
+# knime2grid-stats.json and printed, prefixed with KNIME2GRID_STATS
+now_ms() {
+	local now
+	now=$(date +%s%N)
+	case "${now}" in
+		*N) echo $(($(date +%s) * 1000)) ;;
+		*) echo $((now / 1000000)) ;;
+	esac
+}
+
+# prints the total size, in bytes, of the given files; missing files are ignored
+count_bytes() {
+	local total=0
+	local file
+	for file in "$@"; do
+		if [ -f "${file}" ]; then
+			total=$((total + $(wc -c < "${file}")))
+		fi
+	done
+	echo ${total}
+}
+
+STARTED_SECONDS=$(date +%s)
+PHASE_STARTED_MS=$(now_ms)
+
+write_stats() {
+	local exit_code=$?
+	local record="{\"script\": \"zip_loop_start.sh\", \"host\": \"${HOSTNAME}\", \"started\": ${STARTED_SECONDS}, \"exit_code\": ${exit_code}, \"attempts\": 1, \"elements\": ${FILENAME_INDEX:-0}, \"phases_ms\": {\"expand\": $(($(now_ms) - PHASE_STARTED_MS))}, \"input_bytes\": ${INPUT_BYTES:-0}, \"output_bytes\": ${OUTPUT_BYTES:-0}, \"peak_rss_kb\": null}"
+	echo "${record}" > knime2grid-stats.json
+	echo "KNIME2GRID_STATS ${record}"
+}
+trap write_stats EXIT
+
+INPUT_BYTES=$(count_bytes "${INPUT_PORT_NAME}")
+
 # gUSE expects files from a generator to be named, e.g., bar_0, bar_1, ...
 # "specialize in distributed systems", they said; "it will be fun", they said
+# the archive is decompressed only once: tar lists each member as it extracts it, files are then renamed in the order
+# in which they appear in the archive. Names are listed as they are, otherwise GNU tar escapes non-ASCII characters in
+# the C locale and such members can't be found
+EXTRACTION_DIR=$(mktemp -d "./.knime2grid_expand_XXXXXX") || exit 1
+if ! tar --quoting-style=literal -xvzf "${INPUT_PORT_NAME}" -C "${EXTRACTION_DIR}" > "${EXTRACTION_DIR}.members"; then
+	echo "could not expand ${INPUT_PORT_NAME}" >&2
+	rm -rf "${EXTRACTION_DIR}" "${EXTRACTION_DIR}.members"
+	exit 1
+fi
+if [ "${BATCHING}" = "true" ]; then
+	ELEMENT_PREFIX="${EXTRACTION_DIR}.elements/"
+	mkdir "${EXTRACTION_DIR}.elements" || exit 1
+else
+	ELEMENT_PREFIX="${OUTPUT_BASE_NAME}_"
+fi
 FILENAME_INDEX=0
-for input_file in `tar tfz ${INPUT_PORT_NAME}`; do
-	tar xvfOz ${INPUT_PORT_NAME} ${input_file} > ${OUTPUT_BASE_NAME}_${FILENAME_INDEX}
-	FILENAME_INDEX=$(expr ${FILENAME_INDEX} + 1)
-done
\ No newline at end of file
+while IFS= read -r input_file; do
+	# directories are listed too, but only files are passed on
+	if [ -f "${EXTRACTION_DIR}/${input_file}" ]; then
+		echo "${input_file}"
+		mv "${EXTRACTION_DIR}/${input_file}" "${ELEMENT_PREFIX}${FILENAME_INDEX}" || break
+		FILENAME_INDEX=$((FILENAME_INDEX + 1))
+	fi
+done < "${EXTRACTION_DIR}.members"
+# a missing element would shift the index of all following ones
+REMAINING_FILES=$(find "${EXTRACTION_DIR}" -type f | wc -l)
+rm -rf "${EXTRACTION_DIR}" "${EXTRACTION_DIR}.members"
+if [ ${REMAINING_FILES} -ne 0 ]; then
+	echo "could not match ${REMAINING_FILES} of the files in ${INPUT_PORT_NAME} to the members listed by tar" >&2
+	rm -rf "${EXTRACTION_DIR}.elements"
+	exit 1
+fi
+
+if [ "${BATCHING}" = "true" ]; then
+	BATCH_SIZE=1
+	if [ ${ELEMENT_MILLIS} -gt 0 ] && [ $((TARGET_BATCH_MILLIS / ELEMENT_MILLIS)) -gt ${BATCH_SIZE} ]; then
+		BATCH_SIZE=$((TARGET_BATCH_MILLIS / ELEMENT_MILLIS))
+	fi
+	if [ $(((FILENAME_INDEX + MAX_WORK_UNITS - 1) / MAX_WORK_UNITS)) -gt ${BATCH_SIZE} ]; then
+		BATCH_SIZE=$(((FILENAME_INDEX + MAX_WORK_UNITS - 1) / MAX_WORK_UNITS))
+	fi
+	if [ ${BATCH_SIZE} -gt ${FILENAME_INDEX} ] && [ ${FILENAME_INDEX} -gt 0 ]; then
+		BATCH_SIZE=${FILENAME_INDEX}
+	fi
+	echo "grouping ${FILENAME_INDEX} elements into work units of ${BATCH_SIZE}"
+	UNIT_INDEX=0
+	for ((first = 0; first < FILENAME_INDEX; first += BATCH_SIZE)); do
+		members=""
+		for ((member = first; member < first + BATCH_SIZE && member < FILENAME_INDEX; member++)); do
+			members="${members} ${member}"
+		done
+		if ! tar cf "${OUTPUT_BASE_NAME}_${UNIT_INDEX}" -C "${EXTRACTION_DIR}.elements" ${members}; then
+			echo "could not pack the work unit ${UNIT_INDEX}" >&2
+			rm -rf "${EXTRACTION_DIR}.elements"
+			exit 1
+		fi
+		UNIT_INDEX=$((UNIT_INDEX + 1))
+	done
+	rm -rf "${EXTRACTION_DIR}.elements"
+fi
+OUTPUT_BYTES=$(count_bytes "${OUTPUT_BASE_NAME}"_*)
@@ -12,6 +12,7 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.dialogs.ErrorDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.wizard.WizardDialog;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -25,9 +26,11 @@ import org.knime.workbench.editor2.WorkflowEditor;
 import com.workflowconversion.knime2grid.KnimeWorkflowExporterActivator;
 import com.workflowconversion.knime2grid.export.io.SourceConverter;
 import com.workflowconversion.knime2grid.export.node.NodeContainerConverter;
+import com.workflowconversion.knime2grid.export.workflow.IncrementalConversionState;
 import com.workflowconversion.knime2grid.export.workflow.InternalModelConverter;
 import com.workflowconversion.knime2grid.export.workflow.KnimeWorkflowExporterProvider;
 import com.workflowconversion.knime2grid.model.Workflow;
+import com.workflowconversion.knime2grid.preference.PreferenceConstants;
 import com.workflowconversion.knime2grid.ui.wizard.WorkflowExportWizard;
 
 /**
@@ -112,7 +115,14 @@ public class ConvertWorkflowHandler extends AbstractHandler {
 			}
 			throw new RuntimeException(error.toString());
 		}
-		final InternalModelConverter converter = new InternalModelConverter(workflowEditor, nodeConverters, sourceConverters);
+		final IPreferenceStore preferenceStore = KnimeWorkflowExporterActivator.getDefault().getPreferenceStore();
+		final int conversionThreads = Math.max(1, preferenceStore.getInt(PreferenceConstants.CONVERSION_THREADS));
+		// the state of each workflow is kept across invocations of this handler, so only changed nodes are converted again
+		final IncrementalConversionState incrementalState = preferenceStore.getBoolean(PreferenceConstants.INCREMENTAL_CONVERSION)
+				? IncrementalConversionState.forWorkflowManager(workflowManager)
+				: null;
+		final InternalModelConverter converter = new InternalModelConverter(workflowEditor, nodeConverters, sourceConverters, conversionThreads,
+				incrementalState);
 		return converter.convert();
 	}
 }
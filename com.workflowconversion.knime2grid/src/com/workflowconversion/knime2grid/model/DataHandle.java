@@ -0,0 +1,135 @@
+package com.workflowconversion.knime2grid.model;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.Validate;
+import org.knime.core.util.FileUtil;
+
+import com.genericworkflownodes.knime.parameter.FileListParameter;
+import com.genericworkflownodes.knime.parameter.FileParameter;
+import com.genericworkflownodes.knime.parameter.IFileParameter;
+import com.workflowconversion.knime2grid.exception.ApplicationException;
+
+/**
+ * Lazy reference to the data associated to a port. A handle only records where the data is (a local file or a remote
+ * URL) and how big it is expected to be; reading the data is up to the exporters.
+ *
+ * {@code file:} URLs and KNIME URLs (e.g., {@code knime://LOCAL/...}) that point to the local file system are resolved
+ * to local files when the handle is created, so only data that really lives somewhere else is treated as remote.
+ *
+ * Instances of this class are immutable.
+ *
+ * @author delagarza
+ */
+public class DataHandle {
+
+	/**
+	 * Value returned by {@link #getExpectedSize()} when the size of the data is not known in advance.
+	 */
+	public static final long UNKNOWN_SIZE = -1;
+
+	private final String location;
+	// null if the data is local
+	private final URL url;
+	// null if the data is remote
+	private final File localFile;
+	private final long expectedSize;
+
+	/**
+	 * @param location
+	 *            the location of the data, either a URL or a path.
+	 */
+	public DataHandle(final String location) {
+		Validate.notNull(location, "location cannot be null");
+		this.location = location;
+		final URL locationUrl = toUrl(location);
+		this.localFile = locationUrl == null ? new File(location) : FileUtil.getFileFromURL(locationUrl);
+		this.url = localFile == null ? locationUrl : null;
+		// we don't want to hit the network just to find out the size of remote content
+		this.expectedSize = localFile == null ? UNKNOWN_SIZE : localFile.length();
+	}
+
+	/**
+	 * Creates handles for all of the locations contained in the given parameter.
+	 *
+	 * @param fileParameter
+	 *            either a {@link FileParameter} or a {@link FileListParameter}.
+	 * @return handles for the locations of the parameter, in the same order.
+	 */
+	public static List<DataHandle> forFileParameter(final IFileParameter fileParameter) {
+		final List<DataHandle> dataHandles = new ArrayList<DataHandle>();
+		if (fileParameter instanceof FileParameter) {
+			dataHandles.add(new DataHandle(((FileParameter) fileParameter).getValue()));
+		} else if (fileParameter instanceof FileListParameter) {
+			for (final String filePath : ((FileListParameter) fileParameter).getValue()) {
+				dataHandles.add(new DataHandle(filePath));
+			}
+		} else {
+			throw new ApplicationException(
+					String.format("Unrecognized file parameter type: %s. This is a bug and should be reported.", fileParameter.getClass()));
+		}
+		return dataHandles;
+	}
+
+	private static URL toUrl(final String location) {
+		try {
+			return new URL(location);
+		} catch (final MalformedURLException e) {
+			// it's very probable that this is not a proper URL, we can just ignore this exception
+			// there's no "pure java" way to check for URL validity :(
+			return null;
+		}
+	}
+
+	/**
+	 * @return the location, as it was given (i.e., either a URL or a path).
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return the URL of remote data, or {@code null} if the data is local.
+	 */
+	public URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the file containing local data, or {@code null} if the data is remote.
+	 */
+	public File getLocalFile() {
+		return localFile;
+	}
+
+	/**
+	 * @return the name of the file referenced by this handle, without any directories.
+	 */
+	public String getName() {
+		return localFile == null ? FilenameUtils.getName(url.getPath()) : localFile.getName();
+	}
+
+	/**
+	 * @return whether the data is on the local file system, as opposed to a remote location.
+	 */
+	public boolean isLocal() {
+		return localFile != null;
+	}
+
+	/**
+	 * @return the expected size, in bytes, or {@link #UNKNOWN_SIZE}.
+	 */
+	public long getExpectedSize() {
+		return expectedSize;
+	}
+
+	@Override
+	public String toString() {
+		return location;
+	}
+}
@@ -33,6 +33,8 @@ public class Input extends Port {
         private NodeID sourceId;
         // the port number of the job that provides data for this input
         private int sourcePortNr;
+        // location (URL or path) from which the execution resource can read the data of this input
+        private String remoteReference;
 
         /**
          * @param sourceId
@@ -64,4 +66,33 @@ public class Input extends Port {
         public void setSourcePortNr(final int sourcePortNr) {
                 this.sourcePortNr = sourcePortNr;
         }
-}
\ No newline at end of file
+
+        /**
+         * @return the location (URL or path) from which the execution resource can read the data of this input, or
+         *         {@code null} if the data is to be shipped together with the exported workflow.
+         */
+        public String getRemoteReference() {
+                return remoteReference;
+        }
+
+        /**
+         * @param remoteReference
+         *            the location (URL or path) from which the execution resource can read the data of this input, or
+         *            {@code null} to ship the data together with the exported workflow.
+         */
+        public void setRemoteReference(final String remoteReference) {
+                this.remoteReference = remoteReference;
+        }
+
+        /**
+         * @return a deep copy of this input.
+         */
+        public Input copy() {
+                final Input copy = new Input();
+                copyTo(copy);
+                copy.sourceId = sourceId;
+                copy.sourcePortNr = sourcePortNr;
+                copy.remoteReference = remoteReference;
+                return copy;
+        }
+}
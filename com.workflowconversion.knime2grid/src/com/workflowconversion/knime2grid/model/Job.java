@@ -19,6 +19,7 @@
 package com.workflowconversion.knime2grid.model;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
@@ -60,6 +61,9 @@ public class Job implements GraphicElement {
 	private NodeID id;
 	private String name;
 	private String description;
+	// identifies the tool run by this job (e.g., the factory of the converted node), jobs running the same tool share
+	// their runtime history
+	private String toolId;
 
 	// the command line to execute this job... in general, to execute this job one
 	// would append
@@ -232,6 +236,14 @@ public class Job implements GraphicElement {
 		this.description = description;
 	}
 
+	public String getToolId() {
+		return toolId;
+	}
+
+	public void setToolId(final String toolId) {
+		this.toolId = toolId;
+	}
+
 	public Collection<CommandLineElement> getCommandLine() {
 		return commandLine;
 	}
@@ -270,6 +282,42 @@ public class Job implements GraphicElement {
 		return remoteQueue;
 	}
 
+	/**
+	 * Returns a deep copy of this job, so that the copy can be modified (e.g., renamed, connected or associated to a
+	 * remote application) without affecting this job. The destinations of the outputs are not copied, since they point
+	 * to other jobs.
+	 * 
+	 * @return a copy of this job.
+	 */
+	public Job copy() {
+		final Job copy = new Job();
+		copy.x = x;
+		copy.y = y;
+		copy.id = id;
+		copy.name = name;
+		copy.description = description;
+		copy.toolId = toolId;
+		copy.commandLine = new ArrayList<CommandLineElement>(commandLine);
+		copy.associatedApplication = associatedApplication;
+		copy.remoteQueue = remoteQueue;
+		copy.jobType = jobType;
+		copy.params.putAll(params);
+		// inputs and outputs share the port numbering, so they are added directly to keep their port numbers
+		for (final Input input : inputsByPortNr.values()) {
+			final Input inputCopy = input.copy();
+			copy.inputsByName.put(inputCopy.getName(), inputCopy);
+			copy.inputsByPortNr.put(inputCopy.getPortNr(), inputCopy);
+			copy.inputsByOriginalPortNr.put(inputCopy.getOriginalPortNr(), inputCopy);
+		}
+		for (final Output output : outputsByPortNr.values()) {
+			final Output outputCopy = output.copy();
+			copy.outputsByName.put(outputCopy.getName(), outputCopy);
+			copy.outputsByPortNr.put(outputCopy.getPortNr(), outputCopy);
+			copy.outputsByOriginalPortNr.put(outputCopy.getOriginalPortNr(), outputCopy);
+		}
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		return "Job [id=" + id + ", name=" + name + ", description=" + description + ", remoteApplication=" + associatedApplication + ", remoteQueue="
@@ -54,6 +54,15 @@ public class Output extends Port {
                 destinations.clear();
         }
 
+        /**
+         * @return a deep copy of this output, without destinations, since they point to other jobs.
+         */
+        public Output copy() {
+                final Output copy = new Output();
+                copyTo(copy);
+                return copy;
+        }
+
         public static class Destination {
                 private Job target;
                 private int targetPortNr;
@@ -1,14 +1,10 @@
 package com.workflowconversion.knime2grid.model;
 
-import java.io.File;
 import java.util.ArrayList;
 
 import org.apache.commons.lang.Validate;
 
-import com.genericworkflownodes.knime.parameter.FileListParameter;
-import com.genericworkflownodes.knime.parameter.FileParameter;
 import com.genericworkflownodes.knime.parameter.IFileParameter;
-import com.workflowconversion.knime2grid.exception.ApplicationException;
 
 public abstract class Port implements GraphicElement {
 
@@ -19,7 +15,8 @@ public abstract class Port implements GraphicElement {
 	private String name;
 	// IFileParameter instances do not contain the file itself, rather, just a String with the path (or URI)
 	private IFileParameter associatedFileParameter;
-	private final ArrayList<File> associatedFiles = new ArrayList<>();
+	// the data itself is accessed only when an exporter needs it
+	private final ArrayList<DataHandle> dataHandles = new ArrayList<>();
 
 	// the original index of this port in the KNIME node
 	private int originalPortNr;
@@ -97,24 +94,15 @@ public abstract class Port implements GraphicElement {
 	}
 
 	private void updateAssociatedFiles() {
-		associatedFiles.clear();
-		if (associatedFileParameter instanceof FileParameter) {
-			associatedFiles.add(new File(((FileParameter) associatedFileParameter).getValue()));
-		} else if (associatedFileParameter instanceof FileListParameter) {
-			for (final String filePath : ((FileListParameter) associatedFileParameter).getValue()) {
-				associatedFiles.add(new File(filePath));
-			}
-		} else {
-			throw new ApplicationException(
-					String.format("Unrecognized file parameter type: %s. This is a bug and should be reported.", this.associatedFileParameter.getClass()));
-		}
+		dataHandles.clear();
+		dataHandles.addAll(DataHandle.forFileParameter(associatedFileParameter));
 	}
 
 	/**
-	 * @return the associated files to this port.
+	 * @return handles to the data associated to this port.
 	 */
-	public ArrayList<File> getAssociatedFiles() {
-		return new ArrayList<>(associatedFiles);
+	public ArrayList<DataHandle> getDataHandles() {
+		return new ArrayList<>(dataHandles);
 	}
 
 	/**
@@ -162,10 +150,27 @@ public abstract class Port implements GraphicElement {
 		this.connectionType = connectionType;
 	}
 
+	/**
+	 * Copies the state of this port into the given port. Data handles are immutable, so they are shared with the copy.
+	 * 
+	 * @param copy
+	 *            the port to copy into.
+	 */
+	protected void copyTo(final Port copy) {
+		copy.x = x;
+		copy.y = y;
+		copy.name = name;
+		copy.associatedFileParameter = associatedFileParameter;
+		copy.dataHandles.addAll(dataHandles);
+		copy.originalPortNr = originalPortNr;
+		copy.portNr = portNr;
+		copy.connectionType = connectionType;
+	}
+
 	/**
 	 * @return the multiFile
 	 */
 	public boolean isMultiFile() {
-		return associatedFiles.size() > 1;
+		return dataHandles.size() > 1;
 	}
 }
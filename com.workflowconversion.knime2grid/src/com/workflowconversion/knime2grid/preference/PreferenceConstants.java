@@ -0,0 +1,174 @@
+package com.workflowconversion.knime2grid.preference;
+
+/**
+ * Keys of the preferences used by this plug-in.
+ * 
+ * @author delagarza
+ *
+ */
+public class PreferenceConstants {
+
+	/**
+	 * Number of threads used to convert nodes. A value of {@code 1} converts nodes sequentially.
+	 */
+	public static final String CONVERSION_THREADS = "com.workflowconversion.knime2grid.conversionThreads";
+
+	/**
+	 * Whether the jobs of previous conversions of a workflow are reused for nodes that have not changed.
+	 */
+	public static final String INCREMENTAL_CONVERSION = "com.workflowconversion.knime2grid.incrementalConversion";
+
+	/**
+	 * Whether the artifacts generated while converting nodes are cached on disk and reused across KNIME sessions.
+	 */
+	public static final String CONVERSION_CACHE_ENABLED = "com.workflowconversion.knime2grid.conversionCache.enabled";
+
+	/**
+	 * Maximum size, in megabytes, of the on-disk conversion cache.
+	 */
+	public static final String CONVERSION_CACHE_SIZE_MB = "com.workflowconversion.knime2grid.conversionCache.sizeMB";
+
+	/**
+	 * Whether downloaded inputs and generated CTDs are kept in a content-addressed store shared across exports.
+	 */
+	public static final String CONTENT_STORE_ENABLED = "com.workflowconversion.knime2grid.contentStore.enabled";
+
+	/**
+	 * Maximum size, in megabytes, of the content-addressed store.
+	 */
+	public static final String CONTENT_STORE_SIZE_MB = "com.workflowconversion.knime2grid.contentStore.sizeMB";
+
+	/**
+	 * Number of remote files that are downloaded concurrently.
+	 */
+	public static final String DOWNLOAD_THREADS = "com.workflowconversion.knime2grid.download.threads";
+
+	/**
+	 * Timeout, in seconds, to establish a connection to download remote files. A value of {@code 0} disables it.
+	 */
+	public static final String DOWNLOAD_CONNECT_TIMEOUT_SECONDS = "com.workflowconversion.knime2grid.download.connectTimeout";
+
+	/**
+	 * Timeout, in seconds, when reading data of remote files. A value of {@code 0} disables it.
+	 */
+	public static final String DOWNLOAD_READ_TIMEOUT_SECONDS = "com.workflowconversion.knime2grid.download.readTimeout";
+
+	/**
+	 * Number of parallel range requests used to download large remote files. A value of {@code 1} disables them.
+	 */
+	public static final String DOWNLOAD_SEGMENTS = "com.workflowconversion.knime2grid.download.segments";
+
+	/**
+	 * Number of jobs the gUSE exporter prepares ahead of the archive writer. A value of {@code 0} disables pipelining.
+	 */
+	public static final String GUSE_PIPELINE_QUEUE_SIZE = "com.workflowconversion.knime2grid.guse.pipelineQueueSize";
+
+	/**
+	 * Number of threads the gUSE exporter uses to compress the entries of the archive and the tar.gz files of multi-file
+	 * inputs. A value of {@code 1} compresses them sequentially.
+	 */
+	public static final String GUSE_COMPRESSION_THREADS = "com.workflowconversion.knime2grid.guse.compressionThreads";
+
+	/**
+	 * Maximum amount of content, in megabytes, that the gUSE exporter compresses ahead of the archive writer into
+	 * temporary files when several compression threads are used.
+	 */
+	public static final String GUSE_SCATTER_SPACE_MB = "com.workflowconversion.knime2grid.guse.scatterSpaceMB";
+
+	/**
+	 * Whether the gUSE exporter copies unchanged inputs from the archive it replaces, instead of compressing them again.
+	 */
+	public static final String GUSE_INCREMENTAL_EXPORT = "com.workflowconversion.knime2grid.guse.incrementalExport";
+
+	/**
+	 * Maximum number of times the generated gUSE job scripts execute a tool that failed.
+	 */
+	public static final String GUSE_MAX_ATTEMPTS = "com.workflowconversion.knime2grid.guse.maxAttempts";
+
+	/**
+	 * Seconds the generated gUSE job scripts wait before executing a failed tool again; the wait doubles after each
+	 * attempt.
+	 */
+	public static final String GUSE_RETRY_BACKOFF_SECONDS = "com.workflowconversion.knime2grid.guse.retryBackoff";
+
+	/**
+	 * Seconds the generated gUSE job scripts wait for the outputs of a successful tool to become visible (e.g., on a
+	 * shared file system) before considering the attempt failed.
+	 */
+	public static final String GUSE_OUTPUT_TIMEOUT_SECONDS = "com.workflowconversion.knime2grid.guse.outputTimeout";
+
+	/**
+	 * Whether the generated gUSE job scripts copy their inputs to node-local scratch space and run the tool there,
+	 * instead of in the (usually shared) working directory.
+	 */
+	public static final String GUSE_SCRATCH_STAGING = "com.workflowconversion.knime2grid.guse.scratchStaging";
+
+	/**
+	 * Scratch directory used by the generated gUSE job scripts. If empty, the scripts use {@code $SLURM_TMPDIR} or
+	 * {@code $TMPDIR}.
+	 */
+	public static final String GUSE_SCRATCH_DIRECTORY = "com.workflowconversion.knime2grid.guse.scratchDirectory";
+
+	/**
+	 * Whether the gUSE exporter requests walltime, memory and cores for jobs whose tools have run before, based on the
+	 * runtime history.
+	 */
+	public static final String GUSE_RESOURCE_REQUESTS = "com.workflowconversion.knime2grid.guse.resourceRequests";
+
+	/**
+	 * Percentage of the walltime and memory used by previous runs of a tool that the gUSE exporter requests for it
+	 * (e.g., {@code 150} requests 1.5 times as much).
+	 */
+	public static final String GUSE_RESOURCE_SAFETY_PERCENT = "com.workflowconversion.knime2grid.guse.resourceSafetyPercent";
+
+	/**
+	 * Directory in which the statistics written by the generated gUSE job scripts (i.e., {@code knime2grid-stats.json}
+	 * files or job logs) are collected. They are added to the runtime history before each export. If empty, nothing is
+	 * added.
+	 */
+	public static final String GUSE_RUNTIME_STATISTICS_DIRECTORY = "com.workflowconversion.knime2grid.guse.runtimeStatisticsDirectory";
+
+	/**
+	 * Whether the gUSE exporter groups the elements of a loop into work units, so that gUSE submits one job per unit
+	 * instead of one job per element.
+	 */
+	public static final String GUSE_GENERATOR_BATCHING = "com.workflowconversion.knime2grid.guse.generatorBatching";
+
+	/**
+	 * Seconds a work unit of a batched loop should take; the number of elements in a unit is chosen from the runtime
+	 * history.
+	 */
+	public static final String GUSE_TARGET_BATCH_SECONDS = "com.workflowconversion.knime2grid.guse.targetBatchSeconds";
+
+	/**
+	 * Maximum number of work units a batched loop is split into.
+	 */
+	public static final String GUSE_MAX_WORK_UNITS = "com.workflowconversion.knime2grid.guse.maxWorkUnits";
+
+	/**
+	 * Whether the elements of a work unit are processed in parallel on the cores given to the job.
+	 */
+	public static final String GUSE_BATCH_PARALLEL = "com.workflowconversion.knime2grid.guse.batchParallel";
+
+	/**
+	 * Whether the gUSE exporter maps loops to gUSE parameter sweeps (parametric inputs, generator outputs and collector
+	 * inputs) instead of exporting them with generator and collector jobs running on the local executor. Loops that
+	 * cannot be mapped are exported with those jobs.
+	 */
+	public static final String GUSE_PARAMETER_SWEEPS = "com.workflowconversion.knime2grid.guse.parameterSweeps";
+
+	/**
+	 * Minimum size, in megabytes, of inputs that the gUSE exporter references remotely instead of including them in
+	 * the archive. A value of {@code 0} disables this.
+	 */
+	public static final String GUSE_REMOTE_REFERENCE_THRESHOLD_MB = "com.workflowconversion.knime2grid.guse.remoteReferenceThresholdMB";
+
+	/**
+	 * Mappings from local path prefixes to the prefixes under which execution resources find the same files, in the
+	 * form {@code local=remote;local=remote}.
+	 */
+	public static final String GUSE_REMOTE_PATH_MAPPINGS = "com.workflowconversion.knime2grid.guse.remotePathMappings";
+
+	private PreferenceConstants() {
+	}
+}
@@ -1,13 +1,45 @@
 package com.workflowconversion.knime2grid.preference;
 
 import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+import com.workflowconversion.knime2grid.KnimeWorkflowExporterActivator;
 
 public class PreferenceInitializer extends AbstractPreferenceInitializer {
 
 	@Override
 	public void initializeDefaultPreferences() {
-		// TODO Auto-generated method stub
-
+		final IPreferenceStore store = KnimeWorkflowExporterActivator.getDefault().getPreferenceStore();
+		// converting in parallel is opt-in, converters of third parties might not be thread-safe
+		store.setDefault(PreferenceConstants.CONVERSION_THREADS, 1);
+		store.setDefault(PreferenceConstants.INCREMENTAL_CONVERSION, false);
+		store.setDefault(PreferenceConstants.CONVERSION_CACHE_ENABLED, true);
+		store.setDefault(PreferenceConstants.CONVERSION_CACHE_SIZE_MB, 1024);
+		store.setDefault(PreferenceConstants.CONTENT_STORE_ENABLED, true);
+		store.setDefault(PreferenceConstants.CONTENT_STORE_SIZE_MB, 10240);
+		store.setDefault(PreferenceConstants.DOWNLOAD_THREADS, 4);
+		store.setDefault(PreferenceConstants.DOWNLOAD_CONNECT_TIMEOUT_SECONDS, 30);
+		store.setDefault(PreferenceConstants.DOWNLOAD_READ_TIMEOUT_SECONDS, 60);
+		store.setDefault(PreferenceConstants.DOWNLOAD_SEGMENTS, 4);
+		store.setDefault(PreferenceConstants.GUSE_PIPELINE_QUEUE_SIZE, 4);
+		store.setDefault(PreferenceConstants.GUSE_COMPRESSION_THREADS, Runtime.getRuntime().availableProcessors());
+		store.setDefault(PreferenceConstants.GUSE_SCATTER_SPACE_MB, 1024);
+		store.setDefault(PreferenceConstants.GUSE_INCREMENTAL_EXPORT, true);
+		store.setDefault(PreferenceConstants.GUSE_MAX_ATTEMPTS, 3);
+		store.setDefault(PreferenceConstants.GUSE_RETRY_BACKOFF_SECONDS, 10);
+		store.setDefault(PreferenceConstants.GUSE_OUTPUT_TIMEOUT_SECONDS, 120);
+		store.setDefault(PreferenceConstants.GUSE_SCRATCH_STAGING, false);
+		store.setDefault(PreferenceConstants.GUSE_SCRATCH_DIRECTORY, "");
+		store.setDefault(PreferenceConstants.GUSE_RESOURCE_REQUESTS, true);
+		store.setDefault(PreferenceConstants.GUSE_RESOURCE_SAFETY_PERCENT, 150);
+		store.setDefault(PreferenceConstants.GUSE_RUNTIME_STATISTICS_DIRECTORY, "");
+		store.setDefault(PreferenceConstants.GUSE_GENERATOR_BATCHING, false);
+		store.setDefault(PreferenceConstants.GUSE_TARGET_BATCH_SECONDS, 600);
+		store.setDefault(PreferenceConstants.GUSE_MAX_WORK_UNITS, 1000);
+		store.setDefault(PreferenceConstants.GUSE_BATCH_PARALLEL, true);
+		store.setDefault(PreferenceConstants.GUSE_PARAMETER_SWEEPS, false);
+		store.setDefault(PreferenceConstants.GUSE_REMOTE_REFERENCE_THRESHOLD_MB, 0);
+		store.setDefault(PreferenceConstants.GUSE_REMOTE_PATH_MAPPINGS, "");
 	}
 
 }
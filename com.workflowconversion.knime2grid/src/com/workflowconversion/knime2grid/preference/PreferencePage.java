@@ -1,18 +1,158 @@
 package com.workflowconversion.knime2grid.preference;
 
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
+import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
+import com.workflowconversion.knime2grid.KnimeWorkflowExporterActivator;
+
 public class PreferencePage extends FieldEditorPreferencePage implements IWorkbenchPreferencePage {
+
+	private static final int MAX_THREADS = 256;
+	private static final int MAX_QUEUE_SIZE = 1024;
+	private static final int MAX_CACHE_SIZE_MB = 1024 * 1024;
+	private static final int MAX_TIMEOUT_SECONDS = 3600;
+	private static final int MAX_SEGMENTS = 32;
+	private static final int MAX_ATTEMPTS = 100;
+	private static final int MAX_SAFETY_PERCENT = 1000;
+	private static final int MAX_BATCH_SECONDS = 7 * 24 * 3600;
+	private static final int MAX_WORK_UNITS = 100000;
+
+	public PreferencePage() {
+		super(GRID);
+	}
+
 	@Override
 	protected void createFieldEditors() {
+		final IntegerFieldEditor conversionThreadsEditor = new IntegerFieldEditor(PreferenceConstants.CONVERSION_THREADS,
+				"Threads used to convert nodes (1 = sequential):", getFieldEditorParent());
+		conversionThreadsEditor.setValidRange(1, MAX_THREADS);
+		addField(conversionThreadsEditor);
+
+		addField(new BooleanFieldEditor(PreferenceConstants.INCREMENTAL_CONVERSION, "Convert only the nodes that changed since the last conversion",
+				getFieldEditorParent()));
+
+		addField(new BooleanFieldEditor(PreferenceConstants.CONVERSION_CACHE_ENABLED, "Cache converted nodes on disk", getFieldEditorParent()));
+
+		final IntegerFieldEditor cacheSizeEditor = new IntegerFieldEditor(PreferenceConstants.CONVERSION_CACHE_SIZE_MB, "Maximum size of the conversion cache (MB):",
+				getFieldEditorParent());
+		cacheSizeEditor.setValidRange(0, MAX_CACHE_SIZE_MB);
+		addField(cacheSizeEditor);
+
+		addField(new BooleanFieldEditor(PreferenceConstants.CONTENT_STORE_ENABLED, "Share downloaded inputs and CTDs across exports (requires restart)",
+				getFieldEditorParent()));
+
+		final IntegerFieldEditor contentStoreSizeEditor = new IntegerFieldEditor(PreferenceConstants.CONTENT_STORE_SIZE_MB,
+				"Maximum size of the shared content store (MB):", getFieldEditorParent());
+		contentStoreSizeEditor.setValidRange(0, MAX_CACHE_SIZE_MB);
+		addField(contentStoreSizeEditor);
+
+		// downloads are configured when the plug-in starts
+		final IntegerFieldEditor downloadThreadsEditor = new IntegerFieldEditor(PreferenceConstants.DOWNLOAD_THREADS,
+				"Concurrent downloads of remote inputs (requires restart):", getFieldEditorParent());
+		downloadThreadsEditor.setValidRange(1, MAX_THREADS);
+		addField(downloadThreadsEditor);
+
+		final IntegerFieldEditor connectTimeoutEditor = new IntegerFieldEditor(PreferenceConstants.DOWNLOAD_CONNECT_TIMEOUT_SECONDS,
+				"Download connect timeout in seconds (0 = none, requires restart):", getFieldEditorParent());
+		connectTimeoutEditor.setValidRange(0, MAX_TIMEOUT_SECONDS);
+		addField(connectTimeoutEditor);
+
+		final IntegerFieldEditor readTimeoutEditor = new IntegerFieldEditor(PreferenceConstants.DOWNLOAD_READ_TIMEOUT_SECONDS,
+				"Download read timeout in seconds (0 = none, requires restart):", getFieldEditorParent());
+		readTimeoutEditor.setValidRange(0, MAX_TIMEOUT_SECONDS);
+		addField(readTimeoutEditor);
+
+		final IntegerFieldEditor segmentsEditor = new IntegerFieldEditor(PreferenceConstants.DOWNLOAD_SEGMENTS,
+				"Parallel segments for large downloads (1 = none, requires restart):", getFieldEditorParent());
+		segmentsEditor.setValidRange(1, MAX_SEGMENTS);
+		addField(segmentsEditor);
+
+		final IntegerFieldEditor pipelineQueueSizeEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_PIPELINE_QUEUE_SIZE,
+				"gUSE: jobs prepared ahead of the archive writer (0 = no pipelining):", getFieldEditorParent());
+		pipelineQueueSizeEditor.setValidRange(0, MAX_QUEUE_SIZE);
+		addField(pipelineQueueSizeEditor);
+
+		final IntegerFieldEditor compressionThreadsEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_COMPRESSION_THREADS,
+				"gUSE: threads used to compress the archive (1 = sequential):", getFieldEditorParent());
+		compressionThreadsEditor.setValidRange(1, MAX_THREADS);
+		addField(compressionThreadsEditor);
+
+		final IntegerFieldEditor scatterSpaceEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_SCATTER_SPACE_MB,
+				"gUSE: temporary space for compressed entries (MB):", getFieldEditorParent());
+		scatterSpaceEditor.setValidRange(1, MAX_CACHE_SIZE_MB);
+		addField(scatterSpaceEditor);
 
+		addField(new BooleanFieldEditor(PreferenceConstants.GUSE_INCREMENTAL_EXPORT, "gUSE: reuse unchanged inputs when overwriting an archive",
+				getFieldEditorParent()));
+
+		final IntegerFieldEditor maxAttemptsEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_MAX_ATTEMPTS,
+				"gUSE: maximum executions of a failing tool:", getFieldEditorParent());
+		maxAttemptsEditor.setValidRange(1, MAX_ATTEMPTS);
+		addField(maxAttemptsEditor);
+
+		final IntegerFieldEditor retryBackoffEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_RETRY_BACKOFF_SECONDS,
+				"gUSE: seconds to wait before executing a failed tool again (doubles each time):", getFieldEditorParent());
+		retryBackoffEditor.setValidRange(0, MAX_TIMEOUT_SECONDS);
+		addField(retryBackoffEditor);
+
+		final IntegerFieldEditor outputTimeoutEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_OUTPUT_TIMEOUT_SECONDS,
+				"gUSE: seconds to wait for the outputs of a tool to become visible:", getFieldEditorParent());
+		outputTimeoutEditor.setValidRange(0, MAX_TIMEOUT_SECONDS);
+		addField(outputTimeoutEditor);
+
+		addField(new BooleanFieldEditor(PreferenceConstants.GUSE_SCRATCH_STAGING, "gUSE: run jobs in node-local scratch space",
+				getFieldEditorParent()));
+
+		addField(new StringFieldEditor(PreferenceConstants.GUSE_SCRATCH_DIRECTORY, "gUSE: scratch directory (empty = $SLURM_TMPDIR or $TMPDIR):",
+				getFieldEditorParent()));
+
+		addField(new BooleanFieldEditor(PreferenceConstants.GUSE_RESOURCE_REQUESTS, "gUSE: request walltime, memory and cores based on previous runs",
+				getFieldEditorParent()));
+
+		final IntegerFieldEditor safetyPercentEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_RESOURCE_SAFETY_PERCENT,
+				"gUSE: requested walltime and memory (% of previous runs):", getFieldEditorParent());
+		safetyPercentEditor.setValidRange(100, MAX_SAFETY_PERCENT);
+		addField(safetyPercentEditor);
+
+		addField(new StringFieldEditor(PreferenceConstants.GUSE_RUNTIME_STATISTICS_DIRECTORY, "gUSE: directory with statistics of finished jobs:",
+				getFieldEditorParent()));
+
+		addField(new BooleanFieldEditor(PreferenceConstants.GUSE_GENERATOR_BATCHING, "gUSE: group the elements of loops into work units",
+				getFieldEditorParent()));
+
+		final IntegerFieldEditor targetBatchSecondsEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_TARGET_BATCH_SECONDS,
+				"gUSE: seconds a work unit should take:", getFieldEditorParent());
+		targetBatchSecondsEditor.setValidRange(1, MAX_BATCH_SECONDS);
+		addField(targetBatchSecondsEditor);
+
+		final IntegerFieldEditor maxWorkUnitsEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_MAX_WORK_UNITS,
+				"gUSE: maximum work units per loop:", getFieldEditorParent());
+		maxWorkUnitsEditor.setValidRange(1, MAX_WORK_UNITS);
+		addField(maxWorkUnitsEditor);
+
+		addField(new BooleanFieldEditor(PreferenceConstants.GUSE_BATCH_PARALLEL, "gUSE: process the elements of a work unit in parallel",
+				getFieldEditorParent()));
+
+		addField(new BooleanFieldEditor(PreferenceConstants.GUSE_PARAMETER_SWEEPS, "gUSE: map loops to parameter sweeps instead of generator/collector jobs",
+				getFieldEditorParent()));
+
+		final IntegerFieldEditor remoteReferenceThresholdEditor = new IntegerFieldEditor(PreferenceConstants.GUSE_REMOTE_REFERENCE_THRESHOLD_MB,
+				"gUSE: reference inputs larger than (MB) remotely (0 = never):", getFieldEditorParent());
+		remoteReferenceThresholdEditor.setValidRange(0, Integer.MAX_VALUE);
+		addField(remoteReferenceThresholdEditor);
+
+		addField(new StringFieldEditor(PreferenceConstants.GUSE_REMOTE_PATH_MAPPINGS, "gUSE: remote locations of local paths (local=remote;...):",
+				getFieldEditorParent()));
 	}
 
 	@Override
 	public void init(IWorkbench workbench) {
-
+		setPreferenceStore(KnimeWorkflowExporterActivator.getDefault().getPreferenceStore());
+		setDescription("Settings for the conversion of KNIME workflows.");
 	}
 
 }